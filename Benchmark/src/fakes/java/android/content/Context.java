@@ -0,0 +1,36 @@
+package android.content;
+
+import java.io.File;
+
+import android.net.ConnectivityManager;
+import android.telephony.TelephonyManager;
+
+/**
+ * 基准测试使用的Context替身 数据库文件放在指定目录下 网络视为已连接的WIFI
+ * Fake Context for benchmarks, database files are put in the given directory and network is
+ * treated as connected WIFI.
+ */
+public class Context {
+    public static final String CONNECTIVITY_SERVICE = "connectivity";
+    public static final String TELEPHONY_SERVICE = "phone";
+
+    private final File mDir;
+
+    public Context(File dir) {
+        mDir = dir;
+    }
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public File getDatabasePath(String name) {
+        return new File(mDir, name);
+    }
+
+    public Object getSystemService(String name) {
+        if (CONNECTIVITY_SERVICE.equals(name)) return new ConnectivityManager();
+        if (TELEPHONY_SERVICE.equals(name)) return new TelephonyManager();
+        return null;
+    }
+}
@@ -0,0 +1,25 @@
+package android.database;
+
+/**
+ * Cursor替身 只包含下载库用到的方法
+ * Fake Cursor, only methods used by the downloader.
+ */
+public interface Cursor {
+    int getCount();
+
+    boolean moveToFirst();
+
+    boolean moveToNext();
+
+    int getColumnIndex(String name);
+
+    boolean isNull(int index);
+
+    String getString(int index);
+
+    int getInt(int index);
+
+    long getLong(int index);
+
+    void close();
+}
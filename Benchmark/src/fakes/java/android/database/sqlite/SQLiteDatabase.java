@@ -0,0 +1,224 @@
+package android.database.sqlite;
+
+import android.database.Cursor;
+import android.database.SQLException;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基于嵌入式SQLite的SQLiteDatabase替身 使用与Android相同的SQLite引擎及SQL方言
+ * Fake SQLiteDatabase on embedded SQLite, the same engine and SQL dialect as Android.
+ */
+public class SQLiteDatabase {
+    public interface CursorFactory {
+    }
+
+    final Connection mConnection;
+    private int mDepth;
+    private boolean isSuccessful;
+
+    SQLiteDatabase(String path) {
+        try {
+            mConnection = DriverManager.getConnection("jdbc:sqlite:" + path);
+        } catch (java.sql.SQLException e) {
+            throw new SQLException("Failed to open " + path, e);
+        }
+    }
+
+    public void execSQL(String sql) {
+        try (Statement statement = mConnection.createStatement()) {
+            statement.execute(sql);
+        } catch (java.sql.SQLException e) {
+            throw new SQLException(sql, e);
+        }
+    }
+
+    public void execSQL(String sql, Object[] args) {
+        try (PreparedStatement statement = mConnection.prepareStatement(sql)) {
+            for (int i = 0; i < args.length; i++) {
+                statement.setObject(i + 1, args[i]);
+            }
+            statement.execute();
+        } catch (java.sql.SQLException e) {
+            throw new SQLException(sql, e);
+        }
+    }
+
+    public Cursor rawQuery(String sql, String[] args) {
+        try (PreparedStatement statement = mConnection.prepareStatement(sql)) {
+            for (int i = 0; null != args && i < args.length; i++) {
+                statement.setString(i + 1, args[i]);
+            }
+            try (ResultSet rs = statement.executeQuery()) {
+                ResultSetMetaData meta = rs.getMetaData();
+                String[] columns = new String[meta.getColumnCount()];
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = meta.getColumnLabel(i + 1);
+                }
+                List<Object[]> rows = new ArrayList<>();
+                while (rs.next()) {
+                    Object[] row = new Object[columns.length];
+                    for (int i = 0; i < columns.length; i++) {
+                        row[i] = rs.getObject(i + 1);
+                    }
+                    rows.add(row);
+                }
+                return new RowCursor(columns, rows);
+            }
+        } catch (java.sql.SQLException e) {
+            throw new SQLException(sql, e);
+        }
+    }
+
+    public SQLiteStatement compileStatement(String sql) {
+        try {
+            return new SQLiteStatement(this, mConnection.prepareStatement(sql));
+        } catch (java.sql.SQLException e) {
+            throw new SQLException(sql, e);
+        }
+    }
+
+    public void beginTransaction() {
+        try {
+            if (mDepth++ == 0) {
+                mConnection.setAutoCommit(false);
+                isSuccessful = false;
+            }
+        } catch (java.sql.SQLException e) {
+            throw new SQLException("begin", e);
+        }
+    }
+
+    public void beginTransactionNonExclusive() {
+        beginTransaction();
+    }
+
+    public void setTransactionSuccessful() {
+        isSuccessful = true;
+    }
+
+    public void endTransaction() {
+        try {
+            if (--mDepth == 0) {
+                if (isSuccessful) {
+                    mConnection.commit();
+                } else {
+                    mConnection.rollback();
+                }
+                mConnection.setAutoCommit(true);
+            }
+        } catch (java.sql.SQLException e) {
+            throw new SQLException("end", e);
+        }
+    }
+
+    public boolean enableWriteAheadLogging() {
+        execSQL("PRAGMA journal_mode=WAL");
+        // Android在WAL模式下默认使用NORMAL同步 Android syncs NORMAL in WAL mode by default
+        execSQL("PRAGMA synchronous=NORMAL");
+        return true;
+    }
+
+    public boolean isReadOnly() {
+        return false;
+    }
+
+    public boolean isOpen() {
+        try {
+            return !mConnection.isClosed();
+        } catch (java.sql.SQLException e) {
+            return false;
+        }
+    }
+
+    public int getVersion() {
+        Cursor c = rawQuery("PRAGMA user_version", null);
+        try {
+            return c.moveToFirst() ? c.getInt(0) : 0;
+        } finally {
+            c.close();
+        }
+    }
+
+    public void setVersion(int version) {
+        execSQL("PRAGMA user_version=" + version);
+    }
+
+    public void close() {
+        try {
+            mConnection.close();
+        } catch (java.sql.SQLException e) {
+            throw new SQLException("close", e);
+        }
+    }
+
+    private static final class RowCursor implements Cursor {
+        private final String[] mColumns;
+        private final List<Object[]> mRows;
+        private int mPosition = -1;
+
+        RowCursor(String[] columns, List<Object[]> rows) {
+            mColumns = columns;
+            mRows = rows;
+        }
+
+        @Override
+        public int getCount() {
+            return mRows.size();
+        }
+
+        @Override
+        public boolean moveToFirst() {
+            mPosition = 0;
+            return !mRows.isEmpty();
+        }
+
+        @Override
+        public boolean moveToNext() {
+            return ++mPosition < mRows.size();
+        }
+
+        @Override
+        public int getColumnIndex(String name) {
+            for (int i = 0; i < mColumns.length; i++) {
+                if (mColumns[i].equalsIgnoreCase(name)) return i;
+            }
+            return -1;
+        }
+
+        @Override
+        public boolean isNull(int index) {
+            return null == mRows.get(mPosition)[index];
+        }
+
+        @Override
+        public String getString(int index) {
+            Object value = mRows.get(mPosition)[index];
+            return null == value ? null : String.valueOf(value);
+        }
+
+        @Override
+        public int getInt(int index) {
+            return (int) getLong(index);
+        }
+
+        @Override
+        public long getLong(int index) {
+            Object value = mRows.get(mPosition)[index];
+            if (null == value) return 0;
+            if (value instanceof Number) return ((Number) value).longValue();
+            return Long.parseLong(String.valueOf(value));
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
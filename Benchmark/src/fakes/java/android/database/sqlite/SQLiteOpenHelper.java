@@ -0,0 +1,60 @@
+package android.database.sqlite;
+
+import android.content.Context;
+
+/**
+ * SQLiteOpenHelper替身 按PRAGMA user_version建表或升级 与Android的行为一致
+ * Fake SQLiteOpenHelper, tables are created or upgraded by PRAGMA user_version like Android.
+ */
+public abstract class SQLiteOpenHelper {
+    private final Context mContext;
+    private final String mName;
+    private final int mVersion;
+    private SQLiteDatabase mDatabase;
+
+    public SQLiteOpenHelper(Context context, String name, SQLiteDatabase.CursorFactory factory,
+                            int version) {
+        mContext = context;
+        mName = name;
+        mVersion = version;
+    }
+
+    public abstract void onCreate(SQLiteDatabase db);
+
+    public abstract void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion);
+
+    public void onOpen(SQLiteDatabase db) {
+    }
+
+    public synchronized SQLiteDatabase getWritableDatabase() {
+        if (null != mDatabase && mDatabase.isOpen()) return mDatabase;
+        SQLiteDatabase db = new SQLiteDatabase(mContext.getDatabasePath(mName).getPath());
+        int version = db.getVersion();
+        if (version != mVersion) {
+            db.beginTransaction();
+            try {
+                if (version == 0) {
+                    onCreate(db);
+                } else {
+                    onUpgrade(db, version, mVersion);
+                }
+                db.setVersion(mVersion);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+        onOpen(db);
+        mDatabase = db;
+        return db;
+    }
+
+    public synchronized SQLiteDatabase getReadableDatabase() {
+        return getWritableDatabase();
+    }
+
+    public synchronized void close() {
+        if (null != mDatabase && mDatabase.isOpen()) mDatabase.close();
+        mDatabase = null;
+    }
+}
@@ -0,0 +1,90 @@
+package android.database.sqlite;
+
+import android.database.SQLException;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Types;
+
+/**
+ * 基于JDBC预编译语句的SQLiteStatement替身
+ * Fake SQLiteStatement on JDBC prepared statement.
+ */
+public class SQLiteStatement {
+    private final SQLiteDatabase mDatabase;
+    private final PreparedStatement mStatement;
+
+    SQLiteStatement(SQLiteDatabase database, PreparedStatement statement) {
+        mDatabase = database;
+        mStatement = statement;
+    }
+
+    public void bindLong(int index, long value) {
+        try {
+            mStatement.setLong(index, value);
+        } catch (java.sql.SQLException e) {
+            throw new SQLException("bind", e);
+        }
+    }
+
+    public void bindString(int index, String value) {
+        try {
+            mStatement.setString(index, value);
+        } catch (java.sql.SQLException e) {
+            throw new SQLException("bind", e);
+        }
+    }
+
+    public void bindNull(int index) {
+        try {
+            mStatement.setNull(index, Types.NULL);
+        } catch (java.sql.SQLException e) {
+            throw new SQLException("bind", e);
+        }
+    }
+
+    public void clearBindings() {
+        try {
+            mStatement.clearParameters();
+        } catch (java.sql.SQLException e) {
+            throw new SQLException("clear", e);
+        }
+    }
+
+    public void execute() {
+        try {
+            mStatement.execute();
+        } catch (java.sql.SQLException e) {
+            throw new SQLException("execute", e);
+        }
+    }
+
+    public int executeUpdateDelete() {
+        try {
+            return mStatement.executeUpdate();
+        } catch (java.sql.SQLException e) {
+            throw new SQLException("execute", e);
+        }
+    }
+
+    public long executeInsert() {
+        try {
+            if (mStatement.executeUpdate() == 0) return -1;
+            try (Statement statement = mDatabase.mConnection.createStatement();
+                 ResultSet rs = statement.executeQuery("SELECT last_insert_rowid()")) {
+                return rs.next() ? rs.getLong(1) : -1;
+            }
+        } catch (java.sql.SQLException e) {
+            throw new SQLException("insert", e);
+        }
+    }
+
+    public void close() {
+        try {
+            mStatement.close();
+        } catch (java.sql.SQLException e) {
+            throw new SQLException("close", e);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package android.net;
+
+public final class Proxy {
+    public static String getDefaultHost() {
+        return null;
+    }
+
+    public static int getDefaultPort() {
+        return -1;
+    }
+}
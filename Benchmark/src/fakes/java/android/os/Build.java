@@ -0,0 +1,11 @@
+package android.os;
+
+/**
+ * Build替身 版本号与下载库的targetSdkVersion一致
+ * Fake Build, version matches targetSdkVersion of the downloader.
+ */
+public class Build {
+    public static class VERSION {
+        public static final int SDK_INT = 22;
+    }
+}
@@ -0,0 +1,25 @@
+package android.os;
+
+import java.io.File;
+
+public class StatFs {
+    private static final int BLOCK_SIZE = 4096;
+
+    private final File mPath;
+
+    public StatFs(String path) {
+        mPath = new File(path);
+    }
+
+    public long getAvailableBytes() {
+        return mPath.getUsableSpace();
+    }
+
+    public int getAvailableBlocks() {
+        return (int) Math.min(Integer.MAX_VALUE, getAvailableBytes() / BLOCK_SIZE);
+    }
+
+    public int getBlockSize() {
+        return BLOCK_SIZE;
+    }
+}
@@ -0,0 +1,21 @@
+package android.security;
+
+/**
+ * NetworkSecurityPolicy替身 普通JVM上允许所有明文请求
+ * Fake NetworkSecurityPolicy, all cleartext requests are permitted on a plain JVM.
+ */
+public class NetworkSecurityPolicy {
+    private static final NetworkSecurityPolicy sInstance = new NetworkSecurityPolicy();
+
+    public static NetworkSecurityPolicy getInstance() {
+        return sInstance;
+    }
+
+    public boolean isCleartextTrafficPermitted() {
+        return true;
+    }
+
+    public boolean isCleartextTrafficPermitted(String hostname) {
+        return true;
+    }
+}
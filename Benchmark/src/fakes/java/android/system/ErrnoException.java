@@ -0,0 +1,10 @@
+package android.system;
+
+public final class ErrnoException extends Exception {
+    public final int errno;
+
+    public ErrnoException(String functionName, int errno) {
+        super(functionName + " failed: errno " + errno);
+        this.errno = errno;
+    }
+}
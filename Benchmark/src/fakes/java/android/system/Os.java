@@ -0,0 +1,15 @@
+package android.system;
+
+import java.io.FileDescriptor;
+
+/**
+ * Os替身 普通JVM无法调用posix_fallocate 视为文件系统不支持 下载库会改用扩展文件长度
+ * Fake Os, posix_fallocate is not reachable on a plain JVM, so it's reported as not supported
+ * by file system and the downloader falls back to extending file length.
+ */
+public final class Os {
+    public static void posix_fallocate(FileDescriptor fd, long offset, long length)
+            throws ErrnoException {
+        throw new ErrnoException("posix_fallocate", OsConstants.EOPNOTSUPP);
+    }
+}
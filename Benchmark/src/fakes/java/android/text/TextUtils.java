@@ -0,0 +1,7 @@
+package android.text;
+
+public class TextUtils {
+    public static boolean isEmpty(CharSequence str) {
+        return null == str || str.length() == 0;
+    }
+}
@@ -0,0 +1,29 @@
+package android.util;
+
+/**
+ * Log替身 只输出警告及错误 避免日志干扰测量
+ * Fake Log, only warnings and errors are printed so logging doesn't disturb measurement.
+ */
+public final class Log {
+    public static int v(String tag, String msg) {
+        return 0;
+    }
+
+    public static int d(String tag, String msg) {
+        return 0;
+    }
+
+    public static int i(String tag, String msg) {
+        return 0;
+    }
+
+    public static int w(String tag, String msg) {
+        System.err.println("W/" + tag + ": " + msg);
+        return 0;
+    }
+
+    public static int e(String tag, String msg) {
+        System.err.println("E/" + tag + ": " + msg);
+        return 0;
+    }
+}
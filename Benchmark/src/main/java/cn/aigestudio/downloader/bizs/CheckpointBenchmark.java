@@ -0,0 +1,130 @@
+package cn.aigestudio.downloader.bizs;
+
+import android.content.Context;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import cn.aigestudio.downloader.entities.BlockInfo;
+import cn.aigestudio.downloader.entities.TaskInfo;
+import cn.aigestudio.downloader.entities.ThreadInfo;
+
+/**
+ * 断点写入的基准测试 数据库为嵌入式SQLite
+ * 比较断点写入器每次在一个事务中批量写入的方式与逐条更新线程数据的方式 以及续传时读取线程数据
+ * Benchmark of checkpoint writes on embedded SQLite.
+ * Compares the checkpointer's batch written in one transaction with updating thread infos one by
+ * one, and reading thread infos on resume.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CheckpointBenchmark {
+    private static final String URL = "http://bench.local/file.bin";
+    private static final long LENGTH_FILE = 1073741824;
+
+    /**
+     * 任务的下载区间数 count of download ranges of the task.
+     */
+    @Param({"1", "8", "64"})
+    public int ranges;
+
+    private File mDir;
+    private DBManager mDBManager;
+    private TaskInfo mTask;
+    private final List<DBManager.Op> mUpdates = new ArrayList<>();
+    private final List<ThreadInfo> mThreads = new ArrayList<>();
+    private long mTick;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("checkpoint", "");
+        if (!mDir.delete() || !mDir.mkdirs()) throw new IOException("Cannot create " + mDir);
+        mDBManager = DBManager.getInstance(new Context(mDir));
+        File file = new File(mDir, "file.bin");
+        mTask = new TaskInfo(file, URL, URL, 0, LENGTH_FILE, ranges);
+        List<DBManager.Op> inserts = new ArrayList<>();
+        inserts.add(new DBManager.Op(DBManager.Op.INSERT, mTask));
+        long size = LENGTH_FILE / ranges;
+        for (int i = 0; i < ranges; i++) {
+            ThreadInfo info = new ThreadInfo(file, URL, URL, i * size,
+                    i == ranges - 1 ? LENGTH_FILE - 1 : (i + 1) * size - 1,
+                    String.valueOf(i));
+            mThreads.add(info);
+            inserts.add(new DBManager.Op(DBManager.Op.INSERT, info));
+        }
+        mDBManager.checkpoint(inserts);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mDBManager.checkpoint(Collections.singletonList(
+                new DBManager.Op(DBManager.Op.DELETE, mTask)));
+        mDBManager.release();
+        File[] files = mDir.listFiles();
+        if (null != files) {
+            for (File file : files) {
+                if (!file.delete()) file.deleteOnExit();
+            }
+        }
+        if (!mDir.delete()) mDir.deleteOnExit();
+    }
+
+    /**
+     * 断点写入器的一次写入 任务进度、每个区间的位置及一条块校验记录在一个事务中写入
+     * One write of the checkpointer, task progress, position of every range and a block record
+     * in one transaction.
+     */
+    @Benchmark
+    public void checkpoint() {
+        mTick++;
+        mUpdates.clear();
+        mTask.progress = mTick;
+        mUpdates.add(new DBManager.Op(DBManager.Op.UPDATE, mTask));
+        for (ThreadInfo info : mThreads) {
+            info.start++;
+            mUpdates.add(new DBManager.Op(DBManager.Op.UPDATE, info));
+        }
+        mUpdates.add(new DBManager.Op(DBManager.Op.UPDATE,
+                new BlockInfo(URL, (mTick % 1024) * DLBlocks.SIZE, DLBlocks.SIZE, mTick)));
+        mDBManager.checkpoint(mUpdates);
+    }
+
+    /**
+     * 每个区间单独更新 每条更新各自提交
+     * Every range updated on its own, each update committed separately.
+     */
+    @Benchmark
+    public void updateEach() {
+        for (ThreadInfo info : mThreads) {
+            info.start++;
+            mDBManager.updateThreadInfo(info);
+        }
+    }
+
+    @Benchmark
+    public List<ThreadInfo> queryThreadInfos() {
+        return mDBManager.queryThreadInfos(URL);
+    }
+}
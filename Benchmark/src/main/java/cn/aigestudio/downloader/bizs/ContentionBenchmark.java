@@ -0,0 +1,114 @@
+package cn.aigestudio.downloader.bizs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 下载线程每个缓冲区经过的共享状态在1至64个线程下的竞争
+ * 每次操作是一个缓冲区的进度确认路径 从共享的缓冲区池借用缓冲区 按任务的限速器计算分段及令牌
+ * 在任务的进度上预留并确认写入的字节 再归还缓冲区 池的上限足够所有线程同时借用 只测量锁竞争而不是等待
+ * Contention on shared state every buffer of a download thread goes through, at 1 to 64 threads.
+ * Each operation is the progress path of one buffer, borrowing from the shared buffer pool,
+ * charging chunk and tokens on the task's rate limiter, reserving and committing written bytes
+ * on the task's progress, then releasing the buffer. The pool cap lets all threads borrow at
+ * once, so lock contention is measured rather than waiting.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ContentionBenchmark {
+    private static final int MAX_THREADS = 64;
+
+    /**
+     * 限速器的速率 0表示不限速 rate of limiter, 0 means no limit.
+     */
+    @Param({"0", "1073741824"})
+    public long rate;
+
+    @Param({"131072"})
+    public int bufferSize;
+
+    private DLBufferPool mPool;
+    private DLRateLimiter mLimiter;
+    private final Progress mProgress = new Progress();
+
+    /**
+     * 任务的进度 预留及确认与下载线程的reserve、commit相同 在同一个监视器上同步
+     * Progress of task, reserving and committing are the same as reserve and commit of download
+     * threads, synchronized on one monitor.
+     */
+    private static final class Progress {
+        private long progress, total, reserved;
+
+        synchronized long reserve(int len) {
+            long offset = progress + reserved;
+            reserved += len;
+            return offset;
+        }
+
+        synchronized void commit(int len) {
+            progress += len;
+            total += len;
+            reserved -= len;
+            if (0 == reserved) notifyAll();
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        mPool = new DLBufferPool(bufferSize, (long) bufferSize * MAX_THREADS);
+        mLimiter = new DLRateLimiter();
+        mLimiter.setRate(rate);
+    }
+
+    private long step() throws InterruptedIOException {
+        ByteBuffer buffer = mPool.acquire(true);
+        int len = mLimiter.chunk(buffer.capacity());
+        long delay = mLimiter.acquire(len);
+        mProgress.reserve(len);
+        mProgress.commit(len);
+        mPool.release(buffer);
+        return delay;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long threads01() throws InterruptedIOException {
+        return step();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long threads04() throws InterruptedIOException {
+        return step();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public long threads16() throws InterruptedIOException {
+        return step();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public long threads64() throws InterruptedIOException {
+        return step();
+    }
+}
@@ -0,0 +1,143 @@
+package cn.aigestudio.downloader.bizs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import cn.aigestudio.downloader.cons.PublicCons;
+import cn.aigestudio.downloader.interfaces.IDLWriter;
+
+/**
+ * 下载线程复制循环的基准测试
+ * 按下载线程每个缓冲区的步骤执行 由下载线程同样使用的{@link DLFiller}从网络流读满缓冲区 计算CRC32 按位置写入文件
+ * 每次操作复制固定长度的数据 以便比较不同的缓冲区大小及写入模式
+ * Benchmark of the download thread's copy loop.
+ * Each buffer goes through the steps of a download thread, filled from network stream by the
+ * same {@link DLFiller} download threads use, CRC32 accumulated and written to file by position.
+ * Every operation copies a fixed length so buffer sizes and write modes can be compared.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CopyLoopBenchmark {
+    /**
+     * 每次操作复制的长度
+     * Length copied by each operation.
+     */
+    private static final int LENGTH_OP = 8388608;
+    /**
+     * 目标文件长度 写入位置在其中循环
+     * Length of target file, write position cycles within it.
+     */
+    private static final long LENGTH_FILE = 67108864;
+
+    @Param({"16384", "131072", "524288"})
+    public int bufferSize;
+
+    @Param({"0", "1", "2"})
+    public int writeMode;
+
+    private File mFile;
+    private IDLWriter mWriter;
+    private ByteBuffer mBuffer;
+    private final DLFiller mFiller = new DLFiller();
+    private final DLChecksum mChecksum = new DLChecksum();
+    private final SocketStream mStream = new SocketStream();
+    private long mPosition;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("copy", ".bin");
+        RandomAccessFile raf = new RandomAccessFile(mFile, PublicCons.AccessModes.ACCESS_MODE_RW);
+        try {
+            raf.setLength(LENGTH_FILE);
+        } finally {
+            raf.close();
+        }
+        switch (writeMode) {
+            case PublicCons.WriteModes.WRITE_MODE_RANDOM_ACCESS:
+                mWriter = new DLRandomAccessWriter(mFile);
+                mBuffer = ByteBuffer.allocate(bufferSize);
+                break;
+            case PublicCons.WriteModes.WRITE_MODE_MAPPED:
+                mWriter = new DLMappedWriter(mFile, LENGTH_FILE);
+                mBuffer = ByteBuffer.allocateDirect(bufferSize);
+                break;
+            default:
+                mWriter = new DLChannelWriter(mFile);
+                mBuffer = ByteBuffer.allocateDirect(bufferSize);
+                break;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mWriter.close();
+        if (!mFile.delete()) mFile.deleteOnExit();
+    }
+
+    @Benchmark
+    public long copy() throws IOException {
+        int remain = LENGTH_OP;
+        while (remain > 0) {
+            int len = mFiller.fill(mStream, null, mBuffer, remain);
+            mChecksum.update(mBuffer);
+            if (mPosition + len > LENGTH_FILE) mPosition = 0;
+            mWriter.write(mBuffer, mPosition);
+            mPosition += len;
+            remain -= len;
+        }
+        return mChecksum.getValue();
+    }
+
+    /**
+     * 模拟套接字的无限输入流 每次读取最多返回一个TCP接收窗口的数据
+     * Endless input stream imitating a socket, each read returns at most one TCP receive window.
+     */
+    private static final class SocketStream extends InputStream {
+        private static final int LENGTH_WINDOW = 65536;
+
+        private final byte[] mData = new byte[1048576];
+        private int mOffset;
+
+        SocketStream() {
+            new Random(0).nextBytes(mData);
+        }
+
+        @Override
+        public int read() {
+            int b = mData[mOffset] & 0xFF;
+            mOffset = (mOffset + 1) % mData.length;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            len = Math.min(Math.min(len, LENGTH_WINDOW), mData.length - mOffset);
+            System.arraycopy(mData, mOffset, b, off, len);
+            mOffset = (mOffset + len) % mData.length;
+            return len;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package cn.aigestudio.downloader.workload;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cn.aigestudio.downloader.bizs.DBManager;
+import cn.aigestudio.downloader.bizs.DLManager;
+import cn.aigestudio.downloader.entities.ThreadInfo;
+import cn.aigestudio.downloader.interfaces.DLTaskListener;
+import cn.aigestudio.downloader.utils.NetUtil;
+
+/**
+ * 超过4GB资源的检查
+ * 先在普通JVM上检查超过2^32的长度解析 再通过{@link RangeServer}下载一个稀疏的大资源
+ * 下载一段时间后停止 检查区间分割及保存的断点 然后继续下载 检查续传请求的区间与断点一致并逐字节校验已下载的数据
+ * 参数均为key=value 如length=6442450947 threads=4 bandwidth=4194304 time=2000
+ * Check of resources beyond 4GB.
+ * Length parsing beyond 2^32 is checked on a plain JVM first, then a sparse large resource is
+ * downloaded through {@link RangeServer}. The download is stopped after a while, range split and
+ * saved checkpoints are checked, then it's resumed, ranges requested on resume are checked
+ * against checkpoints and downloaded data is checked byte by byte.
+ * Arguments are key=value, such as length=6442450947 threads=4 bandwidth=4194304 time=2000.
+ */
+public final class LargeRangeCheck {
+    private static final long LENGTH_4G = 1L << 32;
+    private static final String NAME = "large.bin";
+
+    private final Map<String, String> mOptions;
+    private volatile String mError;
+
+    private LargeRangeCheck(Map<String, String> options) {
+        mOptions = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (index <= 0) throw new IllegalArgumentException("Expect key=value: " + arg);
+            options.put(arg.substring(0, index), arg.substring(index + 1));
+        }
+        int code = 0;
+        try {
+            checkLength();
+            new LargeRangeCheck(options).run();
+            System.out.println("OK");
+        } catch (IllegalStateException e) {
+            System.out.println("FAILED " + e.getMessage());
+            code = 1;
+        }
+        // DLManager的线程不会自行结束 threads of DLManager never end by themselves
+        System.exit(code);
+    }
+
+    private long option(String key, long def) {
+        String value = mOptions.get(key);
+        return null == value ? def : Long.parseLong(value);
+    }
+
+    private static void expect(boolean condition, String message) {
+        if (!condition) throw new IllegalStateException(message);
+    }
+
+    /**
+     * 检查超过2^32的Content-Range及Content-Length解析
+     * Check parsing of Content-Range and Content-Length beyond 2^32.
+     */
+    private static void checkLength() {
+        long length = 3 * LENGTH_4G + 7;
+        expect(NetUtil.getContentLength("bytes 0-0/" + length, "1") == length,
+                "Content-Range total beyond 2^32");
+        expect(NetUtil.getContentLength("bytes " + (length - 10) + "-" + (length - 1) + "/" +
+                length, "10") == length, "Content-Range near the end beyond 2^32");
+        expect(NetUtil.getContentLength(null, String.valueOf(length)) == length,
+                "Content-Length beyond 2^32");
+        expect(NetUtil.getContentLength("bytes 0-0/*", String.valueOf(length)) == length,
+                "Content-Length beyond 2^32 with unknown total");
+    }
+
+    private void run() throws Exception {
+        long length = option("length", 6442450947L);
+        int threads = (int) option("threads", 4);
+        long time = option("time", 2000);
+        expect(length > LENGTH_4G, "length must be beyond 4GB");
+
+        RangeServer.Faults faults = new RangeServer.Faults();
+        // 限速使任务在两次停止前都不会下载完 limited so the task never finishes before stops
+        faults.bandwidth = option("bandwidth", 4194304);
+        RangeServer server = new RangeServer(faults);
+        File dir = new File(System.getProperty("java.io.tmpdir"),
+                "large-" + System.currentTimeMillis());
+        if (!dir.mkdirs()) throw new IOException("Cannot create " + dir);
+        Context context = new Context(dir);
+        DLManager manager = new DLManager(context);
+        // 固定并发数 区间不会被再次分割 fixed concurrency so ranges are never split again
+        manager.setAdaptiveConcurrency(false);
+        DBManager db = DBManager.getInstance(context);
+        String url = server.url(length, NAME, 0);
+        File file = new File(dir, NAME);
+        try {
+            // 第一次下载 first download
+            start(manager, url, dir, threads, time);
+            List<long[]> planned = server.takeRanges();
+            List<ThreadInfo> saved = sort(db.queryThreadInfos(url));
+            checkSplit(planned, saved, length, threads);
+
+            // 续传 resume
+            start(manager, url, dir, threads, time);
+            List<long[]> resumed = server.takeRanges();
+            for (ThreadInfo info : saved) {
+                boolean isRequested = false;
+                for (long[] range : resumed) {
+                    if (range[0] == info.start && range[1] == info.end) isRequested = true;
+                }
+                expect(isRequested, "resume did not request " + info.start + "-" + info.end);
+                System.out.println("resumed " + info.start + "-" + info.end);
+            }
+            List<ThreadInfo> after = sort(db.queryThreadInfos(url));
+            expect(after.size() == saved.size(), "ranges changed on resume");
+            expect(file.length() == length, "file length " + file.length());
+            for (int i = 0; i < after.size(); i++) {
+                ThreadInfo info = after.get(i);
+                expect(info.start > saved.get(i).start, "range " + i + " did not progress");
+                verify(file, planned.get(i)[0], info.start);
+            }
+        } finally {
+            manager.dlCancel(url);
+            server.close();
+            File[] files = dir.listFiles();
+            if (null != files) {
+                for (File f : files) {
+                    if (!f.delete()) f.deleteOnExit();
+                }
+            }
+            if (!dir.delete()) dir.deleteOnExit();
+        }
+    }
+
+    /**
+     * 下载一段时间后停止 等待最后的断点写入
+     * Download for a while then stop, and wait for final checkpoints.
+     */
+    private void start(DLManager manager, String url, File dir, int threads, long time)
+            throws InterruptedException {
+        manager.dlStart(url, dir.getPath(), new DLTaskListener() {
+            @Override
+            public void onFinish(File file) {
+                mError = "finished before stop";
+            }
+
+            @Override
+            public void onError(String error) {
+                mError = error;
+            }
+        }, threads);
+        Thread.sleep(time);
+        manager.dlStop(url);
+        Thread.sleep(1000);
+        expect(null == mError, "download error " + mError);
+    }
+
+    /**
+     * 检查区间按长度均分 超过4GB的区间正确请求 且断点位于各自区间之内
+     * Check ranges are split evenly by length, ranges beyond 4GB are requested correctly and
+     * checkpoints lie in their own ranges.
+     */
+    private static void checkSplit(List<long[]> planned, List<ThreadInfo> saved, long length,
+                                   int threads) {
+        Collections.sort(planned, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] lhs, long[] rhs) {
+                return Long.compare(lhs[0], rhs[0]);
+            }
+        });
+        expect(planned.size() == threads, "requested " + planned.size() + " ranges");
+        expect(saved.size() == threads, "saved " + saved.size() + " ranges");
+        long size = length / threads;
+        for (int i = 0; i < threads; i++) {
+            long start = i * size;
+            long end = i == threads - 1 ? length - 1 : start + size - 1;
+            long[] range = planned.get(i);
+            ThreadInfo info = saved.get(i);
+            System.out.println("range " + i + " " + start + "-" + end + " saved " + info.start);
+            expect(range[0] == start, "range " + i + " requested from " + range[0]);
+            // 第一个区间沿用从0开始的探测请求 the first range goes on with the probe from 0
+            expect(range[1] == (i == 0 ? length - 1 : end),
+                    "range " + i + " requested to " + range[1]);
+            expect(info.end == end, "range " + i + " saved end " + info.end);
+            expect(info.start > start && info.start <= end,
+                    "range " + i + " saved start " + info.start);
+        }
+        expect(planned.get(threads - 1)[0] > LENGTH_4G, "no range beyond 4GB");
+    }
+
+    /**
+     * 逐字节比较文件中指定区间与服务器生成的内容
+     * Compare given part of file with content generated by server byte by byte.
+     */
+    private static void verify(File file, long from, long to) throws IOException {
+        byte[] actual = new byte[1048576];
+        byte[] expected = new byte[actual.length];
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.seek(from);
+            long position = from;
+            while (position < to) {
+                int len = (int) Math.min(actual.length, to - position);
+                raf.readFully(actual, 0, len);
+                RangeServer.content(NAME, position, expected, 0, len);
+                for (int i = 0; i < len; i++) {
+                    expect(actual[i] == expected[i], "mismatch at " + (position + i));
+                }
+                position += len;
+            }
+        } finally {
+            raf.close();
+        }
+        System.out.println("verified " + from + "-" + to);
+    }
+
+    private static List<ThreadInfo> sort(List<ThreadInfo> infos) {
+        List<ThreadInfo> sorted = new ArrayList<>(infos);
+        Collections.sort(sorted, new Comparator<ThreadInfo>() {
+            @Override
+            public int compare(ThreadInfo lhs, ThreadInfo rhs) {
+                return Long.compare(lhs.end, rhs.end);
+            }
+        });
+        return sorted;
+    }
+}
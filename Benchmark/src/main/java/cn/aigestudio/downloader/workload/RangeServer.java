@@ -0,0 +1,415 @@
+package cn.aigestudio.downloader.workload;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 可编程的本地HTTP/1.1区间服务器
+ * 资源内容由位置确定性生成 不占用内存也不读取磁盘 任意长度的资源都可以下载 下载结果可逐字节校验
+ * 路径为/长度/文件名 /r/跳数/长度/文件名 先经过指定次数的302重定向
+ * 每个连接可限速 并按{@link Faults}注入延迟、抖动、停顿、连接重置、缺少Accept-Ranges以及用200响应区间请求
+ * Programmable local HTTP/1.1 range server.
+ * Content of resources is generated from position, taking no memory or disk, so resources of
+ * any length can be served and downloads can be checked byte by byte. Path is /length/name,
+ * /r/hops/length/name goes through the given count of 302 redirects first. Every connection can
+ * be limited in bandwidth, and {@link Faults} injects latency, jitter, stalls, connection
+ * resets, missing Accept-Ranges and 200 responses to range requests.
+ */
+public final class RangeServer implements Closeable {
+    private static final String CRLF = "\r\n";
+    private static final int LENGTH_CHUNK = 16384;
+    /**
+     * 内容模式的长度 取质数使不同资源及位置的内容不易重合
+     * Length of content pattern, a prime so content hardly repeats across resources and
+     * positions.
+     */
+    private static final int LENGTH_PATTERN = 65521;
+    private static final byte[] PATTERN = new byte[LENGTH_PATTERN];
+
+    static {
+        new Random(0x5EED).nextBytes(PATTERN);
+    }
+
+    /**
+     * 注入的故障 启动前设置
+     * Faults to inject, set before start.
+     */
+    public static final class Faults {
+        /**
+         * 每个连接的带宽 字节每秒 0表示不限 bandwidth of each connection in byte per second, 0
+         * means unlimited.
+         */
+        public long bandwidth;
+        /**
+         * 每个响应前的延迟 毫秒 latency in millisecond before each response.
+         */
+        public long latency;
+        /**
+         * 延迟之外的随机抖动上限 毫秒 max random jitter in millisecond on top of latency.
+         */
+        public long jitter;
+        /**
+         * 每发送一段数据后停顿的概率 probability of stalling after each chunk sent.
+         */
+        public double stallRate;
+        /**
+         * 每次停顿的时间 毫秒 time in millisecond of each stall.
+         */
+        public long stallTime;
+        /**
+         * 响应体中途重置连接的概率 probability of resetting connection in the middle of a body.
+         */
+        public double resetRate;
+        /**
+         * 不发送Accept-Ranges 区间请求仍然生效 don't send Accept-Ranges, range requests still
+         * work.
+         */
+        public boolean isNoAcceptRanges;
+        /**
+         * 用200及完整内容响应区间请求的概率 probability of answering a range request with 200
+         * and full content.
+         */
+        public double fullRate;
+    }
+
+    private final Faults mFaults;
+    private final ServerSocket mServer;
+    private final ExecutorService mExecutor;
+    private final Random mRandom = new Random(42);
+
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mBodyBytes = new AtomicLong();
+    private final AtomicLong mResets = new AtomicLong();
+    private final AtomicLong mStalls = new AtomicLong();
+    private final AtomicLong mFulls = new AtomicLong();
+    private final AtomicLong mRedirects = new AtomicLong();
+    private final Queue<long[]> mRanges = new ConcurrentLinkedQueue<>();
+    private volatile boolean isClosed;
+
+    public RangeServer(Faults faults) throws IOException {
+        mFaults = faults;
+        mServer = new ServerSocket(0, 1024, InetAddress.getByName("127.0.0.1"));
+        mExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "RangeServer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        });
+    }
+
+    /**
+     * 获取资源地址
+     * Get url of a resource.
+     *
+     * @param length    资源长度 length of resource.
+     * @param name      文件名 同时决定内容 file name, also decides content.
+     * @param redirects 重定向跳数 count of redirect hops.
+     */
+    public String url(long length, String name, int redirects) {
+        String path = "/" + length + "/" + name;
+        if (redirects > 0) path = "/r/" + redirects + path;
+        return "http://127.0.0.1:" + mServer.getLocalPort() + path;
+    }
+
+    /**
+     * 生成资源在指定位置的内容
+     * Generate content of a resource at given position.
+     */
+    public static void content(String name, long position, byte[] buffer, int offset, int len) {
+        int index = (int) ((position + seed(name)) % LENGTH_PATTERN);
+        while (len > 0) {
+            int n = Math.min(len, LENGTH_PATTERN - index);
+            System.arraycopy(PATTERN, index, buffer, offset, n);
+            offset += n;
+            len -= n;
+            index = 0;
+        }
+    }
+
+    private static long seed(String name) {
+        return (name.hashCode() & 0x7FFFFFFF) % LENGTH_PATTERN;
+    }
+
+    public long getRequestCount() {
+        return mRequests.get();
+    }
+
+    /**
+     * 已写入套接字的响应体字节数 包括中途重置及客户端放弃的部分
+     * Body bytes written to sockets, including those reset midway or abandoned by client.
+     */
+    public long getBodyBytes() {
+        return mBodyBytes.get();
+    }
+
+    public long getResetCount() {
+        return mResets.get();
+    }
+
+    public long getStallCount() {
+        return mStalls.get();
+    }
+
+    public long getFullCount() {
+        return mFulls.get();
+    }
+
+    public long getRedirectCount() {
+        return mRedirects.get();
+    }
+
+    /**
+     * 取出上次取出后以206响应的所有区间
+     * Take all ranges answered with 206 since the last take.
+     *
+     * @return 区间的起止位置 包含结束位置 start and inclusive end of ranges.
+     */
+    public List<long[]> takeRanges() {
+        List<long[]> ranges = new ArrayList<>();
+        long[] range;
+        while (null != (range = mRanges.poll())) {
+            ranges.add(range);
+        }
+        return ranges;
+    }
+
+    @Override
+    public void close() throws IOException {
+        isClosed = true;
+        mServer.close();
+        mExecutor.shutdownNow();
+    }
+
+    private void accept() {
+        while (!isClosed) {
+            try {
+                final Socket socket = mServer.accept();
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (IOException e) {
+                if (!isClosed) e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 在一个连接上依次处理请求 直到客户端关闭或连接被重置
+     * Serve requests on a connection in turn until client closes it or it's reset.
+     */
+    private void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), LENGTH_CHUNK);
+            Map<String, String> headers = new HashMap<>();
+            String line;
+            while (null != (line = readLine(in))) {
+                headers.clear();
+                String header;
+                while (null != (header = readLine(in)) && header.length() != 0) {
+                    int index = header.indexOf(':');
+                    if (index > 0) {
+                        headers.put(header.substring(0, index).trim().toLowerCase(),
+                                header.substring(index + 1).trim());
+                    }
+                }
+                mRequests.incrementAndGet();
+                delay();
+                String[] parts = line.split(" ");
+                if (parts.length < 2 || !respond(socket, out, parts[1], headers)) break;
+                out.flush();
+            }
+        } catch (IOException ignored) {
+            // 客户端关闭或放弃了连接 client closed or abandoned the connection
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * @return 连接能否继续使用 whether the connection can be used further.
+     */
+    private boolean respond(Socket socket, OutputStream out, String path,
+                            Map<String, String> headers) throws IOException {
+        String[] segments = path.split("/");
+        if (segments.length == 5 && "r".equals(segments[1])) {
+            int hops = Integer.parseInt(segments[2]);
+            String location = hops > 1 ? "/r/" + (hops - 1) + "/" + segments[3] + "/" +
+                    segments[4] : "/" + segments[3] + "/" + segments[4];
+            mRedirects.incrementAndGet();
+            out.write(("HTTP/1.1 302 Found" + CRLF + "Location: " + location + CRLF +
+                    "Content-Length: 0" + CRLF + CRLF).getBytes("ISO-8859-1"));
+            return true;
+        }
+        if (segments.length != 3) {
+            out.write(("HTTP/1.1 404 Not Found" + CRLF + "Content-Length: 0" + CRLF + CRLF)
+                    .getBytes("ISO-8859-1"));
+            return true;
+        }
+        long length = Long.parseLong(segments[1]);
+        String name = segments[2];
+        String etag = "\"" + length + "-" + seed(name) + "\"";
+        long from = 0, to = length - 1;
+        boolean isPartial = false;
+        String range = headers.get("range");
+        String ifRange = headers.get("if-range");
+        if (null != range && range.startsWith("bytes=") && (null == ifRange ||
+                ifRange.equals(etag))) {
+            if (chance(mFaults.fullRate)) {
+                mFulls.incrementAndGet();
+            } else {
+                String spec = range.substring(6);
+                int dash = spec.indexOf('-');
+                String start = spec.substring(0, dash).trim();
+                String end = spec.substring(dash + 1).trim();
+                if (start.length() == 0) {
+                    from = Math.max(0, length - Long.parseLong(end));
+                } else {
+                    from = Long.parseLong(start);
+                    if (end.length() != 0) to = Math.min(to, Long.parseLong(end));
+                }
+                if (from >= length || from > to) {
+                    out.write(("HTTP/1.1 416 Range Not Satisfiable" + CRLF +
+                            "Content-Range: bytes */" + length + CRLF + "Content-Length: 0" +
+                            CRLF + CRLF).getBytes("ISO-8859-1"));
+                    return true;
+                }
+                isPartial = true;
+                mRanges.offer(new long[]{from, to});
+            }
+        }
+        StringBuilder sb = new StringBuilder(256);
+        sb.append(isPartial ? "HTTP/1.1 206 Partial Content" : "HTTP/1.1 200 OK").append(CRLF);
+        sb.append("Content-Length: ").append(to - from + 1).append(CRLF);
+        if (isPartial) {
+            sb.append("Content-Range: bytes ").append(from).append('-').append(to).append('/')
+                    .append(length).append(CRLF);
+        }
+        if (!mFaults.isNoAcceptRanges) sb.append("Accept-Ranges: bytes").append(CRLF);
+        sb.append("ETag: ").append(etag).append(CRLF);
+        sb.append("Content-Type: application/octet-stream").append(CRLF).append(CRLF);
+        out.write(sb.toString().getBytes("ISO-8859-1"));
+        return body(socket, out, name, from, to + 1);
+    }
+
+    /**
+     * 按带宽发送响应体 途中可能停顿或重置连接
+     * Send body within bandwidth, it may stall or reset the connection on the way.
+     *
+     * @return 连接能否继续使用 whether the connection can be used further.
+     */
+    private boolean body(Socket socket, OutputStream out, String name, long from, long to)
+            throws IOException {
+        long reset = chance(mFaults.resetRate) ? from + (long) (random() * (to - from)) : -1;
+        byte[] buffer = new byte[LENGTH_CHUNK];
+        long start = System.nanoTime();
+        long sent = 0;
+        long position = from;
+        while (position < to) {
+            int len = (int) Math.min(LENGTH_CHUNK, to - position);
+            if (reset >= 0 && position + len > reset) {
+                len = (int) (reset - position);
+            }
+            content(name, position, buffer, 0, len);
+            out.write(buffer, 0, len);
+            mBodyBytes.addAndGet(len);
+            position += len;
+            sent += len;
+            if (position == reset) {
+                out.flush();
+                mResets.incrementAndGet();
+                try {
+                    // 立即发送RST send RST right away
+                    socket.setSoLinger(true, 0);
+                } catch (SocketException ignored) {
+                }
+                return false;
+            }
+            if (chance(mFaults.stallRate)) {
+                out.flush();
+                mStalls.incrementAndGet();
+                sleep(mFaults.stallTime);
+            }
+            if (mFaults.bandwidth > 0) {
+                long due = start + sent * 1000000000L / mFaults.bandwidth;
+                long wait = due - System.nanoTime();
+                if (wait > 1000000) {
+                    out.flush();
+                    sleep(wait / 1000000);
+                }
+            }
+        }
+        return true;
+    }
+
+    private void delay() {
+        long delay = mFaults.latency;
+        if (mFaults.jitter > 0) delay += (long) (random() * mFaults.jitter);
+        if (delay > 0) sleep(delay);
+    }
+
+    private boolean chance(double rate) {
+        return rate > 0 && random() < rate;
+    }
+
+    private double random() {
+        synchronized (mRandom) {
+            return mRandom.nextDouble();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return 连接结束时返回null null at the end of connection.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder(64);
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c == -1) return sb.length() == 0 ? null : sb.toString();
+            if (c != '\r') sb.append((char) c);
+        }
+        return sb.toString();
+    }
+}
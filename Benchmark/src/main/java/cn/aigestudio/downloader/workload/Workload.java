@@ -0,0 +1,332 @@
+package cn.aigestudio.downloader.workload;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import cn.aigestudio.downloader.bizs.DLManager;
+import cn.aigestudio.downloader.interfaces.DLTaskListener;
+
+/**
+ * 端到端吞吐量测试的驱动
+ * 通过{@link RangeServer}以DLManager.dlStart推送下载负载 同时进行的任务数受窗口限制
+ * 结束后逐字节校验下载的文件 报告总耗时、总吞吐量、单个下载耗时的分位数以及浪费的字节数
+ * 参数均为key=value 如workload=mixed bandwidth=10485760 resetRate=0.05 out=results.json
+ * Driver of end-to-end throughput runs.
+ * Download workloads are pushed through {@link RangeServer} by DLManager.dlStart, tasks running
+ * at once are limited by a window. Downloaded files are checked byte by byte afterwards, wall
+ * time, aggregate throughput, percentiles of per download time and wasted bytes are reported.
+ * Arguments are key=value, such as workload=mixed bandwidth=10485760 resetRate=0.05
+ * out=results.json.
+ */
+public final class Workload {
+    private static final long TIME_RETRY = 10;
+
+    private final Map<String, String> mOptions;
+    private final List<Item> mItems = new ArrayList<>();
+
+    /**
+     * 一次下载
+     * One download.
+     */
+    private static final class Item {
+        final String name;
+        final long length;
+        String url;
+        long start, end;
+        File file;
+        volatile String error;
+        boolean isCorrupt;
+
+        Item(String name, long length) {
+            this.name = name;
+            this.length = length;
+        }
+    }
+
+    private Workload(Map<String, String> options) {
+        mOptions = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (index <= 0) throw new IllegalArgumentException("Expect key=value: " + arg);
+            options.put(arg.substring(0, index), arg.substring(index + 1));
+        }
+        int code = new Workload(options).run();
+        // DLManager的线程不会自行结束 threads of DLManager never end by themselves
+        System.exit(code);
+    }
+
+    private String option(String key, String def) {
+        String value = mOptions.get(key);
+        return null == value ? def : value;
+    }
+
+    private long option(String key, long def) {
+        return Long.parseLong(option(key, String.valueOf(def)));
+    }
+
+    private double option(String key, double def) {
+        return Double.parseDouble(option(key, String.valueOf(def)));
+    }
+
+    /**
+     * 按负载类型生成下载列表
+     * huge为一个大文件 small为大量小文件 mixed为一个大文件与大量小文件同时下载
+     * Plan downloads by workload, huge is one large file, small is many small files, mixed
+     * downloads a large file and many small files at once.
+     */
+    private void plan(String workload) {
+        long huge = option("hugeSize", 1073741824L);
+        long small = option("smallSize", 65536L);
+        int count = (int) option("smallCount", 2000L);
+        if ("huge".equals(workload) || "mixed".equals(workload)) {
+            mItems.add(new Item("huge.bin", huge));
+        }
+        if ("small".equals(workload) || "mixed".equals(workload)) {
+            for (int i = 0; i < count; i++) {
+                mItems.add(new Item(String.format(Locale.US, "s%05d.bin", i), small));
+            }
+        }
+        if (mItems.isEmpty()) throw new IllegalArgumentException("Unknown workload " + workload);
+    }
+
+    private int run() throws Exception {
+        String workload = option("workload", "mixed");
+        plan(workload);
+
+        RangeServer.Faults faults = new RangeServer.Faults();
+        faults.bandwidth = option("bandwidth", 0L);
+        faults.latency = option("latency", 0L);
+        faults.jitter = option("jitter", 0L);
+        faults.stallRate = option("stallRate", 0.0);
+        faults.stallTime = option("stallTime", 1000L);
+        faults.resetRate = option("resetRate", 0.0);
+        faults.isNoAcceptRanges = Boolean.parseBoolean(option("noAcceptRanges", "false"));
+        faults.fullRate = option("fullRate", 0.0);
+        int redirects = (int) option("redirects", 0L);
+        int window = (int) option("window", 32L);
+        final int threads = (int) option("threads", 3L);
+        long timeout = option("timeout", 600L);
+
+        final File dir = new File(option("dir", System.getProperty("java.io.tmpdir")),
+                "workload-" + System.currentTimeMillis());
+        if (!dir.mkdirs()) throw new IOException("Cannot create " + dir);
+        final DLManager manager = new DLManager(new Context(dir));
+        manager.setEngine((int) option("engine", 0L));
+        manager.setWriteMode((int) option("writeMode", 0L));
+        if (mOptions.containsKey("maxPerHost")) {
+            manager.setMaxConnectionsPerHost((int) option("maxPerHost", 0L));
+        }
+
+        RangeServer server = new RangeServer(faults);
+        final Semaphore slots = new Semaphore(window);
+        final CountDownLatch done = new CountDownLatch(mItems.size());
+        final ScheduledExecutorService retry = Executors.newSingleThreadScheduledExecutor();
+        for (Item item : mItems) {
+            item.url = server.url(item.length, item.name, redirects);
+        }
+
+        long start = System.nanoTime();
+        for (final Item item : mItems) {
+            slots.acquire();
+            item.start = System.nanoTime();
+            manager.dlStart(item.url, dir.getPath(), new DLTaskListener() {
+                @Override
+                public void onFinish(File file) {
+                    item.end = System.nanoTime();
+                    item.file = file;
+                    slots.release();
+                    done.countDown();
+                }
+
+                @Override
+                public void onError(String error) {
+                    if (DLManager.ERROR_TOO_MANY_TASKS.equals(error)) {
+                        // 等待准备的任务过多 稍后重新提交 resubmit later if too many are waiting
+                        final DLTaskListener listener = this;
+                        retry.schedule(new Runnable() {
+                            @Override
+                            public void run() {
+                                manager.dlStart(item.url, dir.getPath(), listener, threads);
+                            }
+                        }, TIME_RETRY, TimeUnit.MILLISECONDS);
+                        return;
+                    }
+                    item.end = System.nanoTime();
+                    item.error = error;
+                    slots.release();
+                    done.countDown();
+                }
+            }, threads);
+        }
+        boolean isDone = done.await(timeout, TimeUnit.SECONDS);
+        long wall = System.nanoTime() - start;
+        server.close();
+        retry.shutdownNow();
+
+        boolean isVerified = Boolean.parseBoolean(option("verify", "true"));
+        for (Item item : mItems) {
+            if (null == item.file) continue;
+            if (isVerified) item.isCorrupt = !check(item);
+            if (!item.file.delete()) item.file.deleteOnExit();
+        }
+
+        String report = report(workload, isDone, wall, server, manager);
+        System.out.println(report);
+        String out = mOptions.get("out");
+        if (null != out) {
+            File file = new File(out);
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Cannot create " + parent);
+            }
+            Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            try {
+                writer.write(report);
+            } finally {
+                writer.close();
+            }
+        }
+        for (Item item : mItems) {
+            if (null == item.file || item.isCorrupt) return 1;
+        }
+        return isDone ? 0 : 1;
+    }
+
+    /**
+     * 逐字节比较下载的文件与服务器生成的内容
+     * Compare downloaded file with content generated by server byte by byte.
+     */
+    private static boolean check(Item item) throws IOException {
+        if (item.file.length() != item.length) return false;
+        byte[] actual = new byte[1048576];
+        byte[] expected = new byte[actual.length];
+        InputStream in = new FileInputStream(item.file);
+        try {
+            long position = 0;
+            int len;
+            while ((len = in.read(actual)) != -1) {
+                RangeServer.content(item.name, position, expected, 0, len);
+                for (int i = 0; i < len; i++) {
+                    if (actual[i] != expected[i]) return false;
+                }
+                position += len;
+            }
+            return position == item.length;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 生成JSON格式的报告
+     * Build report in JSON.
+     */
+    private String report(String workload, boolean isDone, long wall, RangeServer server,
+                         DLManager manager) {
+        int finished = 0, failed = 0, corrupt = 0;
+        long bytes = 0;
+        List<Long> latencies = new ArrayList<>();
+        Map<String, Integer> errors = new HashMap<>();
+        for (Item item : mItems) {
+            if (null != item.file) {
+                finished++;
+                bytes += item.length;
+                latencies.add(item.end - item.start);
+                if (item.isCorrupt) corrupt++;
+            } else if (null != item.error) {
+                failed++;
+                Integer count = errors.get(item.error);
+                errors.put(item.error, null == count ? 1 : count + 1);
+            }
+        }
+        long[] sorted = new long[latencies.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = latencies.get(i);
+        }
+        Arrays.sort(sorted);
+        double seconds = wall / 1e9;
+
+        StringBuilder sb = new StringBuilder(1024);
+        sb.append("{\n");
+        field(sb, "workload", "\"" + workload + "\"");
+        field(sb, "options", json(mOptions));
+        field(sb, "completed", String.valueOf(isDone));
+        field(sb, "files", String.valueOf(mItems.size()));
+        field(sb, "finished", String.valueOf(finished));
+        field(sb, "failed", String.valueOf(failed));
+        field(sb, "corrupt", String.valueOf(corrupt));
+        field(sb, "errors", json(errors));
+        field(sb, "bytes", String.valueOf(bytes));
+        field(sb, "wallMillis", format(wall / 1e6));
+        field(sb, "throughputMBps", format(seconds > 0 ? bytes / 1048576.0 / seconds : 0));
+        field(sb, "latencyMillis", "{\"p50\": " + percentile(sorted, 0.5) + ", \"p90\": " +
+                percentile(sorted, 0.9) + ", \"p99\": " + percentile(sorted, 0.99) +
+                ", \"max\": " + percentile(sorted, 1) + "}");
+        field(sb, "requests", String.valueOf(server.getRequestCount()));
+        field(sb, "bodyBytes", String.valueOf(server.getBodyBytes()));
+        field(sb, "wastedBytes", String.valueOf(Math.max(0, server.getBodyBytes() - bytes)));
+        field(sb, "faults", "{\"resets\": " + server.getResetCount() + ", \"stalls\": " +
+                server.getStallCount() + ", \"fulls\": " + server.getFullCount() +
+                ", \"redirects\": " + server.getRedirectCount() + "}");
+        field(sb, "connections", "{\"hits\": " + manager.getConnectionHitCount() +
+                ", \"misses\": " + manager.getConnectionMissCount() + "}");
+        field(sb, "bufferWaits", String.valueOf(manager.getBufferWaitCount()));
+        sb.append("  \"writeStallMillis\": ").append(manager.getWriteStallTime()).append("\n}");
+        return sb.toString();
+    }
+
+    private static void field(StringBuilder sb, String key, String value) {
+        sb.append("  \"").append(key).append("\": ").append(value).append(",\n");
+    }
+
+    private static String json(Map<String, ?> map) {
+        StringBuilder sb = new StringBuilder("{");
+        for (Map.Entry<String, ?> entry : map.entrySet()) {
+            if (sb.length() > 1) sb.append(", ");
+            sb.append('"').append(escape(entry.getKey())).append("\": ");
+            Object value = entry.getValue();
+            if (value instanceof Number) {
+                sb.append(value);
+            } else {
+                sb.append('"').append(escape(String.valueOf(value))).append('"');
+            }
+        }
+        return sb.append('}').toString();
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static String percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return "null";
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return format(sorted[Math.max(0, index)] / 1e6);
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.US, "%.3f", value);
+    }
+}
@@ -1,11 +1,19 @@
 package cn.aigestudio.downloader.bizs;
 
 import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
 
 import java.util.List;
 
+import cn.aigestudio.downloader.daos.BlockDAO;
+import cn.aigestudio.downloader.daos.DBOpenHelper;
+import cn.aigestudio.downloader.daos.ResourceDAO;
 import cn.aigestudio.downloader.daos.TaskDAO;
 import cn.aigestudio.downloader.daos.ThreadDAO;
+import cn.aigestudio.downloader.entities.BlockInfo;
+import cn.aigestudio.downloader.entities.DLInfo;
+import cn.aigestudio.downloader.entities.ResourceInfo;
 import cn.aigestudio.downloader.entities.TaskInfo;
 import cn.aigestudio.downloader.entities.ThreadInfo;
 
@@ -19,12 +27,18 @@ import cn.aigestudio.downloader.entities.ThreadInfo;
 public final class DBManager {
     private static DBManager sManager = null;
 
+    private DBOpenHelper dbHelper;
     private TaskDAO daoTask;
     private ThreadDAO daoThread;
+    private ResourceDAO daoResource;
+    private BlockDAO daoBlock;
 
     private DBManager(Context context) {
-        daoTask = new TaskDAO(context);
-        daoThread = new ThreadDAO(context);
+        dbHelper = new DBOpenHelper(context);
+        daoTask = new TaskDAO(dbHelper);
+        daoThread = new ThreadDAO(dbHelper);
+        daoResource = new ResourceDAO(dbHelper);
+        daoBlock = new BlockDAO(dbHelper);
     }
 
     /**
@@ -56,6 +70,7 @@ public final class DBManager {
      */
     public synchronized void deleteTaskInfo(String url) {
         daoTask.deleteInfo(url);
+        daoBlock.deleteInfo(url);
     }
 
     /**
@@ -101,7 +116,7 @@ public final class DBManager {
      * @param url 下载地址
      */
     public synchronized void deleteThreadInfos(String url) {
-        daoThread.deleteInfo(url);
+        daoThread.deleteInfos(url);
     }
 
     /**
@@ -134,9 +149,132 @@ public final class DBManager {
     }
 
     /**
-     * 释放资源 暂无用
+     * 插入或替换一条资源元数据
+     * Insert or replace resource metadata.
+     *
+     * @param info 资源元数据 resource metadata.
+     */
+    public synchronized void replaceResourceInfo(ResourceInfo info) {
+        daoResource.insertInfo(info);
+    }
+
+    /**
+     * 根据下载地址删除资源元数据
+     * Delete resource metadata by url.
+     *
+     * @param url 下载地址 url.
+     */
+    public synchronized void deleteResourceInfo(String url) {
+        daoResource.deleteInfo(url);
+    }
+
+    /**
+     * 根据下载地址查询资源元数据
+     * Query resource metadata by url.
+     *
+     * @param url 下载地址 url.
+     * @return 资源元数据 不存在时返回null resource metadata, null if absent.
+     */
+    public synchronized ResourceInfo queryResourceInfo(String url) {
+        return (ResourceInfo) daoResource.queryInfo(url);
+    }
+
+    /**
+     * 根据下载地址查询所有块校验记录
+     * Query all block checksum records by url.
+     *
+     * @param url 下载地址 url.
+     * @return 块校验记录 block checksum records.
+     */
+    public synchronized List<BlockInfo> queryBlockInfos(String url) {
+        return daoBlock.queryInfos(url);
+    }
+
+    /**
+     * 在同一个事务中按入队顺序批量写入断点数据
+     * 删除下载任务数据时同时删除该任务的所有线程数据及块校验记录
+     * 块校验记录只通过更新按顺序写入 长度为0的记录表示删除
+     * Write a batch of checkpoint operations in one transaction in the order they were queued,
+     * thread infos and block records of a task are deleted together with the task info. Block
+     * records are only written in order as updates, a record of length 0 means deletion.
+     *
+     * @param ops 按入队顺序排列的断点操作 checkpoint operations in queued order.
+     */
+    synchronized void checkpoint(List<Op> ops) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        if (Build.VERSION.SDK_INT >= 11) {
+            db.beginTransactionNonExclusive();
+        } else {
+            db.beginTransaction();
+        }
+        try {
+            for (Op op : ops) {
+                DLInfo info = op.info;
+                switch (op.type) {
+                    case Op.INSERT:
+                        if (info instanceof TaskInfo) {
+                            daoTask.insertInfo(info);
+                        } else {
+                            daoThread.insertInfo(info);
+                        }
+                        break;
+                    case Op.UPDATE:
+                        if (info instanceof TaskInfo) {
+                            daoTask.updateInfo(info);
+                        } else if (info instanceof BlockInfo) {
+                            BlockInfo block = (BlockInfo) info;
+                            if (block.length > 0) {
+                                daoBlock.insertInfo(block);
+                            } else {
+                                daoBlock.deleteInfo(block.baseUrl, block.start);
+                            }
+                        } else {
+                            daoThread.updateInfo(info);
+                        }
+                        break;
+                    case Op.DELETE:
+                        if (info instanceof TaskInfo) {
+                            daoTask.deleteInfo(info.baseUrl);
+                            daoThread.deleteInfos(info.baseUrl);
+                            daoBlock.deleteInfo(info.baseUrl);
+                        } else {
+                            daoThread.deleteInfo(((ThreadInfo) info).id);
+                        }
+                        break;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * 断点操作 插入、更新或删除一条数据
+     * A checkpoint operation, inserts, updates or deletes one info.
+     */
+    static final class Op {
+        static final int INSERT = 0;
+        static final int UPDATE = 1;
+        static final int DELETE = 2;
+
+        final int type;
+        final DLInfo info;
+
+        Op(int type, DLInfo info) {
+            this.type = type;
+            this.info = info;
+        }
+    }
+
+    /**
+     * 释放资源 关闭数据库及编译后的SQL语句
+     * Release compiled statements and close database.
      */
-    public void release() {
+    public synchronized void release() {
         daoTask.close();
+        daoThread.close();
+        daoResource.close();
+        daoBlock.close();
     }
 }
@@ -0,0 +1,196 @@
+package cn.aigestudio.downloader.bizs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+import cn.aigestudio.downloader.cons.PublicCons;
+import cn.aigestudio.downloader.entities.BlockInfo;
+
+/**
+ * 块校验表
+ * 文件按固定大小分块 下载线程写入时计算的CRC32按块记录 每条记录不跨越块边界
+ * 同一块的记录连续覆盖整个块时合并为一条 恢复下载及最终校验时只需读取少量数据即可定位损坏的块
+ * 不是线程安全的 由调用方同步
+ * Block checksum table.
+ * File is divided into fixed size blocks, CRC32 computed by download threads while writing is
+ * recorded by block and a record never crosses block boundary. Records of a block are merged into
+ * one once they cover the whole block, so damaged blocks can be located by reading little data on
+ * resume and in final check. Not thread safe, the caller must synchronize.
+ */
+final class DLBlocks {
+    /**
+     * 块大小
+     * Block size.
+     */
+    static final int SIZE = 1048576;
+
+    private final TreeMap<Long, DLChecksum.Piece> mPieces = new TreeMap<>();
+    /**
+     * 之前的会话中记录的块 其数据是否完整写入文件尚未确认
+     * Records from previous sessions, whose data is not yet confirmed on disk.
+     */
+    private final Set<Long> mInherited = new HashSet<>();
+
+    /**
+     * 位置所在块的起始位置
+     * Start of the block containing position.
+     */
+    static long floor(long position) {
+        return position / SIZE * SIZE;
+    }
+
+    /**
+     * 载入之前的会话中保存的记录
+     * Load records saved in previous sessions.
+     */
+    void load(List<BlockInfo> infos) {
+        List<BlockInfo> sorted = new ArrayList<>(infos);
+        Collections.sort(sorted, new Comparator<BlockInfo>() {
+            @Override
+            public int compare(BlockInfo lhs, BlockInfo rhs) {
+                return lhs.start < rhs.start ? -1 : (lhs.start == rhs.start ? 0 : 1);
+            }
+        });
+        List<Long> removed = new ArrayList<>();
+        for (BlockInfo info : sorted) {
+            if (info.length <= 0) continue;
+            remove(info.start, info.start + info.length, removed);
+            mPieces.put(info.start, new DLChecksum.Piece(info.start, info.length, info.crc));
+            mInherited.add(info.start);
+        }
+    }
+
+    /**
+     * 加入一段数据的记录 与之重叠的旧记录被移除 所在块的记录连续覆盖整个块时合并为一条
+     * Add record of a piece of data, old records overlapping it are removed, records of its block
+     * are merged into one if they cover the whole block.
+     *
+     * @param length  文件长度 未知时小于等于0 file length, not positive if unknown.
+     * @param removed 输出被移除或合并的记录的起始位置 outputs start of removed or merged records.
+     * @return 加入后包含该段数据的记录 record containing the piece after adding.
+     */
+    DLChecksum.Piece add(DLChecksum.Piece piece, long length, List<Long> removed) {
+        remove(piece.start, piece.start + piece.length, removed);
+        mPieces.put(piece.start, piece);
+        long start = floor(piece.start);
+        long end = length > 0 ? Math.min(start + SIZE, length) : start + SIZE;
+        long crc = 0, position = start;
+        boolean isInherited = false;
+        for (DLChecksum.Piece p : mPieces.subMap(start, end).values()) {
+            if (p.start != position) return piece;
+            crc = DLChecksum.combine(crc, p.crc, p.length);
+            position += p.length;
+            isInherited |= mInherited.contains(p.start);
+        }
+        if (position != end || mPieces.get(start) == piece && piece.length == end - start) {
+            return piece;
+        }
+        remove(start, end, removed);
+        DLChecksum.Piece block = new DLChecksum.Piece(start, end - start, crc);
+        mPieces.put(start, block);
+        if (isInherited) mInherited.add(start);
+        return block;
+    }
+
+    /**
+     * 移除与指定范围重叠的记录
+     * Remove records overlapping given range.
+     *
+     * @param from    起始位置 包含 start, inclusive.
+     * @param to      结束位置 不包含 end, exclusive.
+     * @param removed 输出被移除的记录的起始位置 outputs start of removed records.
+     */
+    void remove(long from, long to, List<Long> removed) {
+        Long first = mPieces.floorKey(from);
+        Iterator<DLChecksum.Piece> it = mPieces.tailMap(null == first ? from : first).values()
+                .iterator();
+        while (it.hasNext()) {
+            DLChecksum.Piece p = it.next();
+            if (p.start >= to) break;
+            if (p.start + p.length <= from) continue;
+            it.remove();
+            mInherited.remove(p.start);
+            removed.add(p.start);
+        }
+    }
+
+    /**
+     * 获取恰好在指定位置结束的记录
+     * Get the record ending exactly at position.
+     *
+     * @return 不存在时返回null null if absent.
+     */
+    DLChecksum.Piece ending(long position) {
+        Long start = mPieces.lowerKey(position);
+        if (null == start) return null;
+        DLChecksum.Piece p = mPieces.get(start);
+        return p.start + p.length == position ? p : null;
+    }
+
+    List<DLChecksum.Piece> pieces() {
+        return new ArrayList<>(mPieces.values());
+    }
+
+    List<DLChecksum.Piece> inherited() {
+        List<DLChecksum.Piece> pieces = new ArrayList<>();
+        for (Long start : mInherited) {
+            pieces.add(mPieces.get(start));
+        }
+        return pieces;
+    }
+
+    boolean hasInherited() {
+        return !mInherited.isEmpty();
+    }
+
+    /**
+     * 记录的数据已确认写入文件
+     * Data of record is confirmed on disk.
+     */
+    void trust(DLChecksum.Piece piece) {
+        if (mPieces.get(piece.start) == piece) {
+            mInherited.remove(piece.start);
+        }
+    }
+
+    /**
+     * 从文件读取记录对应的数据校验 文件长度不足或读取失败视为不符
+     * Verify data of record by reading file, short file or read failure counts as mismatch.
+     */
+    static boolean check(RandomAccessFile raf, DLChecksum.Piece piece) {
+        try {
+            return DLChecksum.read(raf, piece.start, piece.length) == piece.crc;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 从文件读取多条记录对应的数据校验
+     * Verify data of records by reading file.
+     *
+     * @return 与记录不符的记录 records not matching.
+     */
+    static List<DLChecksum.Piece> check(File file, List<DLChecksum.Piece> pieces)
+            throws IOException {
+        List<DLChecksum.Piece> broken = new ArrayList<>();
+        RandomAccessFile raf = new RandomAccessFile(file, PublicCons.AccessModes.ACCESS_MODE_R);
+        try {
+            for (DLChecksum.Piece piece : pieces) {
+                if (!check(raf, piece)) broken.add(piece);
+            }
+        } finally {
+            raf.close();
+        }
+        return broken;
+    }
+}
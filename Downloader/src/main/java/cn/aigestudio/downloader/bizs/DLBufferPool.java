@@ -0,0 +1,162 @@
+package cn.aigestudio.downloader.bizs;
+
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * 下载缓冲区池
+ * 所有下载任务共享 复用缓冲区避免下载线程重复分配大块内存 借出及空闲的缓冲区总大小不超过上限
+ * 达到上限时借用缓冲区的线程等待其他线程归还
+ * Pool of download buffers.
+ * Shared by all tasks, buffers are reused so download threads don't allocate large blocks again
+ * and again. Total size of lent and idle buffers never exceeds the cap, threads borrowing a buffer
+ * wait for others to release one once it's reached.
+ */
+final class DLBufferPool {
+    private final ArrayDeque<ByteBuffer> mHeaps = new ArrayDeque<>();
+    private final ArrayDeque<ByteBuffer> mDirects = new ArrayDeque<>();
+
+    private int mBufferSize;
+    private long mMaxBytes;
+    /**
+     * 已分配且未丢弃的缓冲区总大小 包括借出及空闲的缓冲区
+     * Total size of buffers allocated and not dropped, both lent and idle.
+     */
+    private long mAllocated;
+    private long mIdle;
+    private long mWaits;
+
+    /**
+     * @param bufferSize 单个缓冲区的大小 size in byte of each buffer.
+     * @param maxBytes   所有缓冲区的总大小上限 max total size in byte of all buffers.
+     */
+    DLBufferPool(int bufferSize, long maxBytes) {
+        mBufferSize = bufferSize;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * 修改缓冲区大小 已借出的旧缓冲区归还时将被丢弃
+     * Change buffer size, old buffers will be dropped when they are released.
+     *
+     * @param bufferSize 单个缓冲区的大小 size in byte of each buffer.
+     */
+    synchronized void setBufferSize(int bufferSize) {
+        mBufferSize = bufferSize;
+        drop(mHeaps);
+        drop(mDirects);
+        notifyAll();
+    }
+
+    /**
+     * 修改总大小上限 超出部分在缓冲区归还时丢弃
+     * Change cap of total size, buffers beyond it are dropped when released.
+     *
+     * @param maxBytes 所有缓冲区的总大小上限 max total size in byte of all buffers.
+     */
+    synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        while (mAllocated > mMaxBytes && (!mHeaps.isEmpty() || !mDirects.isEmpty())) {
+            drop(mHeaps.isEmpty() ? mDirects.poll() : mHeaps.poll());
+        }
+        notifyAll();
+    }
+
+    /**
+     * 借用缓冲区 没有空闲的缓冲区且总大小已达到上限时等待 另一种缓冲区空闲时将其丢弃以腾出空间
+     * 没有借出任何缓冲区时总能分配一个 即使其大小超过上限
+     * Borrow a buffer, it waits if none is idle and total size has reached the cap, idle buffers
+     * of the other kind are dropped to make room. One buffer can always be allocated when none is
+     * lent, even if it's larger than the cap.
+     *
+     * @param isDirect 是否为直接缓冲区 whether it's a direct buffer.
+     */
+    synchronized ByteBuffer acquire(boolean isDirect) throws InterruptedIOException {
+        ByteBuffer buffer = poll(isDirect);
+        if (null != buffer) return buffer;
+        mWaits++;
+        try {
+            while (null == (buffer = poll(isDirect))) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        return buffer;
+    }
+
+    /**
+     * 借用缓冲区 需要等待时不等待 供不能阻塞的事件循环使用
+     * Borrow a buffer without waiting, used by event loops which must not block.
+     *
+     * @return 总大小已达到上限时返回null null if total size has reached the cap.
+     */
+    synchronized ByteBuffer poll(boolean isDirect) {
+        ArrayDeque<ByteBuffer> idles = isDirect ? mDirects : mHeaps;
+        ArrayDeque<ByteBuffer> others = isDirect ? mHeaps : mDirects;
+        while (true) {
+            ByteBuffer buffer = idles.poll();
+            if (null != buffer) {
+                mIdle -= buffer.capacity();
+                buffer.clear();
+                return buffer;
+            }
+            boolean isFull = mAllocated + mBufferSize > mMaxBytes;
+            if (isFull && !others.isEmpty()) {
+                drop(others.poll());
+                continue;
+            }
+            if (isFull && mAllocated != 0) return null;
+            mAllocated += mBufferSize;
+            return isDirect ? ByteBuffer.allocateDirect(mBufferSize) :
+                    ByteBuffer.allocate(mBufferSize);
+        }
+    }
+
+    synchronized void release(ByteBuffer buffer) {
+        if (buffer.capacity() != mBufferSize || mAllocated > mMaxBytes) {
+            mAllocated -= buffer.capacity();
+        } else {
+            (buffer.isDirect() ? mDirects : mHeaps).push(buffer);
+            mIdle += buffer.capacity();
+        }
+        notifyAll();
+    }
+
+    /**
+     * 借出的缓冲区总大小
+     * Total size of lent buffers.
+     */
+    synchronized long getUsedBytes() {
+        return mAllocated - mIdle;
+    }
+
+    /**
+     * 池中空闲的缓冲区总大小
+     * Total size of idle buffers in pool.
+     */
+    synchronized long getIdleBytes() {
+        return mIdle;
+    }
+
+    /**
+     * 因达到总大小上限而等待的借用次数
+     * Count of borrows which had to wait because the cap was reached.
+     */
+    synchronized long getWaitCount() {
+        return mWaits;
+    }
+
+    private void drop(ArrayDeque<ByteBuffer> idles) {
+        ByteBuffer buffer;
+        while (null != (buffer = idles.poll())) {
+            drop(buffer);
+        }
+    }
+
+    private void drop(ByteBuffer buffer) {
+        mAllocated -= buffer.capacity();
+        mIdle -= buffer.capacity();
+    }
+}
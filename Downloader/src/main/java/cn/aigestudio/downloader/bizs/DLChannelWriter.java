@@ -0,0 +1,59 @@
+package cn.aigestudio.downloader.bizs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import cn.aigestudio.downloader.cons.PublicCons;
+import cn.aigestudio.downloader.interfaces.IDLWriter;
+
+/**
+ * 基于FileChannel的写入器
+ * 同一下载任务的所有线程共享一个实例 以绝对位置写入互不干扰 仅在保存断点时同步至存储设备
+ * Writer based on FileChannel.
+ * Shared by all threads of a download task, positional writes never interfere with each other,
+ * bytes are only forced to the storage device when a checkpoint is saved.
+ */
+final class DLChannelWriter implements IDLWriter {
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+
+    DLChannelWriter(File file) throws IOException {
+        mFile = new RandomAccessFile(file, PublicCons.AccessModes.ACCESS_MODE_RW);
+        mChannel = mFile.getChannel();
+    }
+
+    @Override
+    public void write(ByteBuffer src, long position) throws IOException {
+        while (src.hasRemaining()) {
+            position += mChannel.write(src, position);
+        }
+    }
+
+    @Override
+    public void write(ByteBuffer[] srcs, int offset, int length, long position)
+            throws IOException {
+        long remain = 0;
+        for (int i = offset; i < offset + length; i++) {
+            remain += srcs[i].remaining();
+        }
+        // 合并写入使用通道位置 其他线程的写入均为绝对位置 不受影响 gathering write uses channel
+        // position, positional writes of other threads are not affected
+        mChannel.position(position);
+        while (remain > 0) {
+            remain -= mChannel.write(srcs, offset, length);
+        }
+    }
+
+    @Override
+    public void sync() throws IOException {
+        mChannel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+}
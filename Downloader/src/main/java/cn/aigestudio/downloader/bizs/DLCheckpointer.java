@@ -0,0 +1,159 @@
+package cn.aigestudio.downloader.bizs;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cn.aigestudio.downloader.entities.DLInfo;
+import cn.aigestudio.downloader.interfaces.IDLCheckpointSource;
+
+/**
+ * 断点写入器
+ * 下载线程只在内存中发布下载位置 由单独的线程每隔一段时间或每下载一定字节数在一个事务中批量写入数据库
+ * 下载任务停止或完成时再立即写入一次
+ * Checkpoint writer.
+ * Download threads only publish their positions in memory, a single thread writes all changes in
+ * one transaction every N millisecond or every M bytes, and once more when a task stops or finishes.
+ */
+final class DLCheckpointer implements Runnable {
+    private static final String TAG = DLCheckpointer.class.getSimpleName();
+    /**
+     * 两次写入之间的最短间隔 限制按字节数触发写入的频率
+     * Minimum time in millisecond between two checkpoints triggered by bytes.
+     */
+    private static final long TIME_MIN_GAP = 100;
+
+    private final DBManager mDBManager;
+
+    /**
+     * 所有待写入的操作 按入队顺序写入 保证同一条数据的插入、更新和删除不会乱序
+     * Pending operations, written in queued order so inserts, updates and deletes of the same
+     * info are never reordered.
+     */
+    private final Queue<DBManager.Op> mOps = new ConcurrentLinkedQueue<>();
+    private final List<IDLCheckpointSource> mSources = new CopyOnWriteArrayList<>();
+    private final AtomicLong mBytes = new AtomicLong();
+    private final Object mFlushLock = new Object();
+
+    private volatile long mInterval = 1000;
+    private volatile long mThreshold = 4194304;
+    private boolean isRequested;
+
+    DLCheckpointer(DBManager dbManager) {
+        mDBManager = dbManager;
+        Thread thread = new Thread(this, TAG);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void setInterval(long interval) {
+        mInterval = interval;
+    }
+
+    void setThreshold(long threshold) {
+        mThreshold = threshold;
+    }
+
+    void register(IDLCheckpointSource source) {
+        if (!mSources.contains(source)) {
+            mSources.add(source);
+        }
+    }
+
+    void unregister(IDLCheckpointSource source) {
+        mSources.remove(source);
+    }
+
+    void insert(DLInfo info) {
+        mOps.offer(new DBManager.Op(DBManager.Op.INSERT, info));
+    }
+
+    void update(DLInfo info) {
+        mOps.offer(new DBManager.Op(DBManager.Op.UPDATE, info));
+    }
+
+    /**
+     * 删除数据 删除下载任务数据时同时删除其所有线程数据
+     * Delete info, thread infos of a task are deleted together with the task info.
+     */
+    void delete(DLInfo info) {
+        mOps.offer(new DBManager.Op(DBManager.Op.DELETE, info));
+    }
+
+    /**
+     * 进度采样时调用 累计下载字节数超过阈值时提前写入断点
+     * Called on progress sampling, checkpoint is brought forward when threshold reached.
+     *
+     * @param len 新下载的字节数 bytes downloaded since last call.
+     */
+    void onBytes(long len) {
+        if (mBytes.addAndGet(len) >= mThreshold) {
+            mBytes.set(0);
+            request();
+        }
+    }
+
+    /**
+     * 请求写入线程尽快写入断点
+     * Ask writer thread to write checkpoints as soon as possible.
+     */
+    synchronized void request() {
+        isRequested = true;
+        notify();
+    }
+
+    /**
+     * 立即在调用线程中写入所有待写入的数据
+     * Write all pending data in calling thread immediately.
+     */
+    void flush() {
+        synchronized (mFlushLock) {
+            List<DBManager.Op> ops = new ArrayList<>();
+            DBManager.Op op;
+            while (null != (op = mOps.poll())) {
+                ops.add(op);
+            }
+            // 下载源的当前位置是最新的状态 放在已入队的操作之后写入
+            List<DLInfo> updates = new ArrayList<>();
+            for (IDLCheckpointSource source : mSources) {
+                try {
+                    source.onCheckpoint(updates);
+                } catch (Exception e) {
+                    Log.e(TAG, "Checkpoint source error:" + e);
+                }
+            }
+            for (DLInfo info : updates) {
+                ops.add(new DBManager.Op(DBManager.Op.UPDATE, info));
+            }
+            if (ops.isEmpty()) return;
+            try {
+                mDBManager.checkpoint(ops);
+            } catch (Exception e) {
+                Log.e(TAG, "Checkpoint error:" + e);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                synchronized (this) {
+                    if (!isRequested) {
+                        wait(mInterval);
+                    }
+                    isRequested = false;
+                }
+                flush();
+                Thread.sleep(TIME_MIN_GAP);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package cn.aigestudio.downloader.bizs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * 可合并的CRC32校验
+ * 每个下载区间在写入时计算自身的CRC32 各区间的结果按位置顺序合并即得整个文件的CRC32 无需重新读取文件
+ * Combinable CRC32 checksum.
+ * Every download range computes CRC32 of its own bytes while writing, results of all ranges are
+ * combined by position into CRC32 of the whole file without reading it again.
+ */
+final class DLChecksum {
+    private static final int SCRATCH_SIZE = 8192;
+    private static final int GF2_DIM = 32;
+
+    private final CRC32 mCrc = new CRC32();
+    private byte[] mScratch;
+    private long mLength;
+
+    /**
+     * 累加缓冲区中position至limit之间的数据 不改变缓冲区的position
+     * Accumulate data between position and limit of buffer, position of buffer is unchanged.
+     */
+    void update(ByteBuffer buffer) {
+        int len = buffer.remaining();
+        if (buffer.hasArray()) {
+            mCrc.update(buffer.array(), buffer.arrayOffset() + buffer.position(), len);
+        } else {
+            // 直接缓冲区没有数组 分段复制后计算 之后恢复position
+            if (null == mScratch) mScratch = new byte[SCRATCH_SIZE];
+            int position = buffer.position();
+            while (buffer.hasRemaining()) {
+                int n = Math.min(buffer.remaining(), SCRATCH_SIZE);
+                buffer.get(mScratch, 0, n);
+                mCrc.update(mScratch, 0, n);
+            }
+            buffer.position(position);
+        }
+        mLength += len;
+    }
+
+    long getValue() {
+        return mCrc.getValue();
+    }
+
+    long getLength() {
+        return mLength;
+    }
+
+    void reset() {
+        mCrc.reset();
+        mLength = 0;
+    }
+
+    /**
+     * 合并两段相邻数据的CRC32 算法同zlib的crc32_combine
+     * Combine CRC32 of two adjacent pieces of data, same as crc32_combine of zlib.
+     *
+     * @param crc1 前一段的CRC32 CRC32 of the first piece.
+     * @param crc2 后一段的CRC32 CRC32 of the second piece.
+     * @param len2 后一段的长度 length of the second piece.
+     */
+    static long combine(long crc1, long crc2, long len2) {
+        if (len2 <= 0) return crc1;
+        long[] even = new long[GF2_DIM];
+        long[] odd = new long[GF2_DIM];
+        // 单个0比特的运算矩阵 operator for one zero bit
+        odd[0] = 0xedb88320L;
+        long row = 1;
+        for (int n = 1; n < GF2_DIM; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        square(even, odd);
+        square(odd, even);
+        do {
+            square(even, odd);
+            if ((len2 & 1) != 0) crc1 = times(even, crc1);
+            len2 >>= 1;
+            if (len2 == 0) break;
+            square(odd, even);
+            if ((len2 & 1) != 0) crc1 = times(odd, crc1);
+            len2 >>= 1;
+        } while (len2 != 0);
+        return crc1 ^ crc2;
+    }
+
+    private static long times(long[] mat, long vec) {
+        long sum = 0;
+        for (int i = 0; vec != 0; i++, vec >>>= 1) {
+            if ((vec & 1) != 0) sum ^= mat[i];
+        }
+        return sum;
+    }
+
+    private static void square(long[] square, long[] mat) {
+        for (int n = 0; n < GF2_DIM; n++) {
+            square[n] = times(mat, mat[n]);
+        }
+    }
+
+    /**
+     * 按位置合并各区间的CRC32 没有记录的部分 如之前的会话中下载的部分 从文件中读取计算
+     * Combine CRC32 of ranges by position, parts without record, such as those downloaded in
+     * previous sessions, are read from file.
+     *
+     * @return 整个文件的CRC32 CRC32 of the whole file.
+     */
+    static long combine(List<Piece> pieces, File file, long length) throws IOException {
+        List<Piece> sorted = new ArrayList<>(pieces);
+        Collections.sort(sorted, new Comparator<Piece>() {
+            @Override
+            public int compare(Piece lhs, Piece rhs) {
+                return lhs.start < rhs.start ? -1 : (lhs.start == rhs.start ? 0 : 1);
+            }
+        });
+        long crc = 0, position = 0;
+        RandomAccessFile raf = null;
+        try {
+            for (Piece piece : sorted) {
+                // 与已合并部分重叠的记录不可信 重叠部分改为读取文件
+                if (piece.start < position || piece.start + piece.length > length) continue;
+                if (piece.start > position) {
+                    if (null == raf) raf = new RandomAccessFile(file, "r");
+                    crc = combine(crc, read(raf, position, piece.start - position),
+                            piece.start - position);
+                }
+                crc = combine(crc, piece.crc, piece.length);
+                position = piece.start + piece.length;
+            }
+            if (position < length) {
+                if (null == raf) raf = new RandomAccessFile(file, "r");
+                crc = combine(crc, read(raf, position, length - position), length - position);
+            }
+        } finally {
+            if (null != raf) raf.close();
+        }
+        return crc;
+    }
+
+    /**
+     * 从文件读取一段数据并计算CRC32
+     * Read a piece of data from file and compute its CRC32.
+     */
+    static long read(RandomAccessFile raf, long start, long length) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[SCRATCH_SIZE];
+        raf.seek(start);
+        while (length > 0) {
+            int n = raf.read(buffer, 0, (int) Math.min(buffer.length, length));
+            if (n == -1) throw new IOException("Unexpected end of file");
+            crc.update(buffer, 0, n);
+            length -= n;
+        }
+        return crc.getValue();
+    }
+
+    static String toHex(long crc) {
+        return String.format(Locale.US, "%08x", crc);
+    }
+
+    /**
+     * 一段已下载数据的CRC32
+     * CRC32 of a piece of downloaded data.
+     */
+    static final class Piece {
+        final long start, length, crc;
+
+        Piece(long start, long length, long crc) {
+            this.start = start;
+            this.length = length;
+            this.crc = crc;
+        }
+    }
+}
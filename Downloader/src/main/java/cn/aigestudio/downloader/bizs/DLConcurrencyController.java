@@ -0,0 +1,130 @@
+package cn.aigestudio.downloader.bizs;
+
+/**
+ * 下载任务的并发控制器
+ * 按实测吞吐量调整一个任务同时下载的区间数 吞吐量随连接增加而提升时逐个增加连接
+ * 增加连接后吞吐量不再提升时撤回该连接并保持一段时间 服务器出错时连接数减半
+ * Concurrency controller of a download task.
+ * Count of ranges downloaded at the same time is adjusted by measured throughput. Connections
+ * are added one by one while throughput keeps improving, the last one is withdrawn and the count
+ * is held for a while once it stops improving, and the count is halved on server errors.
+ */
+final class DLConcurrencyController {
+    /**
+     * 增加连接后吞吐量至少提升该比例才继续增加
+     * Minimum throughput gain after adding a connection to keep adding.
+     */
+    private static final double GAIN_MIN = 0.1;
+    /**
+     * 增加连接后跳过的采样数 新连接需要时间达到稳定速度
+     * Samples skipped after adding a connection, new connection needs time to reach full speed.
+     */
+    private static final int SAMPLES_WARM_UP = 1;
+    /**
+     * 撤回连接或减半后保持不变的采样数
+     * Samples during which count is held after withdrawing or halving.
+     */
+    private static final int SAMPLES_HOLD = 5;
+
+    private int mTarget;
+    /**
+     * 最近一次采样得到的目标区间数 不受任务末尾区间耗尽的影响
+     * Target count from the latest sample, unaffected by ranges running out at the end of task.
+     */
+    private int mSteady;
+    private int mMax;
+    private double mBaseRate;
+    private boolean isProbing;
+    private int mWarmUp, mHold;
+
+    /**
+     * @param initial 初始区间数 initial count of ranges.
+     * @param max     最大区间数 max count of ranges.
+     */
+    DLConcurrencyController(int initial, int max) {
+        mMax = Math.max(1, max);
+        mTarget = Math.max(1, Math.min(initial, mMax));
+        mSteady = mTarget;
+    }
+
+    int getTarget() {
+        return mTarget;
+    }
+
+    int getSteady() {
+        return mSteady;
+    }
+
+    /**
+     * 输入一次采样 返回新的目标区间数
+     * Feed a sample and get new target count of ranges.
+     *
+     * @param rate     采样期间的吞吐量 单位字节每秒 throughput in byte per second.
+     * @param failures 采样期间失败的请求数 failed requests during sampling.
+     * @param max      当前允许的最大区间数 max count of ranges allowed now.
+     * @return 目标区间数 target count of ranges.
+     */
+    int onSample(double rate, int failures, int max) {
+        mMax = Math.max(1, max);
+        if (failures > 0) {
+            mTarget = Math.max(1, mTarget / 2);
+            isProbing = false;
+            mBaseRate = 0;
+            mHold = SAMPLES_HOLD;
+        } else if (mWarmUp > 0) {
+            mWarmUp--;
+        } else if (isProbing) {
+            isProbing = false;
+            if (rate > mBaseRate * (1 + GAIN_MIN)) {
+                grow(rate);
+            } else {
+                mTarget = Math.max(1, mTarget - 1);
+                mHold = SAMPLES_HOLD;
+            }
+        } else if (mHold > 0) {
+            mHold--;
+        } else {
+            grow(rate);
+        }
+        mTarget = Math.min(mTarget, mMax);
+        mSteady = mTarget;
+        return mTarget;
+    }
+
+    /**
+     * 任务已没有可分割的区间 目标区间数不再超过实际区间数
+     * Task has nothing left to split, target count won't exceed the actual count.
+     */
+    void onExhausted(int count) {
+        mTarget = Math.max(1, Math.min(mTarget, count));
+        isProbing = false;
+    }
+
+    /**
+     * 加入了新的下载源 目标区间数增加该下载源的初始区间数 之后重新按吞吐量调整
+     * A new source has joined, target count grows by initial count of that source, then it's
+     * adjusted by throughput again.
+     *
+     * @param count 增加的区间数 count of ranges to add.
+     * @param max   当前允许的最大区间数 max count of ranges allowed now.
+     * @return 目标区间数 target count of ranges.
+     */
+    int onExpand(int count, int max) {
+        mMax = Math.max(1, max);
+        mTarget = Math.max(1, Math.min(mTarget + count, mMax));
+        mSteady = mTarget;
+        isProbing = false;
+        mBaseRate = 0;
+        mWarmUp = SAMPLES_WARM_UP;
+        mHold = 0;
+        return mTarget;
+    }
+
+    private void grow(double rate) {
+        if (mTarget >= mMax) return;
+        mBaseRate = rate;
+        mTarget++;
+        isProbing = true;
+        mWarmUp = SAMPLES_WARM_UP;
+    }
+}
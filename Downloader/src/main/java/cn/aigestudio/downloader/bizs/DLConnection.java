@@ -0,0 +1,681 @@
+package cn.aigestudio.downloader.bizs;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.security.NetworkSecurityPolicy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.CookieHandler;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import cn.aigestudio.downloader.cons.HttpConnPars;
+
+/**
+ * 可复用的HTTP/1.1连接
+ * 每次请求后若响应体已读完且服务器未要求关闭 连接可以归还连接池供下一个请求使用
+ * Reusable HTTP/1.1 connection.
+ * After a request, the connection can be returned to the pool for the next request if the
+ * response body has been read completely and the server did not ask to close it.
+ */
+final class DLConnection {
+    private static final String CRLF = "\r\n";
+    private static final int BUFFER_SIZE = 8192;
+    private static final int PORT_HTTP = 80;
+    private static final int PORT_HTTPS = 443;
+
+    final String key;
+
+    private final Socket mSocket;
+    private final Input mIn;
+    private final OutputStream mOut;
+    private final boolean isProxied;
+
+    private URL mUrl;
+    private int mCode;
+    private boolean isKeepAlive;
+    private final Map<String, String> mHeaders = new HashMap<>();
+    private final Map<String, List<String>> mCookies = new HashMap<>();
+    private BodyStream mBody;
+    private BodyChannel mBodyChannel;
+    /**
+     * 经通道读取响应体时使用 读取期间通道处于非阻塞模式并注册在选择器上
+     * Used when body is read through channel, which is non-blocking and registered to the
+     * selector meanwhile.
+     */
+    private Selector mSelector;
+    private SelectionKey mKey;
+
+    long idleSince;
+
+    private DLConnection(String key, Socket socket, boolean isProxied) throws IOException {
+        this.key = key;
+        this.mSocket = socket;
+        this.mIn = new Input(socket.getInputStream());
+        this.mOut = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+        this.isProxied = isProxied;
+    }
+
+    /**
+     * 获取连接池中区分连接的键 相同协议、主机、端口及代理的请求可共用连接
+     * Get key of connection in pool, requests with same scheme, host, port and proxy share
+     * connections.
+     */
+    static String keyOf(URL url) {
+        Proxy proxy = selectProxy(url);
+        String key = url.getProtocol() + "://" + url.getHost() + ":" + portOf(url);
+        return Proxy.NO_PROXY == proxy ? key : key + "@" + proxy.address();
+    }
+
+    /**
+     * 建立新的连接 https通过SSLSocket建立 系统配置的HTTP代理同样生效
+     * Open a new connection, https goes through SSLSocket, HTTP proxy configured by system is
+     * respected.
+     *
+     * @param isChannel 明文连接是否基于SocketChannel建立 以便响应体可经通道读取
+     *                  whether plain connection is built on SocketChannel, so its body can be
+     *                  read through channel.
+     */
+    static DLConnection connect(URL url, boolean isChannel) throws IOException {
+        checkCleartext(url);
+        int timeout = Integer.parseInt(HttpConnPars.CONNECT_TIMEOUT.content);
+        boolean isHttps = "https".equalsIgnoreCase(url.getProtocol());
+        Proxy proxy = selectProxy(url);
+        Socket socket = isChannel && !isHttps ? SocketChannel.open().socket() : new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(Integer.parseInt(HttpConnPars.READ_TIMEOUT.content));
+            if (Proxy.NO_PROXY == proxy) {
+                socket.connect(new InetSocketAddress(url.getHost(), portOf(url)), timeout);
+            } else {
+                socket.connect(proxy.address(), timeout);
+                if (isHttps) {
+                    tunnel(socket, url);
+                }
+            }
+            if (isHttps) {
+                socket = handshake(socket, url);
+            }
+            return new DLConnection(keyOf(url), socket, Proxy.NO_PROXY != proxy && !isHttps);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 检查系统的网络安全策略是否允许对主机发起明文请求 与HttpURLConnection一致 不允许时抛出异常
+     * 按主机查询需要API 24
+     * Check whether network security policy of system permits cleartext requests to host, the
+     * same as HttpURLConnection does, thrown if not permitted. Querying by host needs API 24.
+     */
+    static void checkCleartext(URL url) throws IOException {
+        if (!"http".equalsIgnoreCase(url.getProtocol()) || Build.VERSION.SDK_INT < 24) return;
+        if (!Policy.isCleartextPermitted(url.getHost())) {
+            throw new IOException("Cleartext HTTP traffic to " + url.getHost() +
+                    " not permitted");
+        }
+    }
+
+    /**
+     * 查询网络安全策略 单独成类避免低版本系统校验DLConnection时加载NetworkSecurityPolicy
+     * Queries network security policy, kept in its own class so verifying DLConnection on older
+     * systems never loads NetworkSecurityPolicy.
+     */
+    @TargetApi(24)
+    private static final class Policy {
+        static boolean isCleartextPermitted(String host) {
+            return NetworkSecurityPolicy.getInstance().isCleartextTrafficPermitted(host);
+        }
+    }
+
+    /**
+     * 附加系统CookieHandler为url保存的Cookie 没有CookieHandler或Cookie时返回原请求头
+     * Add cookies saved for url by system CookieHandler, the original headers are returned if
+     * there is no CookieHandler or cookie.
+     */
+    static Map<String, String> withCookies(URL url, Map<String, String> headers)
+            throws IOException {
+        CookieHandler handler = CookieHandler.getDefault();
+        if (null == handler) return headers;
+        Map<String, List<String>> cookies;
+        try {
+            cookies = handler.get(url.toURI(), Collections.<String, List<String>>emptyMap());
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return headers;
+        }
+        Map<String, String> result = null;
+        for (Map.Entry<String, List<String>> entry : cookies.entrySet()) {
+            String name = entry.getKey();
+            List<String> values = entry.getValue();
+            if (null == values || values.isEmpty() || !("Cookie".equalsIgnoreCase(name) ||
+                    "Cookie2".equalsIgnoreCase(name))) {
+                continue;
+            }
+            StringBuilder sb = new StringBuilder();
+            for (String value : values) {
+                if (sb.length() != 0) sb.append("; ");
+                sb.append(value);
+            }
+            if (null == result) {
+                result = null == headers ? new HashMap<String, String>() :
+                        new HashMap<>(headers);
+            }
+            result.put(name, sb.toString());
+        }
+        return null == result ? headers : result;
+    }
+
+    /**
+     * 收集响应头中的Set-Cookie及Set-Cookie2
+     * Collect Set-Cookie and Set-Cookie2 of response headers.
+     *
+     * @return 是否为Cookie头 whether it's a cookie header.
+     */
+    static boolean collectCookie(Map<String, List<String>> cookies, String name, String value) {
+        if (!"Set-Cookie".equalsIgnoreCase(name) && !"Set-Cookie2".equalsIgnoreCase(name)) {
+            return false;
+        }
+        List<String> values = cookies.get(name);
+        if (null == values) {
+            values = new ArrayList<>();
+            cookies.put(name, values);
+        }
+        values.add(value);
+        return true;
+    }
+
+    /**
+     * 将响应的Cookie交给系统CookieHandler保存
+     * Hand cookies of response to system CookieHandler to save.
+     */
+    static void saveCookies(URL url, Map<String, List<String>> cookies) throws IOException {
+        CookieHandler handler = CookieHandler.getDefault();
+        if (null == handler || cookies.isEmpty()) return;
+        try {
+            handler.put(url.toURI(), cookies);
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 请求是否需要经过系统配置的HTTP代理
+     * Whether requests to url go through HTTP proxy configured by system.
+     */
+    static boolean isProxied(URL url) {
+        return Proxy.NO_PROXY != selectProxy(url);
+    }
+
+    private static Proxy selectProxy(URL url) {
+        ProxySelector selector = ProxySelector.getDefault();
+        if (null == selector) return Proxy.NO_PROXY;
+        try {
+            List<Proxy> proxies = selector.select(url.toURI());
+            if (null != proxies) {
+                for (Proxy proxy : proxies) {
+                    if (proxy.type() == Proxy.Type.HTTP) return proxy;
+                }
+            }
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            e.printStackTrace();
+        }
+        return Proxy.NO_PROXY;
+    }
+
+    static int portOf(URL url) {
+        int port = url.getPort();
+        if (port != -1) return port;
+        return "https".equalsIgnoreCase(url.getProtocol()) ? PORT_HTTPS : PORT_HTTP;
+    }
+
+    private static void tunnel(Socket socket, URL url) throws IOException {
+        String authority = url.getHost() + ":" + portOf(url);
+        OutputStream out = socket.getOutputStream();
+        out.write(("CONNECT " + authority + " HTTP/1.1" + CRLF + "Host: " + authority + CRLF +
+                CRLF).getBytes("ISO-8859-1"));
+        out.flush();
+        InputStream in = socket.getInputStream();
+        String status = readLine(in);
+        while (readLine(in).length() != 0) {
+            // 丢弃代理返回的头部 skip headers of proxy
+        }
+        if (parseCode(status) / 100 != 2) {
+            throw new IOException("Proxy tunnel failed: " + status);
+        }
+    }
+
+    private static Socket handshake(Socket socket, URL url) throws IOException {
+        SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+        SSLSocket ssl = (SSLSocket) factory.createSocket(socket, url.getHost(), portOf(url), true);
+        ssl.startHandshake();
+        if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(url.getHost(),
+                ssl.getSession())) {
+            ssl.close();
+            throw new IOException("Hostname " + url.getHost() + " not verified");
+        }
+        return ssl;
+    }
+
+    /**
+     * 发送GET请求并读取响应头
+     * Send a GET request and read response headers.
+     *
+     * @param url     请求地址 url of request.
+     * @param headers 附加的请求头 extra request headers.
+     */
+    void execute(URL url, Map<String, String> headers) throws IOException {
+        block();
+        mUrl = url;
+        mHeaders.clear();
+        mBody = null;
+        mOut.write(buildRequest(url, withCookies(url, headers), isProxied));
+        mOut.flush();
+
+        String status;
+        do {
+            status = readLine(mIn);
+            mCode = parseCode(status);
+            readHeaders();
+        } while (mCode / 100 == 1);
+        saveCookies(url, mCookies);
+        String connection = mHeaders.get("connection");
+        isKeepAlive = status.startsWith("HTTP/1.1") ?
+                !"close".equalsIgnoreCase(connection) : "keep-alive".equalsIgnoreCase(connection);
+        mBody = openBody();
+    }
+
+    /**
+     * 构建GET请求的请求行及请求头
+     * Build request line and headers of a GET request.
+     *
+     * @param isAbsolute 是否使用完整url作为请求目标 经HTTP代理转发时需要
+     *                   whether full url is used as request target, needed by HTTP proxy.
+     */
+    static byte[] buildRequest(URL url, Map<String, String> headers, boolean isAbsolute)
+            throws IOException {
+        StringBuilder sb = new StringBuilder(512);
+        String file = url.getFile();
+        String target = isAbsolute ? url.toString() :
+                null == file || file.length() == 0 ? "/" : file;
+        sb.append(HttpConnPars.POST.content).append(' ').append(target).append(" HTTP/1.1")
+                .append(CRLF);
+        int port = url.getPort();
+        sb.append("Host: ").append(url.getHost()).append(port == -1 ? "" : ":" + port).append(CRLF);
+        String agent = System.getProperty("http.agent");
+        if (null != agent) {
+            sb.append("User-Agent: ").append(agent).append(CRLF);
+        }
+        appendHeader(sb, HttpConnPars.ACCEPT);
+        appendHeader(sb, HttpConnPars.ACCEPT_RANGE);
+        appendHeader(sb, HttpConnPars.ACCEPT_LANGUAGE);
+        appendHeader(sb, HttpConnPars.CHARSET);
+        appendHeader(sb, HttpConnPars.KEEP_CONNECT);
+        if (null != headers) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                sb.append(header.getKey()).append(": ").append(header.getValue()).append(CRLF);
+            }
+        }
+        sb.append(CRLF);
+        return sb.toString().getBytes("ISO-8859-1");
+    }
+
+    private static void appendHeader(StringBuilder sb, HttpConnPars pars) {
+        sb.append(pars.header).append(": ").append(pars.content).append(CRLF);
+    }
+
+    private void readHeaders() throws IOException {
+        mCookies.clear();
+        String line;
+        while ((line = readLine(mIn)).length() != 0) {
+            int index = line.indexOf(':');
+            if (index <= 0) continue;
+            String name = line.substring(0, index).trim();
+            String value = line.substring(index + 1).trim();
+            collectCookie(mCookies, name, value);
+            mHeaders.put(name.toLowerCase(), value);
+        }
+    }
+
+    private BodyStream openBody() throws IOException {
+        if (mCode == 204 || mCode == 304) {
+            return new BodyStream(0);
+        }
+        if ("chunked".equalsIgnoreCase(mHeaders.get("transfer-encoding"))) {
+            return new ChunkedStream();
+        }
+        String length = mHeaders.get("content-length");
+        if (null != length) {
+            try {
+                return new BodyStream(Long.parseLong(length));
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad Content-Length: " + length);
+            }
+        }
+        isKeepAlive = false;
+        return new BodyStream(-1);
+    }
+
+    static int parseCode(String status) throws IOException {
+        if (!status.startsWith("HTTP/") || status.length() < 12) {
+            throw new IOException("Unexpected status line: " + status);
+        }
+        try {
+            return Integer.parseInt(status.substring(9, 12));
+        } catch (NumberFormatException e) {
+            throw new IOException("Unexpected status line: " + status);
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder(64);
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c == -1) throw new IOException("Unexpected end of stream");
+            if (c != '\r') sb.append((char) c);
+        }
+        return sb.toString();
+    }
+
+    int getResponseCode() {
+        return mCode;
+    }
+
+    String getHeaderField(String name) {
+        return mHeaders.get(name.toLowerCase());
+    }
+
+    URL getURL() {
+        return mUrl;
+    }
+
+    InputStream getInputStream() {
+        return mBody;
+    }
+
+    /**
+     * 获取直接读取响应体的通道 数据由内核直接复制到目标缓冲区 不经过输入流的字节数组
+     * 与输入流共享读取进度 仅基于SocketChannel的明文连接上长度已知的响应体可用
+     * Get channel reading response body directly, data is copied by kernel right into the
+     * destination buffer without byte arrays of input stream. It shares read progress with input
+     * stream, only available for body of known length on plain connection built on SocketChannel.
+     *
+     * @return 不可用时返回null null if not available.
+     */
+    ReadableByteChannel getBodyChannel() {
+        if (null == mSocket.getChannel() || null == mBody || mBody instanceof ChunkedStream ||
+                mBody.remain < 0) {
+            return null;
+        }
+        if (null == mBodyChannel) mBodyChannel = new BodyChannel();
+        return mBodyChannel;
+    }
+
+    /**
+     * 读完不超过指定长度的响应体 使连接可以复用 如重定向响应
+     * Read through a response body no longer than max so the connection can be reused, such as
+     * body of a redirect.
+     */
+    void drain(long max) {
+        String length = getHeaderField(HttpConnPars.CONTENT_LENGTH.content);
+        try {
+            if (null == mBody || null == length || Long.parseLong(length) > max) return;
+            byte[] buffer = new byte[512];
+            while (mBody.read(buffer) != -1) {
+                // 丢弃 discard
+            }
+        } catch (NumberFormatException | IOException ignored) {
+            // 无法读完时连接归还后被关闭 closed on recycle if not exhausted
+        }
+    }
+
+    /**
+     * 连接能否用于下一个请求 响应体必须已经读完
+     * Whether the connection can serve the next request, the response body must be exhausted.
+     */
+    boolean isReusable() {
+        return isKeepAlive && null != mBody && mBody.isExhausted() && !mSocket.isClosed();
+    }
+
+    /**
+     * 检查空闲连接是否仍然可用 服务器可能已关闭连接
+     * Check whether an idle connection is still usable, it may have been closed by server.
+     */
+    boolean isHealthy() {
+        if (mSocket.isClosed() || mSocket.isInputShutdown() || mSocket.isOutputShutdown()) {
+            return false;
+        }
+        int timeout = 0;
+        try {
+            block();
+            timeout = mSocket.getSoTimeout();
+            mSocket.setSoTimeout(1);
+            // 空闲连接上读到任何数据或流结束均表示连接不可用
+            // Either data or end of stream on an idle connection means it is unusable.
+            mIn.read();
+            return false;
+        } catch (SocketTimeoutException e) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            try {
+                mSocket.setSoTimeout(timeout);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    void close() {
+        try {
+            mSocket.close();
+            if (null != mSelector) mSelector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 经通道读取后恢复阻塞模式 之后才能使用输入流
+     * Restore blocking mode after reading through channel, input stream only works after that.
+     */
+    private void block() throws IOException {
+        if (null == mKey) return;
+        mKey.cancel();
+        mKey = null;
+        // 完成注销后才能切换模式 key must be deregistered before switching mode
+        mSelector.selectNow();
+        mSocket.getChannel().configureBlocking(true);
+    }
+
+    /**
+     * 可查看已读入数据的缓冲输入流
+     * Buffered input stream whose buffered data can be taken directly.
+     */
+    private static final class Input extends BufferedInputStream {
+        Input(InputStream in) {
+            super(in, BUFFER_SIZE);
+        }
+
+        /**
+         * 将已读入缓冲区的数据移至目标缓冲区 不读取底层流
+         * Move data already buffered to destination buffer without reading underlying stream.
+         */
+        synchronized int take(ByteBuffer dst) {
+            int len = Math.min(count - pos, dst.remaining());
+            if (len <= 0) return 0;
+            dst.put(buf, pos, len);
+            pos += len;
+            return len;
+        }
+    }
+
+    /**
+     * 按Content-Length读取的响应体 长度未知时读到连接关闭为止 关闭该流不会关闭连接
+     * Response body limited by Content-Length, read until the connection closes if the length is
+     * unknown, closing it does not close the connection.
+     */
+    private class BodyStream extends InputStream {
+        long remain;
+
+        BodyStream(long length) {
+            this.remain = length;
+        }
+
+        boolean isExhausted() {
+            return remain == 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remain == 0) return -1;
+            if (remain > 0) len = (int) Math.min(len, remain);
+            block();
+            int read = mIn.read(b, off, len);
+            if (read == -1) {
+                if (remain > 0) throw new IOException("Unexpected end of stream");
+                remain = 0;
+                return -1;
+            }
+            if (remain > 0) remain -= read;
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException {
+            int available = mIn.available();
+            return remain < 0 ? available : (int) Math.min(available, remain);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * 经通道读取的长度已知的响应体 先取出已读入缓冲区的部分 之后以非阻塞方式读取通道
+     * 无数据时在选择器上等待 等待超过读取超时后失败 阻塞模式的通道读取不受读取超时限制
+     * Body of known length read through channel, data already buffered is taken first, then the
+     * channel is read without blocking, waiting on selector while there's no data and failing
+     * after read timeout. Channel reads in blocking mode ignore read timeout.
+     */
+    private class BodyChannel implements ReadableByteChannel {
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (mBody.remain == 0) return -1;
+            int limit = dst.limit();
+            if (dst.remaining() > mBody.remain) {
+                dst.limit(dst.position() + (int) mBody.remain);
+            }
+            try {
+                int read = mIn.take(dst);
+                if (read == 0) read = readChannel(dst);
+                if (read == -1) throw new IOException("Unexpected end of stream");
+                mBody.remain -= read;
+                return read;
+            } finally {
+                dst.limit(limit);
+            }
+        }
+
+        private int readChannel(ByteBuffer dst) throws IOException {
+            SocketChannel channel = mSocket.getChannel();
+            if (null == mKey) {
+                if (null == mSelector) mSelector = Selector.open();
+                channel.configureBlocking(false);
+                mKey = channel.register(mSelector, SelectionKey.OP_READ);
+            }
+            while (true) {
+                int read = channel.read(dst);
+                if (read != 0) return read;
+                if (mSelector.select(mSocket.getSoTimeout()) == 0) {
+                    throw new SocketTimeoutException("Read timed out");
+                }
+                mSelector.selectedKeys().clear();
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !mSocket.isClosed();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * 分块传输编码的响应体
+     * Response body in chunked transfer encoding.
+     */
+    private class ChunkedStream extends BodyStream {
+        private long mChunk = -1;
+
+        ChunkedStream() {
+            super(-1);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remain == 0) return -1;
+            if (mChunk <= 0) {
+                if (mChunk == 0) readLine(mIn);
+                String line = readLine(mIn);
+                int index = line.indexOf(';');
+                try {
+                    mChunk = Long.parseLong((index == -1 ? line : line.substring(0, index)).trim(),
+                            16);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Bad chunk size: " + line);
+                }
+                if (mChunk == 0) {
+                    while (readLine(mIn).length() != 0) {
+                        // 丢弃尾部头 skip trailers
+                    }
+                    remain = 0;
+                    return -1;
+                }
+            }
+            int read = mIn.read(b, off, (int) Math.min(len, mChunk));
+            if (read == -1) throw new IOException("Unexpected end of stream");
+            mChunk -= read;
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return mChunk <= 0 ? 0 : (int) Math.min(mIn.available(), mChunk);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package cn.aigestudio.downloader.bizs;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HTTP连接池
+ * 按主机保存空闲的长连接 探测请求、各下载区间以及不同下载任务之间复用连接 省去重复的TCP及TLS握手
+ * Pool of HTTP connections.
+ * Idle keep-alive connections are kept per host and reused by probes, download ranges and
+ * different tasks, so repeated TCP and TLS handshakes are saved.
+ */
+final class DLConnectionPool {
+    /**
+     * 每个主机最多保留的空闲连接数
+     * Max count of idle connections kept for each host.
+     */
+    private static final int MAX_IDLE_PER_HOST = 8;
+    /**
+     * 空闲连接的保留时间 超时后不再复用
+     * Time in millisecond an idle connection is kept, it won't be reused after that.
+     */
+    private static final long TIME_KEEP_ALIVE = 30000;
+    /**
+     * 空闲超过该时间的连接在复用前先检查是否已被服务器关闭 更短的空闲由失败重试兜底
+     * Connections idle longer than this are checked before reuse, shorter idles rely on retry.
+     */
+    private static final long TIME_HEALTH_CHECK = 10000;
+
+    private final Map<String, Deque<DLConnection>> mIdles = new HashMap<>();
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private volatile boolean isChannel;
+
+    /**
+     * 设置新建的明文连接是否基于SocketChannel 以便响应体可经通道读取
+     * Set whether new plain connections are built on SocketChannel, so their body can be read
+     * through channel.
+     */
+    void setChannel(boolean isChannel) {
+        this.isChannel = isChannel;
+    }
+
+    /**
+     * 发送GET请求 优先使用空闲连接 空闲连接已失效时自动改用新连接重试
+     * Send a GET request on an idle connection if possible, a new connection is used to retry
+     * if the idle one turns out to be broken.
+     *
+     * @param url     请求地址 url of request.
+     * @param headers 附加的请求头 extra request headers.
+     * @return 已读取响应头的连接 connection whose response headers have been read.
+     */
+    DLConnection open(String url, Map<String, String> headers) throws IOException {
+        URL u = new URL(url);
+        String key = DLConnection.keyOf(u);
+        DLConnection conn;
+        while (null != (conn = poll(key))) {
+            try {
+                conn.execute(u, headers);
+                mHits.incrementAndGet();
+                return conn;
+            } catch (IOException e) {
+                conn.close();
+            }
+        }
+        mMisses.incrementAndGet();
+        conn = DLConnection.connect(u, isChannel);
+        try {
+            conn.execute(u, headers);
+        } catch (IOException e) {
+            conn.close();
+            throw e;
+        }
+        return conn;
+    }
+
+    /**
+     * 归还连接 响应体未读完或服务器要求关闭的连接将被直接关闭
+     * Return a connection, it is closed if the response body was not exhausted or the server
+     * asked to close it.
+     */
+    void recycle(DLConnection conn) {
+        if (null == conn) return;
+        if (!conn.isReusable()) {
+            conn.close();
+            return;
+        }
+        conn.idleSince = System.currentTimeMillis();
+        synchronized (mIdles) {
+            Deque<DLConnection> idles = mIdles.get(conn.key);
+            if (null == idles) {
+                idles = new ArrayDeque<>();
+                mIdles.put(conn.key, idles);
+            }
+            if (idles.size() < MAX_IDLE_PER_HOST) {
+                idles.push(conn);
+                return;
+            }
+        }
+        conn.close();
+    }
+
+    private DLConnection poll(String key) {
+        DLConnection conn;
+        while (true) {
+            synchronized (mIdles) {
+                Deque<DLConnection> idles = mIdles.get(key);
+                conn = null == idles ? null : idles.poll();
+                evict();
+            }
+            if (null == conn) return null;
+            long idle = System.currentTimeMillis() - conn.idleSince;
+            if (idle < TIME_KEEP_ALIVE && (idle < TIME_HEALTH_CHECK || conn.isHealthy())) {
+                return conn;
+            }
+            conn.close();
+        }
+    }
+
+    /**
+     * 关闭超过保留时间的空闲连接 调用时需持有mIdles锁
+     * Close idle connections kept too long, caller must hold lock of mIdles.
+     */
+    private void evict() {
+        long now = System.currentTimeMillis();
+        Iterator<Deque<DLConnection>> it = mIdles.values().iterator();
+        while (it.hasNext()) {
+            Deque<DLConnection> idles = it.next();
+            // 最近归还的连接在队首 从队尾开始清理
+            while (!idles.isEmpty() && now - idles.peekLast().idleSince >= TIME_KEEP_ALIVE) {
+                idles.pollLast().close();
+            }
+            if (idles.isEmpty()) it.remove();
+        }
+    }
+
+    /**
+     * 记录不经过本连接池的请求 如NIO引擎自行管理的连接
+     * Count a request not served by this pool, such as connections managed by NIO engine.
+     */
+    void count(boolean isHit) {
+        (isHit ? mHits : mMisses).incrementAndGet();
+    }
+
+    long getHitCount() {
+        return mHits.get();
+    }
+
+    long getMissCount() {
+        return mMisses.get();
+    }
+}
@@ -0,0 +1,63 @@
+package cn.aigestudio.downloader.bizs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * 下载线程每个缓冲区的读取步骤
+ * 从网络读取数据直到缓冲区满、达到指定长度或数据流结束 堆缓冲区直接读入其数组 直接缓冲区经复用的中转数组读入
+ * 有响应体通道时直接读入直接缓冲区
+ * Read step of every buffer of a download thread.
+ * Reads until the buffer is full, max bytes are read or the stream ends. Heap buffers are read
+ * straight into their array, direct buffers through a reused staging array, or straight from
+ * the body channel if there is one.
+ */
+class DLFiller {
+    private static final int BUFFER_SIZE_STAGE = 8192;
+
+    private byte[] mStage;
+
+    /**
+     * 是否停止读取 每次读取前检查
+     * Whether to stop reading, checked before every read.
+     */
+    boolean isStopped() {
+        return false;
+    }
+
+    /**
+     * 读满缓冲区 读取后缓冲区处于可写出状态
+     * Fill the buffer, it's flipped for writing after that.
+     *
+     * @param channel 响应体通道 不为null时直接读入直接缓冲区 channel of response body,
+     *                direct buffers are read into straight from it if not null.
+     * @param max     最多读取的字节数 max bytes to read.
+     * @return 读取的字节数 数据流结束时返回-1 bytes read, -1 if the stream has ended.
+     */
+    int fill(InputStream is, ReadableByteChannel channel, ByteBuffer buffer, long max)
+            throws IOException {
+        buffer.clear();
+        buffer.limit((int) Math.max(1, Math.min(buffer.capacity(), max)));
+        while (!isStopped() && buffer.hasRemaining()) {
+            int len;
+            if (null != channel && !buffer.hasArray()) {
+                // 内核直接复制到缓冲区 kernel copies right into the buffer
+                len = channel.read(buffer);
+            } else if (buffer.hasArray()) {
+                // 堆缓冲区直接读入其数组 read straight into array of heap buffer
+                len = is.read(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                        buffer.remaining());
+                if (len > 0) buffer.position(buffer.position() + len);
+            } else {
+                if (null == mStage) mStage = new byte[BUFFER_SIZE_STAGE];
+                len = is.read(mStage, 0, Math.min(mStage.length, buffer.remaining()));
+                if (len > 0) buffer.put(mStage, 0, len);
+            }
+            if (len == -1) break;
+        }
+        buffer.flip();
+        return buffer.limit() == 0 ? -1 : buffer.limit();
+    }
+}
@@ -7,23 +7,27 @@ import org.apache.http.HttpStatus;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.RandomAccessFile;
-import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.UUID;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import cn.aigestudio.downloader.cons.HttpConnPars;
 import cn.aigestudio.downloader.cons.PublicCons;
+import cn.aigestudio.downloader.entities.ResourceInfo;
 import cn.aigestudio.downloader.entities.TaskInfo;
-import cn.aigestudio.downloader.entities.ThreadInfo;
 import cn.aigestudio.downloader.interfaces.DLTaskListener;
-import cn.aigestudio.downloader.interfaces.IDLThreadListener;
 import cn.aigestudio.downloader.utils.FileUtil;
-import cn.aigestudio.downloader.utils.NetUtil;
 
 /**
  * 下载管理器
@@ -33,14 +37,15 @@ import cn.aigestudio.downloader.utils.NetUtil;
  * @author AigeStudio 2015-05-09
  *         开始一个下载任务只需调用{@link #dlStart}方法即可
  *         停止某个下载任务需要调用{@link #dlStop}方法 停止下载任务仅仅会将对应下载任务移除下载队列而不删除相应数据 下次启动相同任务时会自动根据上一次停止时保存的数据重新开始下载
- *         取消某个下载任务需要调用{@link #dlCancel}方法 取消下载任务会删除掉相应的本地数据库数据但文件不会被删除
+ *         取消某个下载任务需要调用{@link #dlCancel}方法 取消下载任务会删除掉相应的本地数据库数据并在所有下载线程结束后清空文件 但文件不会被删除
  *         相同url的下载任务视为相同任务
  *         Use {@link #dlStart} for a new download task.
  *         Use {@link #dlStop} to stop a download task base on url.
  *         Use {@link #dlCancel} to cancel a download task base on url.
  *         By the way, the difference between {@link #dlStop} and {@link #dlCancel} is whether the data in database would be deleted or not,
  *         for example, the state of download like local file and data in database will be save when you use {@link #dlStop} stop a download task,
- *         if you use {@link #dlCancel} cancel a download task, anything related to download task would be deleted.
+ *         if you use {@link #dlCancel} cancel a download task, anything related to download task would be deleted,
+ *         and the local file is emptied once all download threads are over but not removed.
  * @author AigeStudio 2015-05-26
  *         对不支持断点下载的文件直接使用单线程下载 该操作将不会插入数据库
  *         对转向地址进行解析
@@ -60,22 +65,80 @@ import cn.aigestudio.downloader.utils.NetUtil;
  */
 public final class DLManager {
     private static final int THREAD_POOL_SIZE = 32;
+    private static final int BUFFER_SIZE_DEFAULT = 131072;
+    private static final long BUFFER_MEMORY_DEFAULT = BUFFER_SIZE_DEFAULT * THREAD_POOL_SIZE;
+    private static final int WRITE_QUEUE_SIZE_DEFAULT = 8;
+    private static final long MAPPED_LENGTH_MAX_DEFAULT = 268435456;
+    /**
+     * 32位进程的地址空间有限 可映射的最大文件长度默认值较小
+     * Address space of 32-bit process is limited, so default max length of mapped file is less.
+     */
+    private static final long MAPPED_LENGTH_MAX_DEFAULT_32 = 67108864;
+    private static final long PROGRESS_INTERVAL_DEFAULT = 200;
+    private static final int NIO_LOOP_COUNT = 2;
+    private static final int PROBE_POOL_SIZE = 4;
+    private static final int PROBE_QUEUE_SIZE = 64;
+    private static final int CONNECTIONS_PER_HOST = 8;
+    private static final int MAX_REDIRECTS = 5;
+    static final long LENGTH_MAX_DRAIN = 16384;
+    private static final long RESOURCE_TTL_DEFAULT = 3600000;
 
     private static DLManager sManager;
-    private static DBManager sDBManager;
+    static DBManager sDBManager;
     /**
      * 任务列表
      */
-    private static ConcurrentHashMap<String, DLTask> sTaskDLing;
+    static ConcurrentHashMap<String, DLTask> sTaskDLing;
 
 
-    private ExecutorService mExecutor;
-    private Context context;
+    DLScheduler mScheduler;
+    DLBufferPool mBufferPool;
+    DLConnectionPool mConnectionPool;
+    private DLNioEngine mNioEngine;
+    DLCheckpointer mCheckpointer;
+    DLResourceCache mResourceCache;
+    long mResourceTTL = RESOURCE_TTL_DEFAULT;
+    /**
+     * 全局限速器 按公平份额为每个任务的限速器设定速率
+     * Global rate limiter, rate of each task limiter is set by fair share of it.
+     */
+    final DLRateLimiter mRateLimiter = new DLRateLimiter();
+    final Map<String, DLRateLimiter> mHostLimiters = new ConcurrentHashMap<>();
+    private final Map<String, Long> mTaskRates = new ConcurrentHashMap<>();
+    /**
+     * 各任务因文件变化而重新开始的次数
+     * Times each task restarted because the file changed.
+     */
+    final Map<String, Integer> mRestarts = new ConcurrentHashMap<>();
+    /**
+     * 磁盘空间准入锁 同一时间只有一个任务检查并占用剩余空间
+     * Lock of disk space admission, only one task checks and takes free space at a time.
+     */
+    final Object mSpaceLock = new Object();
+    private ScheduledExecutorService mTicker;
+    private ScheduledFuture<?> mTickFuture;
+    Context context;
+
+    int mWriteMode = PublicCons.WriteModes.WRITE_MODE_RANDOM_ACCESS;
+    int mWriteQueueSize = WRITE_QUEUE_SIZE_DEFAULT;
+    volatile long mMappedMaxLength = is64Bit() ? MAPPED_LENGTH_MAX_DEFAULT :
+            MAPPED_LENGTH_MAX_DEFAULT_32;
+    final AtomicLong mWriteStallTime = new AtomicLong();
+    int mEngine = PublicCons.Engines.ENGINE_BLOCKING;
+    boolean isAdaptive = true;
 
     public DLManager(Context context) {
         this.context = context;
-        this.mExecutor = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
+        this.mScheduler = new DLScheduler(PROBE_POOL_SIZE, PROBE_QUEUE_SIZE, THREAD_POOL_SIZE,
+                CONNECTIONS_PER_HOST);
+        this.mBufferPool = new DLBufferPool(BUFFER_SIZE_DEFAULT, BUFFER_MEMORY_DEFAULT);
+        this.mConnectionPool = new DLConnectionPool();
         sDBManager = DBManager.getInstance(context);
+        this.mCheckpointer = new DLCheckpointer(sDBManager);
+        this.mResourceCache = new DLResourceCache(sDBManager);
+        this.mTicker = Executors.newSingleThreadScheduledExecutor();
+        this.mTickFuture = mTicker.scheduleAtFixedRate(mTick, PROGRESS_INTERVAL_DEFAULT,
+                PROGRESS_INTERVAL_DEFAULT, TimeUnit.MILLISECONDS);
         sTaskDLing = new ConcurrentHashMap<String, DLTask>();
     }
 
@@ -88,7 +151,7 @@ public final class DLManager {
 
     public void dlStart(String url, String dirPath, DLTaskListener listener) {
         DLPrepare dlPrepare = new DLPrepare(url, dirPath, listener);
-        mExecutor.execute(dlPrepare);
+        prepare(dlPrepare, listener);
     }
 
     /**
@@ -101,7 +164,100 @@ public final class DLManager {
      */
     public void dlStart(String url, String dirPath, DLTaskListener listener,int threadNum) {
         DLPrepare dlPrepare = new DLPrepare(url, dirPath, listener,threadNum);
-        mExecutor.execute(dlPrepare);
+        prepare(dlPrepare, listener);
+    }
+
+    /**
+     * 开启下载任务并在下载完成后校验文件 校验值由各下载区间写入时计算的CRC32合并得到 无需重新读取文件
+     * Start a download task and verify the file when it's done, checksum is combined from CRC32
+     * computed by every range while writing, so the file is not read again.
+     *
+     * @param url       下载地址 url.
+     * @param dirPath   保存目录 directory to save file.
+     * @param listener  下载监听器 校验结果通过{@link DLTaskListener#onVerify}回调 listener,
+     *                  result of verification is called back by {@link DLTaskListener#onVerify}.
+     * @param threadNum 初始线程数 initial count of threads.
+     * @param checksum  整个文件的CRC32 十六进制 CRC32 of the whole file in hex.
+     */
+    public void dlStart(String url, String dirPath, DLTaskListener listener, int threadNum,
+                        String checksum) {
+        DLPrepare dlPrepare = new DLPrepare(url, dirPath, listener, threadNum);
+        dlPrepare.checksum = checksum;
+        prepare(dlPrepare, listener);
+    }
+
+    /**
+     * 从多个镜像同时下载同一个文件 任务仍以url标识 各镜像在后台探测 长度及校验值与url一致的镜像加入下载
+     * 各下载源的线程数与其实测吞吐量成正比 持续失败的镜像退出下载 其未完成的区间由其他下载源接手
+     * Download one file from several mirrors at the same time, task is still identified by url.
+     * Mirrors are probed in background and those agreeing with url on length and validator join
+     * the download. Threads of each source are proportional to its measured throughput, a mirror
+     * keeps failing drops out and its unfinished ranges are taken over by other sources.
+     *
+     * @param url       下载地址 url.
+     * @param mirrors   同一文件的其他下载地址 other urls of the same file.
+     * @param dirPath   保存目录 directory to save file.
+     * @param listener  下载监听器 listener.
+     * @param threadNum 每个下载源的初始线程数 initial count of threads of each source.
+     * @param checksum  整个文件的CRC32 十六进制 为null时不校验 CRC32 of the whole file in hex, not
+     *                  verified if null.
+     */
+    public void dlStart(String url, String[] mirrors, String dirPath, DLTaskListener listener,
+                        int threadNum, String checksum) {
+        DLPrepare dlPrepare = new DLPrepare(url, dirPath, listener, threadNum);
+        dlPrepare.mirrors = mirrors;
+        dlPrepare.checksum = checksum;
+        prepare(dlPrepare, listener);
+    }
+
+    /**
+     * 开始下载任务并返回按顺序读取文件的数据流 无需等待下载完成
+     * 读取位置的数据尚未写入时读取阻塞 任务优先下载读取位置开始的数据 移动读取位置后改为优先下载新位置的数据
+     * 相同url的任务已在下载时数据流关联到该任务
+     * Start a download task and return a stream reading the file in order without waiting for
+     * it to finish. Reading blocks until data at read position is written, task downloads data
+     * from read position first, and from the new position after seeking. If a task of the same
+     * url is downloading, the stream is attached to it.
+     *
+     * @param url       下载地址 url.
+     * @param dirPath   保存目录 directory to save file.
+     * @param listener  下载监听器 listener.
+     * @param threadNum 初始线程数 initial count of threads.
+     * @return 文件的数据流 stream of file.
+     */
+    public DLStream dlOpen(String url, String dirPath, DLTaskListener listener, int threadNum) {
+        DLStream stream = new DLStream();
+        DLPrepare dlPrepare = new DLPrepare(url, dirPath, listener, threadNum);
+        dlPrepare.stream = stream;
+        prepare(dlPrepare, listener);
+        return stream;
+    }
+
+    /**
+     * 提交下载任务的准备工作 等待准备的任务过多时直接拒绝
+     * Submit preparation of a download task, it's rejected if too many tasks are waiting.
+     */
+    private void prepare(DLPrepare dlPrepare, DLTaskListener listener) {
+        if (!mScheduler.probe(dlPrepare)) {
+            if (isDebug) {
+                Log.e(TAG, "DLManager too many tasks waiting ,url:" + dlPrepare.url);
+            }
+            if (null != dlPrepare.stream) dlPrepare.stream.fail(ERROR_TOO_MANY_TASKS);
+            if (null != listener) listener.onError(ERROR_TOO_MANY_TASKS);
+        }
+    }
+
+    /**
+     * 重新准备下载任务 沿用原任务的镜像、校验值及数据流
+     * Prepare a download task again, mirrors, checksum and stream of the old task go on.
+     */
+    void relaunch(String url, String dirPath, DLTaskListener listener, int threadNum,
+                  String[] mirrors, String checksum, DLStream stream) {
+        DLPrepare dlPrepare = new DLPrepare(url, dirPath, listener, threadNum);
+        dlPrepare.mirrors = mirrors;
+        dlPrepare.checksum = checksum;
+        dlPrepare.stream = stream;
+        prepare(dlPrepare, listener);
     }
 
     public void dlStop(String url) {
@@ -115,14 +271,163 @@ public final class DLManager {
     }
 
     public void dlCancel(String url) {
-        dlStop(url);
-        if (null != sDBManager.queryTaskInfoByUrl(url)) {
-            sDBManager.deleteTaskInfo(url);
-            List<ThreadInfo> infos = sDBManager.queryThreadInfos(url);
-            if (null != infos && infos.size() != 0) {
-                sDBManager.deleteThreadInfos(url);
+        DLTask task = null;
+        synchronized (sTaskDLing) {
+            if (sTaskDLing.containsKey(url)) {
+                task = sTaskDLing.get(url);
+                sTaskDLing.remove(url);
+            }
+        }
+        // 下载线程仍在写入时由任务的最后一个线程结束后清理 the last thread of task cleans up
+        // after it's over if threads are still writing
+        if (null != task && task.cancel()) return;
+        mCheckpointer.flush();
+        TaskInfo info = sDBManager.queryTaskInfoByUrl(url);
+        if (null != info) {
+            clean(info);
+        }
+    }
+
+    /**
+     * 删除下载任务的所有数据并清空文件
+     * 删除任务数据时同时删除其所有线程数据 未完成的文件已预分配为完整长度 清空以免下次开始时被误认为已下载完成
+     * Delete all data of a task and empty its file, thread infos are deleted together with the
+     * task info. Unfinished file is preallocated to full length, emptied so it's not taken as
+     * downloaded next time.
+     */
+    void clean(TaskInfo info) {
+        mCheckpointer.delete(info);
+        mCheckpointer.flush();
+        if (!info.dlLocalFile.exists()) return;
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(info.dlLocalFile, PublicCons.AccessModes.ACCESS_MODE_RW);
+            raf.setLength(0);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (null != raf) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * 构建Range请求头
+     * Build headers of a Range request.
+     *
+     * @param start 起始位置 start position.
+     * @param end   结束位置 小于0表示直到文件末尾 end position, to the end of file if less than 0.
+     */
+    static Map<String, String> buildRange(long start, long end) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Range", "bytes=" + start + "-" + (end < 0 ? "" : String.valueOf(end)));
+        return headers;
+    }
+
+    /**
+     * 进度采样 定时汇总所有下载任务的进度并回调 下载线程不会因进度回调而相互阻塞
+     * Progress sampler, sums progress of all tasks at a fixed rate and calls back listeners, so
+     * download threads never block each other on progress callbacks.
+     */
+    private final Runnable mTick = new Runnable() {
+        @Override
+        public void run() {
+            rebalance();
+            for (DLTask task : sTaskDLing.values()) {
+                try {
+                    task.onTick();
+                } catch (Exception e) {
+                    if (isDebug) {
+                        Log.e(TAG, "DLManager tick error:" + e + " ,url:" + task.info.baseUrl);
+                    }
+                }
+            }
+        }
+    };
+
+    /**
+     * 探测请求 跟随重定向直到得到最终响应 请求从文件起始位置开始 响应体留给第一个下载区间继续读取
+     * Probe request, redirects are followed until the final response. It starts from the
+     * beginning of file so its response body is kept for the first range to go on reading.
+     *
+     * @param end 请求的结束位置 小于0表示直到文件末尾 end of request, to the end of file if less
+     *            than 0.
+     * @return 已读取最终响应头的连接 connection whose final response headers have been read.
+     */
+    DLConnection probe(String url, long end) throws IOException {
+        Map<String, String> headers = buildRange(0, end);
+        headers.put(HttpConnPars.REFERER.content, url);
+        for (int i = 0; i <= MAX_REDIRECTS; i++) {
+            DLConnection conn = mConnectionPool.open(url, headers);
+            String location = conn.getHeaderField(HttpConnPars.LOCATION.content);
+            if (!isRedirect(conn.getResponseCode()) || null == location) return conn;
+            url = new URL(conn.getURL(), location).toString();
+            conn.drain(LENGTH_MAX_DRAIN);
+            mConnectionPool.recycle(conn);
+            if (isDebug) {
+                Log.d(TAG, "DLManager redirect to:" + url);
             }
         }
+        throw new IOException("Too many redirects");
+    }
+
+    /**
+     * 当前进程是否为64位 os.arch反映进程而非设备的ABI 64位设备上的32位进程同样受限
+     * Whether current process is 64-bit, os.arch reflects ABI of process rather than device,
+     * 32-bit process on 64-bit device is limited as well.
+     */
+    private static boolean is64Bit() {
+        String arch = System.getProperty("os.arch");
+        return null != arch && arch.contains("64");
+    }
+
+    private static boolean isRedirect(int code) {
+        switch (code) {
+            case HttpStatus.SC_MOVED_PERMANENTLY:
+            case HttpStatus.SC_MOVED_TEMPORARILY:
+            case HttpStatus.SC_SEE_OTHER:
+            case HttpStatus.SC_TEMPORARY_REDIRECT:
+            case 308:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 按水位填充方式将全局速率公平分配给进行中的任务 自身限速低于均分份额的任务让出余量给其他任务
+     * Share global rate fairly among running tasks by water filling, tasks limited below an even
+     * share leave the surplus to others.
+     */
+    private synchronized void rebalance() {
+        List<DLTask> tasks = new ArrayList<>(sTaskDLing.values());
+        final Map<DLTask, Long> caps = new HashMap<>();
+        for (DLTask task : tasks) {
+            Long cap = mTaskRates.get(task.info.baseUrl);
+            caps.put(task, null == cap ? Long.MAX_VALUE : cap);
+        }
+        Collections.sort(tasks, new Comparator<DLTask>() {
+            @Override
+            public int compare(DLTask lhs, DLTask rhs) {
+                return caps.get(lhs).compareTo(caps.get(rhs));
+            }
+        });
+        long budget = mRateLimiter.getRate();
+        for (int i = 0; i < tasks.size(); i++) {
+            long cap = caps.get(tasks.get(i));
+            if (budget <= 0) {
+                tasks.get(i).mLimiter.setRate(cap == Long.MAX_VALUE ? 0 : cap);
+                continue;
+            }
+            long rate = Math.max(1, Math.min(cap, budget / (tasks.size() - i)));
+            tasks.get(i).mLimiter.setRate(rate);
+            budget -= rate;
+        }
     }
 
     /**
@@ -133,11 +438,38 @@ public final class DLManager {
      * 下载失败：没有网络 错误提示
      */
     public static final String ERROR_NO_NETWORK = "no_network";
+    /**
+     * 等待准备的下载任务过多 错误提示
+     */
+    public static final String ERROR_TOO_MANY_TASKS = "too_many_tasks";
+    /**
+     * 服务器持续出错 下载失败 错误提示
+     */
+    public static final String ERROR_SERVER = "server_error";
+    /**
+     * 服务器上的文件反复变化 下载失败 错误提示
+     */
+    public static final String ERROR_RESOURCE_CHANGED = "resource_changed";
+    /**
+     * 文件校验失败 错误提示
+     */
+    public static final String ERROR_CHECKSUM = "checksum_mismatch";
+    /**
+     * 下载任务已停止 读取数据流时错误提示
+     */
+    public static final String ERROR_STOPPED = "stopped";
+    /**
+     * 存储空间不足 错误提示
+     */
+    public static final String ERROR_NO_SPACE = "no_space";
 
     private class DLPrepare implements Runnable {
         private String url, dirPath;// 下载路径和保存目录
         private DLTaskListener listener;// 下载监听器
         private int threadNum = defaultThreadNumberSingleTask;
+        private String checksum;// 校验值
+        private String[] mirrors;// 镜像地址
+        private DLStream stream;// 数据流
 
         private DLPrepare(String url, String dirPath, DLTaskListener listener,int threadNum) {
             this.url = url;
@@ -154,19 +486,27 @@ public final class DLManager {
 
         @Override
         public void run() {
-            HttpURLConnection conn = null;
+            DLConnection conn = null;
+            DLTask task = null;
             try {
-                String realUrl = url;
-                conn = NetUtil.buildConnection(url);
-                conn.setInstanceFollowRedirects(false);
-                conn.setRequestProperty(HttpConnPars.REFERER.content, url);
-                if (conn.getResponseCode() == HttpStatus.SC_MOVED_TEMPORARILY ||
-                        conn.getResponseCode() == HttpStatus.SC_MOVED_PERMANENTLY) {
-                    realUrl = conn.getHeaderField(HttpConnPars.LOCATION.content);
+                // 元数据缓存命中时不再探测 由下载区间直接请求最终地址
+                ResourceInfo resource = mResourceTTL > 0 ? mResourceCache.get(url) : null;
+                String realUrl;
+                if (null != resource) {
+                    realUrl = resource.realUrl;
+                    if (isDebug) {
+                        Log.d(TAG, "DLPrepare metadata cached ,url:" + url);
+                    }
+                } else {
+                    conn = probe(url, -1);
+                    realUrl = conn.getURL().toString();
                 }
                 synchronized (sTaskDLing){//fix: 如果文件正在取消或异常，这里不能立即重新开始，表现为当多次点击下载时：1. 同时引发多个任务下载；2. 点击无效且无任何返回值；需要进行并发线程的业务处理；
                     // 如果文件正在下载
-                    if (sTaskDLing.containsKey(url)) {
+                    if (sTaskDLing.containsKey(url) && null != stream) {
+                        // 数据流直接读取正在下载的任务 stream reads the task downloading
+                        sTaskDLing.get(url).attach(stream);
+                    } else if (sTaskDLing.containsKey(url)) {
                         // 文件正在下载 File is downloading
                         if(isDebug){
                             Log.d(TAG,"DLPrepare File is downloading ,url:"+url);
@@ -179,10 +519,16 @@ public final class DLManager {
                         File file = new File(dirPath, fileName);
                         if (null == info || !file.exists()) {
                             info = new TaskInfo(FileUtil.createFile(dirPath, fileName), url, realUrl, 0, 0,threadNum);
+                        } else {
+                            // 数据库不保存线程数 恢复的任务沿用本次指定的线程数
+                            // thread count isn't saved, resumed task uses the one given this time
+                            info.threadNum = threadNum;
                         }
-                        DLTask task = new DLTask(info, listener);
+                        task = new DLTask(DLManager.this, info, listener, conn, resource,
+                                checksum, mirrors);
+                        conn = null;
+                        if (null != stream) task.attach(stream);
                         sTaskDLing.put(info.baseUrl, task);
-                        mExecutor.execute(task);
                         if(isDebug){
                             Log.d(TAG,"DLPrepare File begin new task ,url:"+url);
                         }
@@ -190,314 +536,302 @@ public final class DLManager {
                 }
             } catch (IOException e) {
                 e.printStackTrace();
+                if (null != stream) stream.fail(e.getMessage());
+                if (null != listener) listener.onError(e.getMessage());
             } finally {
-                if (null != conn) {
-                    conn.disconnect();
-                }
+                mConnectionPool.recycle(conn);
+            }
+            // 任务的探测同样在探测阶段执行 不再重新排队
+            if (null != task) {
+                rebalance();
+                task.run();
             }
         }
     }
 
-    private class DLTask implements Runnable, IDLThreadListener {
-        private static final int LENGTH_PER_THREAD = 2097152;
+    /**
+     * 调试日志开关，
+     *
+     * tag为 DLManager
+     *
+     * @param debugEnable
+     */
+    public void setDebugEnable(boolean debugEnable){
+        isDebug = debugEnable;
+    }
 
-        private TaskInfo info;
-        private DLTaskListener mListener;
+    //调试日志开关
 
-        private int totalProgress, fileLength;
-        private int totalProgressIn100;
-        private boolean isResume;
-        private boolean isStop;
-        private boolean isExists;
-        private boolean isConnect = true;
+    boolean isDebug = false;
 
-        private List<ThreadInfo> mThreadInfos;
+    static final String TAG = DLManager.class.getSimpleName();
 
-        private DLTask(TaskInfo info, DLTaskListener listener) {
-            this.info = info;
-            this.mListener = listener;
-            this.totalProgress = info.progress;
-            this.fileLength = info.length;
+    private int defaultThreadNumberSingleTask = 3;
 
-            if (null != sDBManager.queryTaskInfoByUrl(info.baseUrl)) {
-                if (!info.dlLocalFile.exists()) {
-                    sDBManager.deleteTaskInfo(info.baseUrl);
-                }
-                mThreadInfos = sDBManager.queryThreadInfos(info.baseUrl);
-                if (null != mThreadInfos && mThreadInfos.size() != 0) {
-                    isResume = true;
-                } else {
-                    sDBManager.deleteTaskInfo(info.baseUrl);
-                }
-            }
-        }
+    public void setDefaultThreadNum(int threadNumberSingleTask){
+        this.defaultThreadNumberSingleTask = threadNumberSingleTask;
+    }
 
-        public void setStop(boolean isStop) {
-            this.isStop = isStop;
-        }
+    /**
+     * 设置是否按实测吞吐量自动调整每个任务的下载线程数 默认开启
+     * 开启时任务的线程数仅作为初始值 之后在单个主机的连接数上限内调整 仅对之后开始的下载任务生效
+     * Set whether download threads of each task are adjusted by measured throughput, on by
+     * default. When on, thread count of a task is only the initial value and then adjusted within
+     * per-host connection cap, only works for tasks started later.
+     *
+     * @param adaptive 是否自动调整 whether to adjust automatically.
+     */
+    public void setAdaptiveConcurrency(boolean adaptive) {
+        this.isAdaptive = adaptive;
+    }
 
-        @Override
-        public void run() {
-            if (NetUtil.getNetWorkType(context) == PublicCons.NetType.INVALID) {
-                if (null != mListener)
-                    mListener.onConnect(PublicCons.NetType.INVALID, "无网络连接");
-                isConnect = false;
-            } else if (NetUtil.getNetWorkType(context) == PublicCons.NetType.NO_WIFI) {
-                if (null != mListener)
-                    isConnect = mListener.onConnect(PublicCons.NetType.NO_WIFI, "正在使用非WIFI网络下载");
-            }
-            if (isConnect) {
-                if (isResume) {
-                    for (ThreadInfo i : mThreadInfos) {
-                        mExecutor.execute(new DLThread(i, this));
-                        if(isDebug){
-                            Log.d(TAG,"DLTask resume thread:"+i+" ,url:"+info.baseUrl);
-                        }
-                    }
-                } else {
-                    HttpURLConnection conn = null;
-                    try {
-                        conn = NetUtil.buildConnection(info.realUrl);
-                        conn.setRequestProperty("Range", "bytes=" + 0 + "-" + Integer.MAX_VALUE);
-                        if (conn.getResponseCode() == HttpStatus.SC_PARTIAL_CONTENT) {
-                            if(isDebug){
-                                Log.d(TAG,"DLTask has 206 ,url:"+info.baseUrl);
-                            }
-                            fileLength = conn.getContentLength();
-                            if (info.dlLocalFile.exists() && info.dlLocalFile.length() == fileLength) {
-                                isExists = true;
-                                sTaskDLing.remove(info.baseUrl);
-                                if (null != mListener) mListener.onFinish(info.dlLocalFile);
-                            }
-                            if (!isExists) {
-                                info.length = fileLength;
-                                sDBManager.insertTaskInfo(info);
-                                int threadSize;
-                                int length = LENGTH_PER_THREAD;
-//                                if (fileLength <= LENGTH_PER_THREAD) {
-//                                    threadSize = 3;
-//                                    length = fileLength / threadSize;
-//                                } else {
-//                                    threadSize = fileLength / LENGTH_PER_THREAD;
-//                                }
-                                //不建议设定过多线程，根据手机硬件及系统调度特定，最好和cpu核数匹配；
-                                threadSize = info.threadNum;
-                                length = fileLength / threadSize;
-                                int remainder = fileLength % length;
-                                if(isDebug){
-                                    Log.d(TAG,"DLTask has multiThread begin,threadSize:"+threadSize+";prelength:"+length+" ;url:"+info.baseUrl);
-                                }
-                                for (int i = 0; i < threadSize; i++) {
-                                    int start = i * length;
-                                    int end = start + length - 1;
-                                    if (i == threadSize - 1) {
-                                        end = start + length + remainder;
-                                    }
-                                    String id = UUID.randomUUID().toString();
-                                    ThreadInfo ti = new ThreadInfo(info.dlLocalFile,
-                                            info.baseUrl, info.realUrl, start, end, id);
-
-                                    mExecutor.execute(new DLThread(ti, this));
-                                    if(isDebug){
-                                        Log.d(TAG,"DLTask begin thread:"+i+" ,url:"+info.baseUrl);
-                                    }
-                                }
-                            }
-                        } else if (conn.getResponseCode() == HttpStatus.SC_OK) {
-                            if(isDebug){
-                                Log.d(TAG,"DLTask has 200 ,url:"+info.baseUrl);
-                            }
-                            fileLength = conn.getContentLength();
-                            if (info.dlLocalFile.exists() && info.dlLocalFile.length() == fileLength) {
-                                sTaskDLing.remove(info.baseUrl);
-                                if (null != mListener) mListener.onFinish(info.dlLocalFile);
-                                if(isDebug){
-                                    Log.d(TAG,"DLTask  file has downloaded,need no thread ,url:"+info.baseUrl);
-                                }
-                            } else {
-                                ThreadInfo ti = new ThreadInfo(info.dlLocalFile, info.baseUrl,
-                                        info.realUrl, 0, fileLength, UUID.randomUUID().toString());
-                                mExecutor.execute(new DLThread(ti, this));
-                                if(isDebug){
-                                    Log.d(TAG,"DLTask begin single thread ,url:"+info.baseUrl);
-                                }
-                            }
-                        }
-                    } catch (Exception e) {
-                        if (null != sDBManager.queryTaskInfoByUrl(info.baseUrl)) {
-                            info.progress = totalProgress;
-                            sDBManager.updateTaskInfo(info);
-                            dlStop(info.baseUrl);
-                            this.setStop(true);
-                        }
-                        if(isDebug){
-                            Log.e(TAG, "DLTask running error:"+e+",url:" + info.baseUrl);
-                            e.printStackTrace();
-                        }
-                        if (null != mListener) mListener.onError(e.getMessage());
-                    } finally {
-                        if (conn != null) {
-                            conn.disconnect();
-                        }
-                    }
-                }
-            }else{
-                //下载失败：网络异常
-                dlStop(info.baseUrl);
-                if(isDebug){
-                    Log.e(TAG,"DLTask no network error ,url:"+info.baseUrl);
-                }
-                if (null != mListener) mListener.onError(ERROR_NO_NETWORK);
-            }
-        }
+    /**
+     * 设置进度回调的时间间隔 所有下载任务的进度均按此间隔采样
+     * Set interval of progress callback, progress of all tasks is sampled at this rate.
+     *
+     * @param interval 时间间隔 单位毫秒 interval in millisecond.
+     */
+    public void setProgressInterval(long interval) {
+        mTickFuture.cancel(false);
+        mTickFuture = mTicker.scheduleAtFixedRate(mTick, interval, interval,
+                TimeUnit.MILLISECONDS);
+    }
 
-        @Override
-        public void onThreadProgress(int progress) {
-            synchronized (this) {
-                totalProgress += progress;
-                int tmp = (int) (totalProgress * 1.0 / fileLength * 100);
-                if (null != mListener && tmp != totalProgressIn100) {
-                    mListener.onProgress(tmp);
-                    totalProgressIn100 = tmp;
-                }
-                if (fileLength == totalProgress) {
-                    sDBManager.deleteTaskInfo(info.baseUrl);
-                    sTaskDLing.remove(info.baseUrl);
-                    if (null != mListener) mListener.onFinish(info.dlLocalFile);
-                    if(isDebug){
-                        Log.d(TAG,"onThreadProgress has download finish ,url:"+info.baseUrl);
-                    }
-                }
-                if (isStop) {
-                    info.progress = totalProgress;
-                    sDBManager.updateTaskInfo(info);
-                    if(isDebug){
-                        Log.d(TAG,"onThreadProgress has stop ,url:"+info.baseUrl);
-                    }
-                }
-            }
-        }
+    /**
+     * 设置断点写入数据库的时间间隔
+     * Set interval of writing checkpoints to database.
+     *
+     * @param interval 时间间隔 单位毫秒 interval in millisecond.
+     */
+    public void setCheckpointInterval(long interval) {
+        mCheckpointer.setInterval(interval);
+    }
 
-        private class DLThread implements Runnable {
-            private ThreadInfo info;
-            private IDLThreadListener mListener;
+    /**
+     * 设置提前写入断点的下载字节数 所有任务累计下载该字节数后不等时间间隔立即写入
+     * Set bytes after which checkpoints are written before the interval elapses, counted across
+     * all tasks.
+     *
+     * @param bytes 字节数 bytes.
+     */
+    public void setCheckpointBytes(long bytes) {
+        mCheckpointer.setThreshold(bytes);
+    }
 
-            private int progress;
+    /**
+     * 设置资源元数据的缓存时间 响应头Cache-Control指定了max-age时以其为准
+     * Set time to cache resource metadata, max-age in Cache-Control takes precedence.
+     *
+     * @param ttl 缓存时间 单位毫秒 0表示不缓存 time in millisecond, 0 to disable caching.
+     */
+    public void setResourceCacheTTL(long ttl) {
+        this.mResourceTTL = ttl;
+    }
 
-            public DLThread(ThreadInfo info, IDLThreadListener listener) {
-                this.info = info;
-                this.mListener = listener;
-            }
+    /**
+     * 设置文件写入模式 仅对之后开始的下载任务生效
+     * Set write mode of downloading file, only works for tasks started later.
+     *
+     * @param writeMode {@link PublicCons.WriteModes}
+     */
+    public void setWriteMode(int writeMode) {
+        this.mWriteMode = writeMode;
+    }
 
-            @Override
-            public void run() {
-                HttpURLConnection conn = null;
-                RandomAccessFile raf = null;
-                InputStream is = null;
-                try {
-                    conn = NetUtil.buildConnection(info.realUrl);
-                    conn.setRequestProperty("Range", "bytes=" + info.start + "-" + info.end);
+    /**
+     * 设置内存映射写入模式下可映射的最大文件长度 超过该长度的文件改用FileChannel写入
+     * 默认256MB 32位进程默认64MB
+     * Set max length of file mapped in mapped write mode, larger files are written by FileChannel
+     * instead, 256MB by default, or 64MB in 32-bit process.
+     *
+     * @param length 最大文件长度 单位字节 max length of file in byte.
+     */
+    public void setMappedMaxLength(long length) {
+        this.mMappedMaxLength = length;
+    }
 
-                    raf = new RandomAccessFile(info.dlLocalFile,
-                            PublicCons.AccessModes.ACCESS_MODE_RWD);
-                    if (conn.getResponseCode() == HttpStatus.SC_PARTIAL_CONTENT) {
-                        if(isDebug){
-                            Log.d(TAG,"DLThread has 206 ,url:"+info.baseUrl);
-                        }
-                        if (!isResume) {
-                            sDBManager.insertThreadInfo(info);
-                        }
-                        is = conn.getInputStream();
-                        raf.seek(info.start);
-                        int total = info.end - info.start;
-                        byte[] b = new byte[1024];
-                        int len;
-                        while (!isStop && (len = is.read(b)) != -1) {
-                            raf.write(b, 0, len);
-                            progress += len;
-                            mListener.onThreadProgress(len);
-                            if (progress >= total) {
-                                sDBManager.deleteThreadInfoById(info.id);
-                            }
-                        }
-                        if (isStop && null != sDBManager.queryThreadInfoById(info.id)) {
-                            mListener.onThreadProgress(0);
-                            info.start = info.start + progress;
-                            sDBManager.updateThreadInfo(info);
-                            if(isDebug){
-                                Log.d(TAG,"DLThread "+info.id+" has stop ,url:"+info.baseUrl);
-                            }
-                        }
-                    } else if (conn.getResponseCode() == HttpStatus.SC_OK) {
-                        if(isDebug){
-                            Log.d(TAG,"DLThread has 200 ,url:"+info.baseUrl);
-                        }
-                        is = conn.getInputStream();
-                        raf.seek(info.start);
-                        byte[] b = new byte[1024];
-                        int len;
-                        while (!isStop && (len = is.read(b)) != -1) {
-                            raf.write(b, 0, len);
-                            mListener.onThreadProgress(len);
-                        }
-                        if(isStop){
-                            mListener.onThreadProgress(0);
-                            info.start = info.start + progress;
-                            sDBManager.updateThreadInfo(info);
-                            if(isDebug){
-                                Log.d(TAG,"DLThread(200) "+info.id+" has stop ,url:"+info.baseUrl);
-                            }
-                        }
-                    }
-                } catch (Exception e) {
-                    if (null != sDBManager.queryThreadInfoById(info.id)) {
-                        info.start = info.start + progress;
-                        sDBManager.updateThreadInfo(info);
-                        if(isDebug){
-                            Log.e(TAG,"DLThread 's running error:"+e);
-                            e.printStackTrace();
-                        }
-                    }
-                } finally {
-                    try {
-                        if (null != is) {
-                            is.close();
-                        }
-                        if (null != raf) {
-                            raf.close();
-                        }
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                    if (null != conn) {
-                        conn.disconnect();
-                    }
-                }
-            }
+    /**
+     * 设置每个任务写入队列可容纳的缓冲区数 队列已满时下载线程等待 0表示由下载线程直接写入文件
+     * 非阻塞引擎的事件循环不能写入磁盘 至少使用1 仅对之后开始的下载任务生效
+     * Set count of buffers write queue of each task holds, download threads wait while it's
+     * full, 0 makes download threads write file directly. Event loop of non-blocking engine must
+     * never write to disk, so it uses at least 1. Only works for tasks started later.
+     *
+     * @param size 缓冲区数 count of buffers.
+     */
+    public void setWriteQueueSize(int size) {
+        this.mWriteQueueSize = size;
+    }
+
+    /**
+     * 设置下载引擎 仅对之后开始的下载任务生效
+     * Set download engine, only works for tasks started later.
+     *
+     * @param engine {@link PublicCons.Engines}
+     */
+    public void setEngine(int engine) {
+        this.mEngine = engine;
+        mConnectionPool.setChannel(engine == PublicCons.Engines.ENGINE_CHANNEL);
+    }
+
+    synchronized DLNioEngine obtainNioEngine() {
+        if (null == mNioEngine) {
+            mNioEngine = new DLNioEngine(NIO_LOOP_COUNT, mConnectionPool);
         }
+        return mNioEngine;
     }
 
     /**
-     * 调试日志开关，
+     * 设置每个下载线程的缓冲区大小 建议64KB至512KB
+     * Set buffer size of each download thread, 64KB to 512KB is recommended.
      *
-     * tag为 DLManager
+     * @param bufferSize 缓冲区大小 单位字节 buffer size in byte.
+     */
+    public void setBufferSize(int bufferSize) {
+        mBufferPool.setBufferSize(bufferSize);
+    }
+
+    /**
+     * 设置所有下载线程缓冲区的总内存上限 达到上限时下载线程等待其他线程归还缓冲区 默认4MB
+     * Set max total memory of buffers of all download threads, download threads wait for others
+     * to release a buffer once it's reached, 4MB by default.
      *
-     * @param debugEnable
+     * @param bytes 总内存上限 单位字节 max total memory in byte.
      */
-    public void setDebugEnable(boolean debugEnable){
-        isDebug = debugEnable;
+    public void setBufferMemory(long bytes) {
+        mBufferPool.setMaxBytes(bytes);
     }
 
-    //调试日志开关
+    /**
+     * 设置同时下载的最大连接数 超出的下载区间排队等待
+     * Set max count of concurrent connections, download ranges beyond it wait in queue.
+     *
+     * @param maxConnections 最大连接数 max count of connections.
+     */
+    public void setMaxConnections(int maxConnections) {
+        mScheduler.setMaxConnections(maxConnections);
+    }
 
-    private boolean isDebug = false;
+    /**
+     * 设置同一主机同时下载的最大连接数
+     * Set max count of concurrent connections to the same host.
+     *
+     * @param maxConnections 最大连接数 max count of connections.
+     */
+    public void setMaxConnectionsPerHost(int maxConnections) {
+        mScheduler.setMaxPerHost(maxConnections);
+    }
 
-    private static final String TAG = DLManager.class.getSimpleName();
+    /**
+     * 设置所有下载任务的总速率上限 由进行中的任务公平分享 可在下载过程中调整
+     * Set max total rate of all tasks, shared fairly by running tasks, can be changed while
+     * downloading.
+     *
+     * @param bytesPerSecond 每秒字节数 小于等于0表示不限速 bytes per second, no limit if not
+     *                       positive.
+     */
+    public void setMaxRate(long bytesPerSecond) {
+        mRateLimiter.setRate(bytesPerSecond);
+        rebalance();
+    }
 
-    private int defaultThreadNumberSingleTask = 3;
+    /**
+     * 设置单个下载任务的速率上限 可在下载开始前或下载过程中设置
+     * Set max rate of a download task, can be set before or while downloading.
+     *
+     * @param url            下载地址 url of task.
+     * @param bytesPerSecond 每秒字节数 小于等于0表示不限速 bytes per second, no limit if not
+     *                       positive.
+     */
+    public void setMaxRate(String url, long bytesPerSecond) {
+        if (bytesPerSecond > 0) {
+            mTaskRates.put(url, bytesPerSecond);
+        } else {
+            mTaskRates.remove(url);
+        }
+        rebalance();
+    }
 
-    public void setDefaultThreadNum(int threadNumberSingleTask){
-        this.defaultThreadNumberSingleTask = threadNumberSingleTask;
+    /**
+     * 设置同一主机所有下载的速率上限 可在下载过程中调整
+     * Set max rate of all downloads from the same host, can be changed while downloading.
+     *
+     * @param host           主机名 host name.
+     * @param bytesPerSecond 每秒字节数 小于等于0表示不限速 bytes per second, no limit if not
+     *                       positive.
+     */
+    public void setMaxRateForHost(String host, long bytesPerSecond) {
+        host = host.toLowerCase();
+        if (bytesPerSecond <= 0) {
+            mHostLimiters.remove(host);
+            return;
+        }
+        DLRateLimiter limiter = mHostLimiters.get(host);
+        if (null == limiter) {
+            limiter = new DLRateLimiter();
+            mHostLimiters.put(host, limiter);
+        }
+        limiter.setRate(bytesPerSecond);
+    }
+
+    /**
+     * 获取复用空闲连接的请求数
+     * Get count of requests served by a reused idle connection.
+     */
+    public long getConnectionHitCount() {
+        return mConnectionPool.getHitCount();
+    }
+
+    /**
+     * 获取新建连接的请求数
+     * Get count of requests which had to open a new connection.
+     */
+    public long getConnectionMissCount() {
+        return mConnectionPool.getMissCount();
+    }
+
+    /**
+     * 获取下载线程正在使用的缓冲区总大小
+     * Get total size in byte of buffers being used by download threads.
+     */
+    public long getBufferUsedBytes() {
+        return mBufferPool.getUsedBytes();
+    }
+
+    /**
+     * 获取缓冲区池中空闲的缓冲区总大小
+     * Get total size in byte of idle buffers in pool.
+     */
+    public long getBufferIdleBytes() {
+        return mBufferPool.getIdleBytes();
+    }
+
+    /**
+     * 获取因缓冲区总内存达到上限而等待的次数
+     * Get count of times a download thread waited because buffer memory reached its cap.
+     */
+    public long getBufferWaitCount() {
+        return mBufferPool.getWaitCount();
+    }
+
+    /**
+     * 获取所有任务写入队列中等待写入的缓冲区数
+     * Get count of buffers waiting in write queues of all tasks.
+     */
+    public int getWriteQueueDepth() {
+        int depth = 0;
+        for (DLTask task : sTaskDLing.values()) {
+            if (null != task.mQueue) depth += task.mQueue.size();
+        }
+        return depth;
+    }
+
+    /**
+     * 获取下载线程因写入队列已满而等待的总时间 单位毫秒
+     * Get total time in millisecond download threads waited because write queue was full.
+     */
+    public long getWriteStallTime() {
+        return TimeUnit.NANOSECONDS.toMillis(mWriteStallTime.get());
     }
 
 }
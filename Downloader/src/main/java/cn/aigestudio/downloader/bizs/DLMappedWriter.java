@@ -0,0 +1,223 @@
+package cn.aigestudio.downloader.bizs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import cn.aigestudio.downloader.cons.PublicCons;
+import cn.aigestudio.downloader.interfaces.IDLWriter;
+
+/**
+ * 基于内存映射的写入器
+ * 同一下载任务的所有线程共享一个实例 已预分配的文件按固定大小的窗口在首次写入时映射 写入只是内存复制
+ * 不产生写系统调用 仅在保存断点时将写过的窗口同步至存储设备
+ * 每个线程顺序写入自己的区间 同时只需映射各线程写入位置所在的窗口 超过上限时最久未写入的窗口同步后释放
+ * 窗口映射失败时改由FileChannel写入
+ * Writer based on memory mapping.
+ * Shared by all threads of a download task, the preallocated file is mapped in fixed size windows
+ * on first write to them, writing is a memory copy without any write system call, only windows
+ * written to are forced to the storage device when a checkpoint is saved.
+ * Every thread writes its own range in order, so only windows around write positions need to be
+ * mapped at the same time, beyond the limit the least recently written window is forced and
+ * released. Data is written by FileChannel instead where a window fails to map.
+ */
+final class DLMappedWriter implements IDLWriter {
+    /**
+     * 映射窗口大小
+     * Size of mapped window.
+     */
+    private static final long LENGTH_WINDOW = 16777216;
+    /**
+     * 同时映射的最大窗口数
+     * Max count of windows mapped at the same time.
+     */
+    private static final int WINDOWS_MAX = 8;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final long mLength;
+    /**
+     * 上次同步后是否经FileChannel写过
+     * Whether written by FileChannel since last sync.
+     */
+    private volatile boolean isChannelDirty;
+    /**
+     * 已映射的窗口 按写入顺序排列 由写入器自身的锁保护
+     * Mapped windows in order of writing, guarded by lock of writer itself.
+     */
+    private final LinkedHashMap<Integer, Window> mWindows =
+            new LinkedHashMap<>(WINDOWS_MAX * 2, 0.75F, true);
+
+    /**
+     * 映射窗口 写入及释放由窗口自身的锁保护
+     * Mapped window, writing and releasing are guarded by lock of window itself.
+     */
+    private static final class Window {
+        final MappedByteBuffer buffer;
+        /**
+         * 上次同步后是否写过
+         * Whether written since last sync.
+         */
+        boolean isDirty;
+        /**
+         * 是否已释放 之后的写入需要重新映射
+         * Whether released, later writes have to map it again.
+         */
+        boolean isReleased;
+
+        Window(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * @param length 文件长度 文件需已预分配至该长度 length of file, it must be preallocated to it.
+     */
+    DLMappedWriter(File file, long length) throws IOException {
+        mFile = new RandomAccessFile(file, PublicCons.AccessModes.ACCESS_MODE_RW);
+        mChannel = mFile.getChannel();
+        mLength = length;
+    }
+
+    @Override
+    public void write(ByteBuffer src, long position) throws IOException {
+        int limit = src.limit();
+        while (src.hasRemaining()) {
+            if (position >= mLength) {
+                src.limit(limit);
+                throw new IOException("Write beyond mapped length at " + position);
+            }
+            int index = (int) (position / LENGTH_WINDOW);
+            Window window;
+            try {
+                window = obtain(index);
+            } catch (IOException e) {
+                // 如32位进程地址空间不足 such as address space of 32-bit process runs out
+                position += writeChannel(src, position, (index + 1) * LENGTH_WINDOW, limit);
+                continue;
+            }
+            int offset = (int) (position - index * LENGTH_WINDOW);
+            int len = Math.min(src.remaining(), window.buffer.capacity() - offset);
+            synchronized (window) {
+                // 取得后可能已被释放 may have been released after obtained
+                if (window.isReleased) continue;
+                src.limit(src.position() + len);
+                window.buffer.position(offset);
+                window.buffer.put(src);
+                window.isDirty = true;
+            }
+            src.limit(limit);
+            position += len;
+        }
+    }
+
+    @Override
+    public void write(ByteBuffer[] srcs, int offset, int length, long position)
+            throws IOException {
+        for (int i = offset; i < offset + length; i++) {
+            long len = srcs[i].remaining();
+            write(srcs[i], position);
+            position += len;
+        }
+    }
+
+    /**
+     * 经FileChannel写入窗口内的数据
+     * Write data within a window by FileChannel.
+     *
+     * @param end 窗口结束位置 end of window.
+     * @return 写入的字节数 bytes written.
+     */
+    private int writeChannel(ByteBuffer src, long position, long end, int limit)
+            throws IOException {
+        int len = (int) Math.min(src.remaining(), end - position);
+        src.limit(src.position() + len);
+        try {
+            while (src.hasRemaining()) {
+                position += mChannel.write(src, position);
+            }
+        } finally {
+            src.limit(limit);
+        }
+        isChannelDirty = true;
+        return len;
+    }
+
+    /**
+     * 获取窗口 未映射时映射 超过上限时释放最久未写入的窗口
+     * Obtain a window, mapped if not yet, the least recently written one is released beyond
+     * limit.
+     */
+    private Window obtain(int index) throws IOException {
+        Window window, eldest = null;
+        synchronized (this) {
+            window = mWindows.get(index);
+            if (null != window) return window;
+            long start = index * LENGTH_WINDOW;
+            window = new Window(mChannel.map(FileChannel.MapMode.READ_WRITE, start,
+                    Math.min(LENGTH_WINDOW, mLength - start)));
+            mWindows.put(index, window);
+            if (mWindows.size() > WINDOWS_MAX) {
+                Iterator<Window> it = mWindows.values().iterator();
+                eldest = it.next();
+                it.remove();
+            }
+        }
+        if (null != eldest) release(eldest);
+        return window;
+    }
+
+    /**
+     * 释放窗口 之后不再写入 写过的数据同步后映射随缓冲区回收解除
+     * Release a window, it's never written after that, data written is forced and mapping is
+     * released when the buffer is collected.
+     */
+    private static void release(Window window) {
+        boolean isDirty;
+        synchronized (window) {
+            window.isReleased = true;
+            isDirty = window.isDirty;
+            window.isDirty = false;
+        }
+        if (isDirty) window.buffer.force();
+    }
+
+    @Override
+    public void sync() throws IOException {
+        List<Window> windows;
+        synchronized (this) {
+            windows = new ArrayList<>(mWindows.values());
+        }
+        for (Window window : windows) {
+            synchronized (window) {
+                if (!window.isDirty) continue;
+                window.isDirty = false;
+            }
+            window.buffer.force();
+        }
+        if (isChannelDirty) {
+            isChannelDirty = false;
+            mChannel.force(false);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        List<Window> windows;
+        synchronized (this) {
+            windows = new ArrayList<>(mWindows.values());
+            mWindows.clear();
+        }
+        for (Window window : windows) {
+            release(window);
+        }
+        mFile.close();
+    }
+}
@@ -0,0 +1,632 @@
+package cn.aigestudio.downloader.bizs;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cn.aigestudio.downloader.cons.HttpConnPars;
+
+/**
+ * 非阻塞下载引擎
+ * 少量事件循环线程通过Selector驱动大量并发的Range请求 不再需要每个连接占用一个线程
+ * 仅支持不经代理的http请求 其余请求仍由阻塞方式下载 与阻塞方式一样遵守明文请求策略并读写系统Cookie
+ * Non-blocking download engine.
+ * A few event loop threads drive many concurrent ranged GETs through Selector, so connections
+ * no longer need one thread each. Only plain http without proxy is supported, other requests are
+ * still downloaded in blocking way. Like blocking way, cleartext policy is respected and cookies
+ * of system are read and written.
+ */
+final class DLNioEngine {
+    private static final String TAG = DLNioEngine.class.getSimpleName();
+    private static final int HEAD_SIZE = 8192;
+    private static final int MAX_IDLE_PER_HOST = 8;
+    private static final long TIME_KEEP_ALIVE = 30000;
+    private static final long TIME_SELECT = 1000;
+
+    private static final int STATE_CONNECTING = 0;
+    private static final int STATE_WRITING = 1;
+    private static final int STATE_HEADERS = 2;
+    private static final int STATE_BODY = 3;
+
+    /**
+     * 下载区间的回调 均在事件循环线程中调用 不能执行耗时操作
+     * Callback of a download range, always called on event loop thread, must not block for long.
+     */
+    interface Callback {
+        /**
+         * 响应头已读取
+         *
+         * @return false表示放弃该响应 false to abandon the response.
+         */
+        boolean onResponse(int code);
+
+        /**
+         * 获取接收数据的缓冲区 缓冲区需处于可读入状态 其limit决定本次最多读取的字节数
+         * Get buffer to receive data, it must be ready for reading in, its limit decides max
+         * bytes to read this time.
+         */
+        ByteBuffer onBuffer() throws IOException;
+
+        /**
+         * 缓冲区已满或响应已结束 缓冲区处于可写出状态
+         * Buffer is full or response has ended, buffer is flipped for writing.
+         *
+         * @return false表示不再需要后续数据 false if no more data is needed.
+         */
+        boolean onData(ByteBuffer buffer) throws IOException;
+
+        /**
+         * 请求结束 之后不会再有任何回调
+         * Request is over, no more callback after that.
+         */
+        void onDone();
+
+        boolean isStop();
+
+        /**
+         * 获取继续读取前需要暂停的时间 用于限速及写入背压 在获取下一个缓冲区前调用
+         * Get time to pause before reading more, used by rate limiting and write backpressure,
+         * called before getting the next buffer.
+         *
+         * @return 纳秒数 0表示无需暂停 nanoseconds, 0 if no pause is needed.
+         */
+        long getDelay();
+    }
+
+    private final Loop[] mLoops;
+    private final DLConnectionPool mStats;
+
+    /**
+     * @param loopCount 事件循环线程数 count of event loop threads.
+     * @param stats     记录连接复用情况的连接池 pool to count connection reuse.
+     */
+    DLNioEngine(int loopCount, DLConnectionPool stats) {
+        mStats = stats;
+        mLoops = new Loop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            mLoops[i] = new Loop();
+            Thread thread = new Thread(mLoops[i], TAG + "-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * url能否由非阻塞引擎下载
+     * Whether url can be downloaded by non-blocking engine.
+     */
+    static boolean isSupported(String url) {
+        try {
+            URL u = new URL(url);
+            return "http".equalsIgnoreCase(u.getProtocol()) && !DLConnection.isProxied(u);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 提交一个Range请求 主机地址在调用线程中解析
+     * Submit a ranged request, host is resolved on calling thread.
+     */
+    void submit(String url, Map<String, String> headers, Callback callback) throws IOException {
+        URL u = new URL(url);
+        DLConnection.checkCleartext(u);
+        InetSocketAddress address = new InetSocketAddress(u.getHost(), DLConnection.portOf(u));
+        if (address.isUnresolved()) {
+            throw new IOException("Unable to resolve host " + u.getHost());
+        }
+        Exchange exchange = new Exchange(u, u.getHost() + ":" + address.getPort(), address,
+                DLConnection.buildRequest(u, DLConnection.withCookies(u, headers), false),
+                callback);
+        Loop target = null;
+        for (Loop loop : mLoops) {
+            if (loop.hasIdle(exchange.key)) {
+                target = loop;
+                break;
+            }
+            if (null == target || loop.mActive.get() < target.mActive.get()) {
+                target = loop;
+            }
+        }
+        target.post(exchange);
+    }
+
+    /**
+     * 一次请求及其响应的状态
+     * State of a request and its response.
+     */
+    private static final class Exchange {
+        final URL url;
+        final String key;
+        final InetSocketAddress address;
+        final ByteBuffer request;
+        final Callback callback;
+        final ByteBuffer head = ByteBuffer.allocate(HEAD_SIZE);
+
+        SocketChannel channel;
+        SelectionKey selectionKey;
+        int state;
+        boolean isReused, isKeepAlive;
+        long bodyRemain, lastActive;
+        /**
+         * 限速暂停后恢复读取的时刻 0表示未暂停
+         * Time to resume reading after paused by rate limiting, 0 if not paused.
+         */
+        long resumeAt;
+        ByteBuffer body;
+
+        Exchange(URL url, String key, InetSocketAddress address, byte[] request,
+                 Callback callback) {
+            this.url = url;
+            this.key = key;
+            this.address = address;
+            this.request = ByteBuffer.wrap(request);
+            this.callback = callback;
+        }
+    }
+
+    private final class Loop implements Runnable {
+        private final Selector mSelector;
+        private final Queue<Exchange> mPending = new ConcurrentLinkedQueue<>();
+        private final Map<String, Deque<SelectionKey>> mIdles = new HashMap<>();
+        private final Map<SelectionKey, Long> mIdleSince = new HashMap<>();
+        private final AtomicInteger mActive = new AtomicInteger();
+        private long mNextResume;
+
+        Loop() {
+            try {
+                mSelector = Selector.open();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        boolean hasIdle(String key) {
+            synchronized (mIdles) {
+                Deque<SelectionKey> idles = mIdles.get(key);
+                return null != idles && !idles.isEmpty();
+            }
+        }
+
+        void post(Exchange exchange) {
+            mActive.incrementAndGet();
+            mPending.offer(exchange);
+            mSelector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    long timeout = TIME_SELECT;
+                    if (mNextResume > 0) {
+                        timeout = Math.max(1, Math.min(timeout,
+                                mNextResume - System.currentTimeMillis()));
+                    }
+                    mSelector.select(timeout);
+                    Exchange exchange;
+                    while (null != (exchange = mPending.poll())) {
+                        start(exchange);
+                    }
+                    Iterator<SelectionKey> it = mSelector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        Exchange ex = (Exchange) key.attachment();
+                        if (null == ex) {
+                            continue;
+                        }
+                        try {
+                            handle(ex, key);
+                        } catch (Exception e) {
+                            fail(ex);
+                        }
+                    }
+                    sweep();
+                } catch (Exception e) {
+                    // 事件循环不能因单个请求的异常退出
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private void start(Exchange ex) {
+            ex.lastActive = System.currentTimeMillis();
+            try {
+                SelectionKey idle = pollIdle(ex.key);
+                if (null != idle) {
+                    ex.isReused = true;
+                    ex.channel = (SocketChannel) idle.channel();
+                    ex.selectionKey = idle;
+                    ex.state = STATE_WRITING;
+                    idle.attach(ex);
+                    idle.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+                connect(ex);
+            } catch (Exception e) {
+                fail(ex);
+            }
+        }
+
+        private void connect(Exchange ex) throws IOException {
+            mStats.count(false);
+            ex.isReused = false;
+            ex.channel = SocketChannel.open();
+            ex.channel.configureBlocking(false);
+            ex.channel.socket().setTcpNoDelay(true);
+            if (ex.channel.connect(ex.address)) {
+                ex.state = STATE_WRITING;
+                ex.selectionKey = ex.channel.register(mSelector, SelectionKey.OP_WRITE, ex);
+            } else {
+                ex.state = STATE_CONNECTING;
+                ex.selectionKey = ex.channel.register(mSelector, SelectionKey.OP_CONNECT, ex);
+            }
+        }
+
+        private void handle(Exchange ex, SelectionKey key) throws IOException {
+            if (!key.isValid()) return;
+            ex.lastActive = System.currentTimeMillis();
+            if (ex.callback.isStop()) {
+                fail(ex);
+                return;
+            }
+            switch (ex.state) {
+                case STATE_CONNECTING:
+                    if (ex.channel.finishConnect()) {
+                        ex.state = STATE_WRITING;
+                        key.interestOps(SelectionKey.OP_WRITE);
+                    }
+                    break;
+                case STATE_WRITING:
+                    try {
+                        ex.channel.write(ex.request);
+                    } catch (IOException e) {
+                        if (retry(ex)) return;
+                        throw e;
+                    }
+                    if (!ex.request.hasRemaining()) {
+                        ex.state = STATE_HEADERS;
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                    break;
+                case STATE_HEADERS:
+                    readHeaders(ex);
+                    break;
+                case STATE_BODY:
+                    readBody(ex);
+                    break;
+            }
+        }
+
+        /**
+         * 复用的空闲连接可能已被服务器关闭 尚未收到任何响应时改用新连接重试
+         * Reused idle connection may have been closed by server, retry on a new connection if
+         * nothing has been received.
+         */
+        private boolean retry(Exchange ex) throws IOException {
+            if (!ex.isReused || ex.head.position() != 0) return false;
+            ex.channel.close();
+            ex.request.rewind();
+            connect(ex);
+            return true;
+        }
+
+        private void readHeaders(Exchange ex) throws IOException {
+            int read;
+            try {
+                read = ex.channel.read(ex.head);
+            } catch (IOException e) {
+                if (retry(ex)) return;
+                throw e;
+            }
+            if (read == -1) {
+                if (retry(ex)) return;
+                throw new IOException("Unexpected end of stream");
+            }
+            if (ex.isReused && ex.head.position() > 0) {
+                mStats.count(true);
+                ex.isReused = false;
+            }
+            int end = indexOfHeadEnd(ex.head);
+            if (end == -1) {
+                if (!ex.head.hasRemaining()) throw new IOException("Response header too large");
+                return;
+            }
+            String head = new String(ex.head.array(), 0, end, "ISO-8859-1");
+            String[] lines = head.split("\r\n");
+            int code = DLConnection.parseCode(lines[0]);
+            if (code / 100 == 1) {
+                // 丢弃临时响应 drop interim response
+                compact(ex.head, end + 4);
+                readHeaders(ex);
+                return;
+            }
+            String connection = null, encoding = null, length = null;
+            Map<String, List<String>> cookies = new HashMap<>();
+            for (int i = 1; i < lines.length; i++) {
+                int index = lines[i].indexOf(':');
+                if (index <= 0) continue;
+                String name = lines[i].substring(0, index).trim();
+                String value = lines[i].substring(index + 1).trim();
+                if (DLConnection.collectCookie(cookies, name, value)) continue;
+                if ("connection".equalsIgnoreCase(name)) connection = value;
+                else if ("transfer-encoding".equalsIgnoreCase(name)) encoding = value;
+                else if (HttpConnPars.CONTENT_LENGTH.content.equalsIgnoreCase(name)) length = value;
+            }
+            ex.isKeepAlive = lines[0].startsWith("HTTP/1.1") ?
+                    !"close".equalsIgnoreCase(connection) :
+                    "keep-alive".equalsIgnoreCase(connection);
+            if (null != encoding && !"identity".equalsIgnoreCase(encoding)) {
+                // Range响应不会分块传输 其他情况交由阻塞方式处理
+                throw new IOException("Unsupported transfer encoding: " + encoding);
+            }
+            try {
+                ex.bodyRemain = null == length ? -1 : Long.parseLong(length);
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad Content-Length: " + length);
+            }
+            if (ex.bodyRemain < 0) ex.isKeepAlive = false;
+            DLConnection.saveCookies(ex.url, cookies);
+            if (!ex.callback.onResponse(code)) {
+                finish(ex, false);
+                return;
+            }
+            ex.state = STATE_BODY;
+            ex.head.flip();
+            ex.head.position(end + 4);
+            if (!consume(ex, ex.head)) return;
+            if (ex.bodyRemain == 0) {
+                flush(ex);
+                finish(ex, true);
+                return;
+            }
+            readBody(ex);
+        }
+
+        private int indexOfHeadEnd(ByteBuffer head) {
+            byte[] array = head.array();
+            for (int i = 3; i < head.position(); i++) {
+                if (array[i] == '\n' && array[i - 1] == '\r' && array[i - 2] == '\n' &&
+                        array[i - 3] == '\r') {
+                    return i - 3;
+                }
+            }
+            return -1;
+        }
+
+        private void compact(ByteBuffer head, int from) {
+            head.flip();
+            head.position(from);
+            head.compact();
+        }
+
+        /**
+         * 将响应头之后已读取的数据交给回调 需要暂停时剩余数据留在src中 恢复后继续交付
+         * Pass data already read after response header to callback, if it has to pause the rest
+         * stays in src and is passed on after resumed.
+         *
+         * @return false表示请求已结束或已暂停 false if the request is over or paused.
+         */
+        private boolean consume(Exchange ex, ByteBuffer src) throws IOException {
+            while (src.hasRemaining() && ex.bodyRemain != 0) {
+                if (null == ex.body) {
+                    if (pause(ex)) return false;
+                    ex.body = ex.callback.onBuffer();
+                }
+                int len = Math.min(src.remaining(), ex.body.remaining());
+                if (ex.bodyRemain > 0) len = (int) Math.min(len, ex.bodyRemain);
+                int limit = src.limit();
+                src.limit(src.position() + len);
+                ex.body.put(src);
+                src.limit(limit);
+                if (ex.bodyRemain > 0) ex.bodyRemain -= len;
+                if (!deliver(ex)) return false;
+            }
+            return true;
+        }
+
+        private void readBody(Exchange ex) throws IOException {
+            // 先交付暂停前未交付的响应头之后的数据 data after header left by pause goes first
+            if (ex.head.hasRemaining() && !consume(ex, ex.head)) return;
+            while (true) {
+                if (null == ex.body) {
+                    if (pause(ex)) return;
+                    ex.body = ex.callback.onBuffer();
+                }
+                ByteBuffer body = ex.body;
+                int limit = body.limit();
+                if (ex.bodyRemain >= 0 && body.remaining() > ex.bodyRemain) {
+                    body.limit(body.position() + (int) ex.bodyRemain);
+                }
+                int read = ex.channel.read(body);
+                body.limit(limit);
+                if (read == -1) {
+                    if (ex.bodyRemain > 0) throw new IOException("Unexpected end of stream");
+                    ex.bodyRemain = 0;
+                    flush(ex);
+                    finish(ex, false);
+                    return;
+                }
+                if (read == 0) return;
+                if (ex.bodyRemain > 0) ex.bodyRemain -= read;
+                if (!deliver(ex)) return;
+            }
+        }
+
+        /**
+         * 缓冲区已满或响应已结束时将数据交给回调
+         * Pass data to callback when buffer is full or response has ended.
+         *
+         * @return false表示请求已结束 false if the request is over.
+         */
+        private boolean deliver(Exchange ex) throws IOException {
+            if (ex.body.hasRemaining() && ex.bodyRemain != 0) return true;
+            boolean isMore = flush(ex);
+            if (ex.bodyRemain == 0) {
+                finish(ex, true);
+                return false;
+            }
+            if (!isMore) {
+                finish(ex, false);
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * 按限速或写入背压要求暂停读取 暂停期间不关注可读事件 由sweep按时恢复
+         * Pause reading as required by rate limiting or write backpressure, read events are
+         * ignored while paused and sweep resumes it on time.
+         *
+         * @return true表示已暂停 true if paused.
+         */
+        private boolean pause(Exchange ex) {
+            long delay = ex.callback.getDelay();
+            if (delay <= 0) return false;
+            ex.resumeAt = System.currentTimeMillis() +
+                    TimeUnit.NANOSECONDS.toMillis(delay + 999999);
+            ex.selectionKey.interestOps(0);
+            return true;
+        }
+
+        private boolean flush(Exchange ex) throws IOException {
+            ByteBuffer body = ex.body;
+            ex.body = null;
+            if (null == body || body.position() == 0) return true;
+            body.flip();
+            return ex.callback.onData(body);
+        }
+
+        /**
+         * 结束请求 响应体完整读完的连接留待复用
+         * Finish request, connection is kept for reuse if the response body has been fully read.
+         */
+        private void finish(Exchange ex, boolean isComplete) {
+            SelectionKey key = ex.selectionKey;
+            if (isComplete && ex.isKeepAlive && null != key && key.isValid()) {
+                key.attach(null);
+                key.interestOps(0);
+                synchronized (mIdles) {
+                    Deque<SelectionKey> idles = mIdles.get(ex.key);
+                    if (null == idles) {
+                        idles = new ArrayDeque<>();
+                        mIdles.put(ex.key, idles);
+                    }
+                    if (idles.size() < MAX_IDLE_PER_HOST) {
+                        idles.push(key);
+                        mIdleSince.put(key, System.currentTimeMillis());
+                        key = null;
+                    }
+                }
+            }
+            if (null != key) {
+                key.attach(null);
+                close(key);
+            } else if (null != ex.channel && !isComplete) {
+                close(ex.channel);
+            }
+            mActive.decrementAndGet();
+            ex.callback.onDone();
+        }
+
+        private void fail(Exchange ex) {
+            try {
+                // 停止或出错前已收到的数据仍然有效
+                if (ex.state == STATE_BODY) flush(ex);
+            } catch (IOException ignored) {
+                ex.body = null;
+            }
+            finish(ex, false);
+        }
+
+        private SelectionKey pollIdle(String key) {
+            synchronized (mIdles) {
+                Deque<SelectionKey> idles = mIdles.get(key);
+                SelectionKey idle;
+                while (null != idles && null != (idle = idles.poll())) {
+                    mIdleSince.remove(idle);
+                    if (idle.isValid() && idle.channel().isOpen()) return idle;
+                }
+                return null;
+            }
+        }
+
+        /**
+         * 检查停止、超时及暂停到期的请求以及过期的空闲连接
+         * Check stopped, timed out or pause expired requests and expired idle connections.
+         */
+        private void sweep() {
+            long now = System.currentTimeMillis();
+            mNextResume = 0;
+            long connectTimeout = Long.parseLong(HttpConnPars.CONNECT_TIMEOUT.content);
+            long readTimeout = Long.parseLong(HttpConnPars.READ_TIMEOUT.content);
+            for (SelectionKey key : mSelector.keys()) {
+                Exchange ex = (Exchange) key.attachment();
+                if (null == ex) continue;
+                long timeout = ex.state == STATE_CONNECTING ? connectTimeout : readTimeout;
+                if (ex.callback.isStop()) {
+                    fail(ex);
+                } else if (ex.resumeAt > 0) {
+                    if (now >= ex.resumeAt) resume(ex);
+                } else if (now - ex.lastActive > timeout) {
+                    fail(ex);
+                }
+                // 恢复后可能再次暂停 may be paused again after resumed
+                if (ex.resumeAt > 0 && (0 == mNextResume || ex.resumeAt < mNextResume)) {
+                    mNextResume = ex.resumeAt;
+                }
+            }
+            synchronized (mIdles) {
+                Iterator<Map.Entry<SelectionKey, Long>> it = mIdleSince.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<SelectionKey, Long> entry = it.next();
+                    if (now - entry.getValue() < TIME_KEEP_ALIVE) continue;
+                    it.remove();
+                    for (Deque<SelectionKey> idles : mIdles.values()) {
+                        idles.remove(entry.getKey());
+                    }
+                    close(entry.getKey());
+                }
+            }
+        }
+
+        private void resume(Exchange ex) {
+            ex.resumeAt = 0;
+            ex.lastActive = System.currentTimeMillis();
+            try {
+                ex.selectionKey.interestOps(SelectionKey.OP_READ);
+                readBody(ex);
+            } catch (Exception e) {
+                fail(ex);
+            }
+        }
+
+        private void close(SelectionKey key) {
+            key.cancel();
+            close((SocketChannel) key.channel());
+        }
+
+        private void close(SocketChannel channel) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
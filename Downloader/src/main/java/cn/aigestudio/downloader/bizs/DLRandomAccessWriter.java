@@ -0,0 +1,56 @@
+package cn.aigestudio.downloader.bizs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import cn.aigestudio.downloader.cons.PublicCons;
+import cn.aigestudio.downloader.interfaces.IDLWriter;
+
+/**
+ * 基于RandomAccessFile的写入器
+ * 以rwd模式打开文件 每次写入均同步至存储设备 每个下载线程独占一个实例
+ * Writer based on RandomAccessFile.
+ * File is opened in rwd mode so every write is synchronous, one instance per download thread.
+ */
+final class DLRandomAccessWriter implements IDLWriter {
+    private final RandomAccessFile mFile;
+
+    private long mPosition = -1;
+
+    DLRandomAccessWriter(File file) throws IOException {
+        mFile = new RandomAccessFile(file, PublicCons.AccessModes.ACCESS_MODE_RWD);
+    }
+
+    @Override
+    public void write(ByteBuffer src, long position) throws IOException {
+        if (position != mPosition) {
+            mFile.seek(position);
+        }
+        int len = src.remaining();
+        mFile.write(src.array(), src.arrayOffset() + src.position(), len);
+        src.position(src.limit());
+        mPosition = position + len;
+    }
+
+    @Override
+    public void write(ByteBuffer[] srcs, int offset, int length, long position)
+            throws IOException {
+        for (int i = offset; i < offset + length; i++) {
+            long len = srcs[i].remaining();
+            write(srcs[i], position);
+            position += len;
+        }
+    }
+
+    @Override
+    public void sync() throws IOException {
+        // rwd模式下每次写入已同步
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+}
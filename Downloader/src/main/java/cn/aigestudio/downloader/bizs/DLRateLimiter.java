@@ -0,0 +1,73 @@
+package cn.aigestudio.downloader.bizs;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 令牌桶限速器
+ * 令牌按设定速率持续生成 桶容量仅为很短时间的令牌 空闲后不会产生突发流量
+ * 读取数据后按实际字节数扣除令牌 令牌不足时返回需要等待的时间 等待时间在多次读取间精确累计
+ * Token bucket rate limiter.
+ * Tokens are generated at the given rate continuously, the bucket only holds tokens of a very
+ * short time so there is no burst after idle. Tokens are charged by bytes actually read, and time
+ * to wait is returned when tokens are insufficient, waits are accumulated precisely across reads.
+ */
+final class DLRateLimiter {
+    /**
+     * 桶容量对应的时间 也是限速时每次读取的时间粒度
+     * Time held by bucket capacity, also time granularity of each read while limited.
+     */
+    private static final long TIME_SLICE = 20;
+    /**
+     * 限速时每次读取的最小字节数
+     * Min bytes of each read while limited.
+     */
+    private static final int CHUNK_MIN = 1024;
+
+    private long mRate;
+    /**
+     * 令牌恰好用尽的时刻 早于当前时刻表示桶中尚有令牌
+     * Time tokens are exactly used up, earlier than now means tokens are left in bucket.
+     */
+    private long mNext;
+
+    /**
+     * 设置速率
+     * Set rate.
+     *
+     * @param rate 每秒字节数 小于等于0表示不限速 bytes per second, no limit if not positive.
+     */
+    synchronized void setRate(long rate) {
+        if (rate == mRate) return;
+        mRate = rate;
+        mNext = System.nanoTime();
+    }
+
+    synchronized long getRate() {
+        return mRate;
+    }
+
+    /**
+     * 扣除已读取字节的令牌
+     * Charge tokens for bytes read.
+     *
+     * @return 继续读取前需要等待的纳秒数 nanoseconds to wait before reading more.
+     */
+    synchronized long acquire(long bytes) {
+        if (mRate <= 0) return 0;
+        long now = System.nanoTime();
+        mNext = Math.max(mNext, now - TimeUnit.MILLISECONDS.toNanos(TIME_SLICE));
+        mNext += (long) (bytes * 1e9 / mRate);
+        return Math.max(0, mNext - now);
+    }
+
+    /**
+     * 限速时每次读取的最大字节数 使流量平滑
+     * Max bytes of each read while limited, to keep traffic smooth.
+     *
+     * @param max 不限速时的字节数 bytes when not limited.
+     */
+    synchronized int chunk(int max) {
+        if (mRate <= 0) return max;
+        return (int) Math.max(1, Math.min(max, Math.max(CHUNK_MIN, mRate * TIME_SLICE / 1000)));
+    }
+}
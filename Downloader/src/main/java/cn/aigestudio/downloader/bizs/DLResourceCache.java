@@ -0,0 +1,69 @@
+package cn.aigestudio.downloader.bizs;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import cn.aigestudio.downloader.entities.ResourceInfo;
+
+/**
+ * 资源元数据缓存
+ * 内存中按最近使用保留少量条目 数据库中保存全部条目 命中且未过期时下载任务无需探测即可直接开始传输
+ * Cache of resource metadata.
+ * A few recently used entries are kept in memory in front of all entries in database, a task
+ * can start transferring without probing on an unexpired hit.
+ */
+final class DLResourceCache {
+    private static final int MAX_MEMORY_ENTRIES = 64;
+
+    private final DBManager mDBManager;
+    private final Map<String, ResourceInfo> mEntries =
+            new LinkedHashMap<String, ResourceInfo>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ResourceInfo> eldest) {
+                    return size() > MAX_MEMORY_ENTRIES;
+                }
+            };
+
+    DLResourceCache(DBManager dbManager) {
+        mDBManager = dbManager;
+    }
+
+    /**
+     * 获取未过期的资源元数据
+     * Get unexpired resource metadata.
+     *
+     * @return 不存在或已过期时返回null null if absent or expired.
+     */
+    ResourceInfo get(String url) {
+        ResourceInfo info;
+        synchronized (mEntries) {
+            info = mEntries.get(url);
+        }
+        if (null == info) {
+            info = mDBManager.queryResourceInfo(url);
+            if (null == info) return null;
+            synchronized (mEntries) {
+                mEntries.put(url, info);
+            }
+        }
+        if (info.expires <= System.currentTimeMillis()) {
+            remove(url);
+            return null;
+        }
+        return info;
+    }
+
+    void put(ResourceInfo info) {
+        synchronized (mEntries) {
+            mEntries.put(info.baseUrl, info);
+        }
+        mDBManager.replaceResourceInfo(info);
+    }
+
+    void remove(String url) {
+        synchronized (mEntries) {
+            mEntries.remove(url);
+        }
+        mDBManager.deleteResourceInfo(url);
+    }
+}
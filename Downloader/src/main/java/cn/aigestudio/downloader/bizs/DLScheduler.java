@@ -0,0 +1,160 @@
+package cn.aigestudio.downloader.bizs;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 下载调度器
+ * 探测与传输分为两个独立的阶段 探测阶段线程数及排队数均有上限 超出时拒绝新的下载任务
+ * 传输阶段按全局及单个主机的连接数上限放行下载区间 未获得许可的区间排队等待 不占用任何线程
+ * Download scheduler.
+ * Probing and transfer are two separate stages. Probe stage has bounded threads and a bounded
+ * queue, new tasks are rejected when it's full. Transfer stage admits download ranges under a
+ * global and a per-host connection cap, ranges without a permit wait in queue holding no thread.
+ */
+final class DLScheduler {
+    private final ThreadPoolExecutor mProbeExecutor;
+    private final ExecutorService mTransferExecutor = Executors.newCachedThreadPool();
+
+    private final LinkedList<Pending> mPendings = new LinkedList<>();
+    private final Map<String, Integer> mHostActives = new HashMap<>();
+    private int mActive;
+    private int mMaxConnections;
+    private int mMaxPerHost;
+
+    /**
+     * @param probeThreads   探测阶段的线程数 threads of probe stage.
+     * @param probeQueue     探测阶段最多排队的任务数 max tasks queued in probe stage.
+     * @param maxConnections 全局连接数上限 global connection cap.
+     * @param maxPerHost     单个主机的连接数上限 per-host connection cap.
+     */
+    DLScheduler(int probeThreads, int probeQueue, int maxConnections, int maxPerHost) {
+        mProbeExecutor = new ThreadPoolExecutor(probeThreads, probeThreads, 0,
+                TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(probeQueue));
+        mMaxConnections = maxConnections;
+        mMaxPerHost = maxPerHost;
+    }
+
+    /**
+     * 获取url对应的主机 用于按主机限制连接数
+     * Get host of url, used to cap connections per host.
+     */
+    static String hostOf(String url) {
+        try {
+            return new URL(url).getHost().toLowerCase();
+        } catch (MalformedURLException e) {
+            return url;
+        }
+    }
+
+    /**
+     * 提交探测阶段的工作
+     * Submit work of probe stage.
+     *
+     * @return 探测阶段已满时返回false false if probe stage is full.
+     */
+    boolean probe(Runnable runnable) {
+        try {
+            mProbeExecutor.execute(runnable);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 申请一个连接许可 获得许可后在传输阶段的线程中执行granted 持有者结束时必须调用{@link #release}
+     * Apply for a connection permit, granted runs on a transfer thread once permitted, holder
+     * must call {@link #release} when it's over.
+     */
+    void acquire(String host, Runnable granted) {
+        synchronized (this) {
+            mPendings.add(new Pending(host, granted));
+        }
+        dispatch();
+    }
+
+    /**
+     * 归还连接许可 并放行等待中的下载区间
+     * Return a connection permit and admit waiting ranges.
+     */
+    void release(String host) {
+        synchronized (this) {
+            mActive--;
+            Integer count = mHostActives.get(host);
+            if (null == count || count <= 1) {
+                mHostActives.remove(host);
+            } else {
+                mHostActives.put(host, count - 1);
+            }
+        }
+        dispatch();
+    }
+
+    /**
+     * 在传输阶段的线程中执行不需要连接许可的短小工作
+     * Run short work which needs no permit on a transfer thread.
+     */
+    void execute(Runnable runnable) {
+        mTransferExecutor.execute(runnable);
+    }
+
+    void setMaxConnections(int maxConnections) {
+        synchronized (this) {
+            mMaxConnections = maxConnections;
+        }
+        dispatch();
+    }
+
+    synchronized int getMaxPerHost() {
+        return mMaxPerHost;
+    }
+
+    void setMaxPerHost(int maxPerHost) {
+        synchronized (this) {
+            mMaxPerHost = maxPerHost;
+        }
+        dispatch();
+    }
+
+    private void dispatch() {
+        List<Runnable> admitted = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Pending> it = mPendings.iterator();
+            while (it.hasNext() && mActive < mMaxConnections) {
+                Pending pending = it.next();
+                Integer count = mHostActives.get(pending.host);
+                if (null != count && count >= mMaxPerHost) continue;
+                it.remove();
+                mActive++;
+                mHostActives.put(pending.host, null == count ? 1 : count + 1);
+                admitted.add(pending.granted);
+            }
+        }
+        for (Runnable runnable : admitted) {
+            mTransferExecutor.execute(runnable);
+        }
+    }
+
+    private static final class Pending {
+        final String host;
+        final Runnable granted;
+
+        Pending(String host, Runnable granted) {
+            this.host = host;
+            this.granted = granted;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package cn.aigestudio.downloader.bizs;
+
+/**
+ * 下载源
+ * 同一文件的一个下载地址 多镜像下载时每个下载线程从其中一个下载源读取 由所属任务的mDLThreads锁保护
+ * Download source.
+ * One url of a file, every download thread reads from one of the sources when downloading from
+ * mirrors, guarded by lock of mDLThreads of its task.
+ */
+final class DLSource {
+    final String url, host;
+    /**
+     * 该下载源自己的校验值 用于If-Range 主地址的校验值保存在任务中 此处为null
+     * Validators of this source used for If-Range, null for the main url whose validators are
+     * kept in task.
+     */
+    final String eTag, lastModified;
+    final boolean isNio;
+    /**
+     * 使用该下载源的线程数
+     * Count of threads using this source.
+     */
+    int threads;
+    /**
+     * 单个连接的平均吞吐量 单位字节每毫秒 未测速时为0
+     * Average throughput of one connection in byte per millisecond, 0 before measured.
+     */
+    double rate;
+    /**
+     * 连续失败的区间数
+     * Count of ranges failed in a row.
+     */
+    int failures;
+    boolean isDead;
+
+    DLSource(String url, String eTag, String lastModified, boolean isNio) {
+        this.url = url;
+        this.host = DLScheduler.hostOf(url);
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+        this.isNio = isNio;
+    }
+
+    /**
+     * 按本次采样更新吞吐量 与之前的结果平均以平滑波动
+     * Update throughput by this sample, averaged with previous result to smooth fluctuation.
+     */
+    void measure(double sample) {
+        rate = rate > 0 ? (rate + sample) / 2 : sample;
+    }
+}
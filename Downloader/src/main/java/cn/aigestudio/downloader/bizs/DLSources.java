@@ -0,0 +1,222 @@
+package cn.aigestudio.downloader.bizs;
+
+import android.util.Log;
+
+import org.apache.http.HttpStatus;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import cn.aigestudio.downloader.cons.HttpConnPars;
+import cn.aigestudio.downloader.cons.PublicCons;
+import cn.aigestudio.downloader.utils.NetUtil;
+
+/**
+ * 下载任务的下载源
+ * 第一个为主地址 之后为在后台探测通过的镜像 新的下载线程按各下载源的吞吐量选择下载源 失败的下载源退出下载
+ * 除探测外由所属任务的mDLThreads锁保护
+ * Sources of a download task.
+ * The main url first and then mirrors passed probing in background, new threads choose sources
+ * by their throughput and failed sources drop out. Guarded by lock of mDLThreads of its task
+ * except probing.
+ */
+final class DLSources {
+    private static final String TAG = DLManager.TAG;
+
+    private final DLTask mTask;
+    private final DLManager mManager;
+    private final DLSource mPrimary;
+    private final List<DLSource> mSources = new ArrayList<>();
+    private final String[] mMirrors;
+
+    DLSources(DLTask task, String[] mirrors) {
+        this.mTask = task;
+        this.mManager = task.mManager;
+        this.mMirrors = mirrors;
+        this.mPrimary = new DLSource(task.info.realUrl, null, null,
+                mManager.mEngine == PublicCons.Engines.ENGINE_NIO &&
+                        DLNioEngine.isSupported(task.info.realUrl));
+        this.mSources.add(mPrimary);
+    }
+
+    DLSource primary() {
+        return mPrimary;
+    }
+
+    String[] mirrors() {
+        return mMirrors;
+    }
+
+    int size() {
+        return mSources.size();
+    }
+
+    /**
+     * 在后台探测各镜像 探测占用镜像主机的连接许可 并在探测阶段执行
+     * Probe mirrors in background, a probe holds a connection permit of mirror's host and
+     * runs in probe stage.
+     */
+    void mirror() {
+        if (null == mMirrors) return;
+        for (final String url : mMirrors) {
+            if (null == url || url.equals(mTask.info.baseUrl)) continue;
+            final String host = DLScheduler.hostOf(url);
+            mManager.mScheduler.acquire(host, new Runnable() {
+                @Override
+                public void run() {
+                    boolean isQueued = mManager.mScheduler.probe(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                join(url);
+                            } finally {
+                                mManager.mScheduler.release(host);
+                            }
+                        }
+                    });
+                    if (!isQueued) {
+                        // 探测阶段已满 放弃该镜像 probe stage is full, mirror is skipped
+                        mManager.mScheduler.release(host);
+                        if (mManager.isDebug) {
+                            Log.e(TAG, "DLTask too many probes waiting ,mirror:" + url);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * 探测镜像 长度及校验值与主地址一致时加入下载源 并按新的下载源增加线程
+     * Probe a mirror, it joins as a source if it agrees with the main url on length and
+     * validator, then threads are added for the new source.
+     */
+    private void join(String url) {
+        DLConnection conn = null;
+        try {
+            // 只请求1个字节 响应读完后连接可以复用 only 1 byte so connection can be reused
+            conn = mManager.probe(url, 0);
+            String eTag = conn.getHeaderField(HttpConnPars.ETAG.content);
+            String lastModified = conn.getHeaderField(HttpConnPars.LAST_MODIFIED.content);
+            long length = conn.getResponseCode() != HttpStatus.SC_PARTIAL_CONTENT ? -1 :
+                    NetUtil.getContentLength(
+                            conn.getHeaderField(HttpConnPars.CONTENT_RANGE.content), null);
+            conn.drain(DLManager.LENGTH_MAX_DRAIN);
+            if (length != mTask.fileLength || !mTask.isSame(eTag, lastModified)) {
+                if (mManager.isDebug) {
+                    Log.d(TAG, "DLTask mirror disagrees ,length:" + length + " ,etag:" +
+                            eTag + " ,mirror:" + url);
+                }
+                return;
+            }
+            String realUrl = conn.getURL().toString();
+            DLSource source = new DLSource(realUrl, eTag, lastModified,
+                    mManager.mEngine == PublicCons.Engines.ENGINE_NIO &&
+                            DLNioEngine.isSupported(realUrl));
+            synchronized (mTask.mDLThreads) {
+                if (mTask.isStop || mTask.isFinished) return;
+                mSources.add(source);
+                mTask.expand();
+            }
+            if (mManager.isDebug) {
+                Log.d(TAG, "DLTask mirror joins ,target:" + mTask.mTarget + " ,mirror:" +
+                        realUrl);
+            }
+            mTask.ensure();
+        } catch (IOException e) {
+            if (mManager.isDebug) {
+                Log.e(TAG, "DLTask mirror error:" + e + " ,mirror:" + url);
+            }
+        } finally {
+            mManager.mConnectionPool.recycle(conn);
+        }
+    }
+
+    /**
+     * 为新的下载线程选择下载源 调用时需持有mDLThreads锁
+     * 各下载源的线程数与其单个连接的吞吐量成正比 未测速的按已测速的平均值计算 已达到主机连接数上限的不再分配
+     * Choose a source for a new thread, caller must hold lock of mDLThreads. Threads of each
+     * source are proportional to throughput of its connection, unmeasured ones count as the
+     * average of measured ones, and those at per-host cap get no more.
+     */
+    DLSource pick() {
+        double total = 0;
+        int measured = 0;
+        for (DLSource s : mSources) {
+            if (!s.isDead && s.rate > 0) {
+                total += s.rate;
+                measured++;
+            }
+        }
+        double average = 0 == measured ? 1 : total / measured;
+        int max = mManager.mScheduler.getMaxPerHost();
+        DLSource best = null, fallback = null;
+        double minLoad = 0;
+        for (DLSource s : mSources) {
+            if (s.isDead) continue;
+            if (null == fallback || s.threads < fallback.threads) fallback = s;
+            if (s.threads >= max) continue;
+            double load = (s.threads + 1) / (s.rate > 0 ? s.rate : average);
+            if (null == best || load < minLoad) {
+                best = s;
+                minLoad = load;
+            }
+        }
+        if (null != best) return best;
+        return null == fallback ? mPrimary : fallback;
+    }
+
+    /**
+     * 下载源失败 不是唯一可用的下载源时退出下载 使用它的线程让出区间由其他下载源接手
+     * 调用时需持有mDLThreads锁
+     * Source failed, it drops out unless it's the only one left, threads using it yield
+     * their ranges to other sources. Caller must hold lock of mDLThreads.
+     */
+    void drop(DLSource source) {
+        if (source.isDead) return;
+        if (alive() <= 1) return;
+        source.isDead = true;
+        for (DLThread t : mTask.mDLThreads) {
+            if (t.mSource == source) t.isYield = true;
+        }
+        if (mManager.isDebug) {
+            Log.e(TAG, "DLTask source drops out ,source:" + source.url);
+        }
+    }
+
+    private int alive() {
+        int alive = 0;
+        for (DLSource s : mSources) {
+            if (!s.isDead) alive++;
+        }
+        return alive;
+    }
+
+    /**
+     * 所有可用下载源的连接数上限之和 调用时需持有mDLThreads锁
+     * Sum of connection caps of all available sources, caller must hold lock of mDLThreads.
+     */
+    int capacity() {
+        return mManager.mScheduler.getMaxPerHost() * Math.max(1, alive());
+    }
+
+    /**
+     * 按各线程当前区间的速度更新下载源的吞吐量 调用时需持有mDLThreads锁
+     * Update throughput of sources by speed of current range of each thread, caller must
+     * hold lock of mDLThreads.
+     */
+    void measure() {
+        for (DLSource s : mSources) {
+            double sum = 0;
+            int count = 0;
+            for (DLThread t : mTask.mDLThreads) {
+                double rate = t.rate();
+                if (t.mSource != s || t.isYield || rate == Double.MAX_VALUE) continue;
+                sum += rate;
+                count++;
+            }
+            if (count > 0) s.measure(sum / count);
+        }
+    }
+}
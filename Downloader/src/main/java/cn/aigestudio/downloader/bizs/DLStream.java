@@ -0,0 +1,272 @@
+package cn.aigestudio.downloader.bizs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import cn.aigestudio.downloader.cons.PublicCons;
+import cn.aigestudio.downloader.interfaces.IDLStreamSource;
+
+/**
+ * 下载数据流
+ * 在下载过程中按顺序读取文件 读取位置的数据尚未写入时阻塞等待 并要求下载任务优先下载读取位置开始的数据
+ * 关闭数据流不会停止下载 文件下载完成后仍可继续读取
+ * Download stream.
+ * File is read in order while downloading, reading blocks until data at read position is
+ * written, and the download task is asked to download data from read position first. Closing
+ * the stream doesn't stop downloading, it can still be read after the file is finished.
+ */
+public final class DLStream extends InputStream implements ReadableByteChannel {
+    /**
+     * 等待数据时的最长等待时间 超时后重新检查任务状态
+     * Max time in millisecond to wait for data, task state is checked again after that.
+     */
+    private static final long TIME_WAIT = 200;
+    /**
+     * 读取位置之后连续可读的数据少于该长度时 要求任务优先下载其后的数据
+     * Data after the readable part is prioritized when less than this length can be read in a
+     * row from read position.
+     */
+    private static final long LENGTH_READ_AHEAD = 1048576;
+    /**
+     * 再次要求优先下载前读取位置至少前进的长度
+     * Distance read position must move before prioritizing again.
+     */
+    private static final long LENGTH_PRIORITY_STEP = 262144;
+
+    private final Object mLock = new Object();
+    private volatile IDLStreamSource mSource;
+    private volatile File mFile;
+    private RandomAccessFile mRaf;
+    private long mPosition, mPrioritized = -1;
+    /**
+     * 阻塞等待中的读取位置 没有等待时为-1
+     * Read position being waited for, -1 if not waiting.
+     */
+    private volatile long mWanted = -1;
+    private boolean isSignalled;
+    private volatile boolean isRead;
+    private volatile boolean isClosed;
+    private volatile String mError;
+
+    DLStream() {
+    }
+
+    /**
+     * 关联下载任务 任务因文件变化重新开始时会再次关联 已读取过数据时数据流失败
+     * Attach download task, attached again when task starts over because file changed, the
+     * stream fails if data has been read.
+     */
+    void attach(IDLStreamSource source, File file) {
+        synchronized (mLock) {
+            if (null != mSource && isRead) {
+                mError = DLManager.ERROR_RESOURCE_CHANGED;
+            }
+            mSource = source;
+            mFile = file;
+            signal();
+        }
+    }
+
+    /**
+     * 下载任务未能开始 数据流失败
+     * Download task failed to start, the stream fails.
+     */
+    void fail(String error) {
+        synchronized (mLock) {
+            mError = null == error ? DLManager.ERROR_SERVER : error;
+            signal();
+        }
+    }
+
+    /**
+     * 数据已写入文件 写入部分包含等待中的读取位置时唤醒读取线程
+     * Data is written to file, reading thread is woken up if the part contains the position it
+     * waits for.
+     *
+     * @param from 写入部分的起始位置 start of written part.
+     * @param to   写入部分的结束位置 不包含 end of written part, exclusive.
+     */
+    void onWritten(long from, long to) {
+        long wanted = mWanted;
+        if (wanted < from || wanted >= to) return;
+        synchronized (mLock) {
+            signal();
+        }
+    }
+
+    private void signal() {
+        isSignalled = true;
+        mLock.notifyAll();
+    }
+
+    /**
+     * 获取文件长度 下载尚未开始或长度未知时返回-1
+     * Get length of file, -1 if download hasn't started or length is unknown.
+     */
+    public long length() {
+        IDLStreamSource source = mSource;
+        return null == source ? -1 : source.length();
+    }
+
+    /**
+     * 获取当前读取位置
+     * Get current read position.
+     */
+    public long position() {
+        return mPosition;
+    }
+
+    /**
+     * 移动读取位置 之后的读取优先下载新位置开始的数据
+     * Move read position, data from the new position is downloaded first by reads after that.
+     *
+     * @param position 文件中的位置 position in file.
+     */
+    public void seek(long position) throws IOException {
+        if (position < 0) throw new IOException("Negative position");
+        ensureOpen();
+        mPosition = position;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        if (count == 0) return 0;
+        long available = await();
+        if (available < 0) return -1;
+        RandomAccessFile raf = open();
+        raf.seek(mPosition);
+        int read = raf.read(buffer, offset, (int) Math.min(count, available));
+        if (read > 0) mPosition += read;
+        return read;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!dst.hasRemaining()) return 0;
+        long available = await();
+        if (available < 0) return -1;
+        RandomAccessFile raf = open();
+        int limit = dst.limit();
+        dst.limit((int) Math.min(limit, dst.position() + available));
+        try {
+            int read = raf.getChannel().read(dst, mPosition);
+            if (read > 0) mPosition += read;
+            return read;
+        } finally {
+            dst.limit(limit);
+        }
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        if (count <= 0) return 0;
+        ensureOpen();
+        long length = length();
+        if (length >= 0) count = Math.max(0, Math.min(count, length - mPosition));
+        mPosition += count;
+        return count;
+    }
+
+    /**
+     * 不阻塞即可读取的字节数
+     * Bytes that can be read without blocking.
+     */
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        IDLStreamSource source = mSource;
+        if (null == source) return 0;
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, source.available(mPosition)));
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !isClosed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (mLock) {
+            isClosed = true;
+            signal();
+        }
+        if (null != mRaf) {
+            mRaf.close();
+            mRaf = null;
+        }
+    }
+
+    /**
+     * 阻塞直到读取位置的数据已写入文件
+     * Block until data at read position is written to file.
+     *
+     * @return 连续可读的字节数 到达文件末尾时返回-1 bytes can be read in a row, -1 at the end of
+     * file.
+     */
+    private long await() throws IOException {
+        while (true) {
+            ensureOpen();
+            if (null != mError) throw new IOException(mError);
+            IDLStreamSource source = mSource;
+            // 先发布等待位置再检查 之后写入的数据一定会唤醒 publish wanted position before checking
+            mWanted = mPosition;
+            try {
+                long available = null == source ? 0 : source.available(mPosition);
+                if (available != 0) {
+                    if (available > 0 && available < LENGTH_READ_AHEAD) {
+                        prioritize(source, mPosition + available, false);
+                    }
+                    return available;
+                }
+                if (null != source) prioritize(source, mPosition, true);
+                synchronized (mLock) {
+                    if (!isSignalled) mLock.wait(TIME_WAIT);
+                    isSignalled = false;
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            } finally {
+                mWanted = -1;
+            }
+        }
+    }
+
+    /**
+     * 要求任务优先下载指定位置开始的数据 未阻塞时同一位置附近不重复要求
+     * Ask task to download data from given position first, not repeated around the same
+     * position unless reading is blocked.
+     *
+     * @param isBlocked 读取已阻塞在该位置 reading is blocked at the position.
+     */
+    private void prioritize(IDLStreamSource source, long position, boolean isBlocked) {
+        if (!isBlocked && position >= mPrioritized &&
+                position < mPrioritized + LENGTH_PRIORITY_STEP) {
+            return;
+        }
+        mPrioritized = position;
+        source.prioritize(position);
+    }
+
+    private RandomAccessFile open() throws IOException {
+        if (null == mRaf) {
+            mRaf = new RandomAccessFile(mFile, PublicCons.AccessModes.ACCESS_MODE_R);
+        }
+        isRead = true;
+        return mRaf;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (isClosed) throw new IOException("Stream closed");
+    }
+}
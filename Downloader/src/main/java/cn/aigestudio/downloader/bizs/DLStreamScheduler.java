@@ -0,0 +1,103 @@
+package cn.aigestudio.downloader.bizs;
+
+import android.util.Log;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+import cn.aigestudio.downloader.entities.TaskInfo;
+import cn.aigestudio.downloader.entities.ThreadInfo;
+
+/**
+ * 数据流读取位置的调度
+ * 数据流要求优先下载读取位置开始的数据时 为其分割出区间并尽快开始下载 必要时让出对读取最无用的线程
+ * Scheduling of read position of stream.
+ * When stream asks to download data from read position first, a range is split off for it and
+ * started as soon as possible, the thread least useful for reading yields if needed.
+ */
+final class DLStreamScheduler {
+    private static final String TAG = DLManager.TAG;
+
+    private final DLTask mTask;
+
+    DLStreamScheduler(DLTask task) {
+        this.mTask = task;
+    }
+
+    /**
+     * 优先下载position开始的数据 正在下载该位置的线程即将到达时不做处理 否则从该位置分割出新的区间
+     * 排在等待区间的最前面 线程数已达到目标数时让出对读取最无用的线程
+     * Download data from position first. Nothing is done if the thread downloading there is
+     * about to reach it, otherwise a new range is split off at position and put at the head
+     * of waiting ranges, the thread least useful for reading yields if threads reach target.
+     */
+    void prioritize(long position) {
+        TaskInfo info = mTask.info;
+        DLCheckpointer checkpointer = mTask.mManager.mCheckpointer;
+        List<DLThread> spawned;
+        synchronized (mTask.mDLThreads) {
+            if (!mTask.isPlanned || !mTask.isSplittable || mTask.isStop || mTask.isFinished) {
+                return;
+            }
+            ThreadInfo urgent = null;
+            boolean isCovered = false;
+            for (DLThread t : mTask.mDLThreads) {
+                if (t.isYield || !t.covers(position)) continue;
+                isCovered = true;
+                urgent = t.split(position);
+                if (null != urgent) checkpointer.insert(urgent);
+                break;
+            }
+            if (!isCovered) {
+                for (Iterator<ThreadInfo> it = mTask.mParked.iterator(); it.hasNext(); ) {
+                    ThreadInfo ti = it.next();
+                    if (position < ti.start || position > ti.end) continue;
+                    if (position - ti.start < DLTask.LENGTH_MIN_SPLIT) {
+                        it.remove();
+                        urgent = ti;
+                    } else {
+                        urgent = new ThreadInfo(info.dlLocalFile, info.baseUrl, info.realUrl,
+                                position, ti.end, UUID.randomUUID().toString());
+                        ti.end = position - 1;
+                        checkpointer.insert(urgent);
+                        checkpointer.update(ti);
+                    }
+                    break;
+                }
+            }
+            // 已下载或即将到达 downloaded or about to be reached
+            if (null == urgent) return;
+            mTask.mParked.addFirst(urgent);
+            if (mTask.active() >= mTask.mTarget) preempt(position);
+            if (mTask.mManager.isDebug) {
+                Log.d(TAG, "DLTask prioritize " + urgent.start + "-" + urgent.end +
+                        " ,url:" + info.baseUrl);
+            }
+            spawned = mTask.spawn();
+        }
+        for (DLThread t : spawned) {
+            t.start();
+        }
+    }
+
+    /**
+     * 让出对读取最无用的线程 即下载读取位置之前的数据或离读取位置最远的线程 调用时需持有mDLThreads锁
+     * Ask the thread least useful for reading to yield, which downloads data before read
+     * position or farthest from it, caller must hold lock of mDLThreads.
+     */
+    private void preempt(long position) {
+        DLThread victim = null;
+        long farthest = -1;
+        for (DLThread t : mTask.mDLThreads) {
+            if (t.isYield) continue;
+            long from = t.position();
+            long distance = from < position ? Long.MAX_VALUE : from - position;
+            if (distance > farthest) {
+                victim = t;
+                farthest = distance;
+            }
+        }
+        if (null != victim) victim.isYield = true;
+    }
+}
@@ -0,0 +1,1227 @@
+package cn.aigestudio.downloader.bizs;
+
+import android.util.Log;
+
+import org.apache.http.HttpStatus;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cn.aigestudio.downloader.cons.HttpConnPars;
+import cn.aigestudio.downloader.cons.PublicCons;
+import cn.aigestudio.downloader.entities.BlockInfo;
+import cn.aigestudio.downloader.entities.DLInfo;
+import cn.aigestudio.downloader.entities.ResourceInfo;
+import cn.aigestudio.downloader.entities.TaskInfo;
+import cn.aigestudio.downloader.entities.ThreadInfo;
+import cn.aigestudio.downloader.interfaces.DLTaskListener;
+import cn.aigestudio.downloader.interfaces.IDLCheckpointSource;
+import cn.aigestudio.downloader.interfaces.IDLStreamSource;
+import cn.aigestudio.downloader.interfaces.IDLWriter;
+import cn.aigestudio.downloader.utils.FileUtil;
+import cn.aigestudio.downloader.utils.NetUtil;
+
+/**
+ * 下载任务
+ * 规划并持久化下载区间 管理下载线程及其并发数 汇总进度 下载完成后校验文件
+ * Download task.
+ * Plans and persists ranges, manages download threads and their concurrency, aggregates progress
+ * and verifies file once finished.
+ */
+final class DLTask implements Runnable, IDLCheckpointSource, IDLStreamSource {
+    private static final String TAG = DLManager.TAG;
+    private static final int MAX_RESTARTS = 2;
+    private static final int MAX_REPAIRS = 2;
+    /**
+     * 可被分割的最小区间长度 剩余长度不足该值两倍的下载区间不会再被分割
+     * Minimum length of a split range, ranges with less than twice of it left won't be split.
+     */
+    static final long LENGTH_MIN_SPLIT = 262144;
+    /**
+     * 下载线程测速所需的最短时间
+     * Minimum time in millisecond before the speed of a download thread is trusted.
+     */
+    static final long TIME_MIN_MEASURE = 1000;
+    /**
+     * 并发控制的采样间隔
+     * Sampling interval in millisecond of concurrency control.
+     */
+    private static final long TIME_CONTROL = 1000;
+    /**
+     * 连续失败且没有任何进度的采样数达到该值时任务失败
+     * Task fails after this many samples in a row with failures and no progress.
+     */
+    private static final int SAMPLES_FAILED_MAX = 5;
+    /**
+     * 恢复下载时每个区间断点之前需要校验的记录数
+     * Records to verify before the checkpoint of every range on resume.
+     */
+    private static final int TAIL_BLOCKS = 2;
+
+    TaskInfo info;
+    private DLTaskListener mListener;
+
+    volatile long fileLength;
+    private int totalProgressIn100;
+    long mBaseProgress, mRetiredProgress, mTickedProgress;
+    private boolean isResume;
+    volatile boolean isStop;
+    volatile boolean isFinished;
+    /**
+     * 任务已被取消 最后一个线程结束后删除任务数据并清空文件 由mDLThreads锁保护
+     * Task is cancelled, its data is deleted and file emptied once the last thread is over,
+     * guarded by lock of mDLThreads.
+     */
+    boolean isCancel;
+    private boolean isExists;
+    private boolean isConnect = true;
+    boolean isSplittable;
+    /**
+     * 下载源 第一个为主地址 之后为探测通过的镜像 由mDLThreads锁保护
+     * Download sources, the main url first and then mirrors passed probing, guarded by lock
+     * of mDLThreads.
+     */
+    final DLSources mSources;
+    private final DLStreamScheduler mStreamScheduler = new DLStreamScheduler(this);
+    /**
+     * 准备阶段留下的探测连接 响应从文件起始位置开始
+     * Probe connection left by preparation, its response starts at the beginning of file.
+     */
+    private DLConnection mProbe;
+    volatile boolean isRestart;
+    /**
+     * 期望的整个文件的CRC32 为null时不校验整个文件
+     * Expected CRC32 of the whole file, the whole file is not verified if null.
+     */
+    private final String mExpected;
+    /**
+     * 已写入数据按块记录的CRC32 由mDLThreads锁保护
+     * CRC32 of written data recorded by block, guarded by lock of mDLThreads.
+     */
+    private final DLBlocks mBlocks = new DLBlocks();
+    private boolean isCompleted;
+    private int mRepairs;
+    /**
+     * 已通过磁盘空间准入 存储空间已实际分配 由mSpaceLock锁保护
+     * Passed disk space admission, storage is actually allocated, guarded by mSpaceLock.
+     */
+    private boolean isAdmitted, isAllocated;
+    /**
+     * 读取该任务的数据流 区间全部创建后才能判断数据是否已写入
+     * Stream reading this task, whether data is written can only be told after all ranges
+     * are created.
+     */
+    volatile DLStream mStream;
+    volatile boolean isPlanned;
+    private volatile boolean isFailed;
+    private volatile String mError;
+    /**
+     * 缓存的资源元数据 探测后更新
+     * Cached resource metadata, updated after probing.
+     */
+    private ResourceInfo mResource;
+
+    private List<ThreadInfo> mThreadInfos;
+    final List<DLThread> mDLThreads = new ArrayList<>();
+    /**
+     * 等待接手的区间 来自让出或出错的线程以及恢复下载时超出并发数的区间 由mDLThreads锁保护
+     * Ranges waiting to be taken over, left by yielded or failed threads, or beyond concurrency
+     * on resume, guarded by lock of mDLThreads.
+     */
+    final LinkedList<ThreadInfo> mParked = new LinkedList<>();
+    private final DLConcurrencyController mController;
+    final DLRateLimiter mLimiter = new DLRateLimiter();
+    volatile int mTarget;
+    final AtomicInteger mFailures = new AtomicInteger();
+    private long mControlTime, mControlBytes;
+    private int mFailedSamples;
+
+    private final int mWriteMode;
+    /**
+     * 是否经通道读取响应体 读入堆缓冲区时没有收益 随机访问写入模式下不使用
+     * Whether response body is read through channel, no gain reading into heap buffers, so
+     * not used in random access write mode.
+     */
+    final boolean isChannel;
+    /**
+     * 写入队列 下载线程读取的数据由其写入文件 为null时下载线程直接写入 非阻塞引擎始终使用
+     * 事件循环不能写入磁盘
+     * Write queue, data read by download threads is written to file by it, download threads
+     * write directly if null. Always used by non-blocking engine as event loop must never
+     * write to disk.
+     */
+    final DLWriteQueue mQueue;
+    private final Object mWriterLock = new Object();
+    private IDLWriter mWriter;
+    private int mWriterRefs;
+
+    final DLManager mManager;
+
+    DLTask(DLManager manager, TaskInfo info, DLTaskListener listener, DLConnection probe,
+           ResourceInfo resource, String expected, String[] mirrors) {
+        this.mManager = manager;
+        this.info = info;
+        this.mExpected = expected;
+        this.mListener = listener;
+        this.mProbe = probe;
+        this.mResource = resource;
+        this.mWriteMode = mManager.mWriteMode;
+        this.isChannel = mManager.mEngine == PublicCons.Engines.ENGINE_CHANNEL &&
+                mWriteMode != PublicCons.WriteModes.WRITE_MODE_RANDOM_ACCESS;
+        int queueSize = mManager.mEngine == PublicCons.Engines.ENGINE_NIO ?
+                Math.max(1, mManager.mWriteQueueSize) : mManager.mWriteQueueSize;
+        this.mQueue = queueSize > 0 ? new DLWriteQueue(mManager.mScheduler,
+                mManager.mBufferPool, queueSize, mManager.mWriteStallTime) : null;
+        this.mSources = new DLSources(this, mirrors);
+        // 上次下载收敛到的并发数优先于默认线程数
+        int initial = null != resource && resource.concurrency > 0 ?
+                resource.concurrency : info.threadNum;
+        this.mController = mManager.isAdaptive ? new DLConcurrencyController(initial,
+                mManager.mScheduler.getMaxPerHost()) : null;
+        this.mTarget = null == mController ? info.threadNum : mController.getTarget();
+        this.mBaseProgress = info.progress;
+        this.fileLength = info.length;
+
+        // 确保上一次停止时的断点已写入数据库
+        mManager.mCheckpointer.flush();
+        if (null != DLManager.sDBManager.queryTaskInfoByUrl(info.baseUrl)) {
+            if (!info.dlLocalFile.exists()) {
+                DLManager.sDBManager.deleteTaskInfo(info.baseUrl);
+            }
+            mThreadInfos = DLManager.sDBManager.queryThreadInfos(info.baseUrl);
+            if (null != mThreadInfos && mThreadInfos.size() != 0) {
+                isResume = true;
+            } else {
+                DLManager.sDBManager.deleteTaskInfo(info.baseUrl);
+            }
+        }
+    }
+
+    public void setStop(boolean isStop) {
+        this.isStop = isStop;
+    }
+
+    /**
+     * 取消任务 停止所有下载线程
+     * Cancel task, all download threads are stopped.
+     *
+     * @return true表示仍有下载线程在运行 由最后一个线程结束后清理 true if download threads
+     * are still running, the last one cleans up once it's over.
+     */
+    boolean cancel() {
+        synchronized (mDLThreads) {
+            isCancel = true;
+            setStop(true);
+            return !mDLThreads.isEmpty();
+        }
+    }
+
+    void attach(DLStream stream) {
+        mStream = stream;
+        stream.attach(this, info.dlLocalFile);
+    }
+
+    /**
+     * 任务失败 回调监听器 读取数据流时抛出异常
+     * Task failed, listener is called back and reading stream throws.
+     */
+    private void error(String message) {
+        mError = message;
+        isFailed = true;
+        if (null != mListener) mListener.onError(message);
+    }
+
+    @Override
+    public void run() {
+        if (NetUtil.getNetWorkType(mManager.context) == PublicCons.NetType.INVALID) {
+            if (null != mListener)
+                mListener.onConnect(PublicCons.NetType.INVALID, "无网络连接");
+            isConnect = false;
+        } else if (NetUtil.getNetWorkType(mManager.context) == PublicCons.NetType.NO_WIFI) {
+            if (null != mListener)
+                isConnect = mListener.onConnect(PublicCons.NetType.NO_WIFI, "正在使用非WIFI网络下载");
+        }
+        if (isConnect) {
+            if (isResume && isChanged()) {
+                // 文件在两次下载之间已变化 丢弃断点从头下载
+                if (mManager.isDebug) {
+                    Log.d(TAG, "DLTask file changed since last time ,url:" + info.baseUrl);
+                }
+                discard();
+            }
+            if (isResume) {
+                // 恢复下载的区间从断点开始 探测响应不再需要
+                mManager.mConnectionPool.recycle(mProbe);
+                mProbe = null;
+                if (!admit(true)) return;
+                isSplittable = true;
+                recover();
+                synchronized (mDLThreads) {
+                    mParked.addAll(mThreadInfos);
+                }
+                isPlanned = true;
+                if(mManager.isDebug){
+                    Log.d(TAG,"DLTask resume ranges:"+mThreadInfos.size()+" ,url:"+info.baseUrl);
+                }
+                ensure();
+                mSources.mirror();
+            } else {
+                DLConnection conn = mProbe;
+                mProbe = null;
+                try {
+                    if (null == conn && null != mResource && mResource.isRangeable) {
+                        // 元数据缓存命中 直接按缓存的长度分割区间
+                        fileLength = mResource.length;
+                        info.eTag = mResource.eTag;
+                        info.lastModified = mResource.lastModified;
+                        plan(null);
+                    } else {
+                        if (null == conn) {
+                            conn = mManager.mConnectionPool.open(info.realUrl,
+                                    DLManager.buildRange(0, -1));
+                        }
+                        info.eTag = conn.getHeaderField(HttpConnPars.ETAG.content);
+                        info.lastModified = conn.getHeaderField(
+                                HttpConnPars.LAST_MODIFIED.content);
+                        if (conn.getResponseCode() == HttpStatus.SC_PARTIAL_CONTENT) {
+                            if(mManager.isDebug){
+                                Log.d(TAG,"DLTask has 206 ,etag:"+info.eTag+" ,url:"+info.baseUrl);
+                            }
+                            fileLength = NetUtil.getContentLength(
+                                    conn.getHeaderField(HttpConnPars.CONTENT_RANGE.content),
+                                    conn.getHeaderField(HttpConnPars.CONTENT_LENGTH.content));
+                            remember(conn, true);
+                            DLConnection probe = conn;
+                            conn = null;
+                            plan(probe);
+                        } else if (conn.getResponseCode() == HttpStatus.SC_OK) {
+                            if(mManager.isDebug){
+                                Log.d(TAG,"DLTask has 200 ,url:"+info.baseUrl);
+                            }
+                            fileLength = NetUtil.getContentLength(
+                                    conn.getHeaderField(HttpConnPars.CONTENT_RANGE.content),
+                                    conn.getHeaderField(HttpConnPars.CONTENT_LENGTH.content));
+                            remember(conn, false);
+                            if (info.dlLocalFile.exists() && info.dlLocalFile.length() == fileLength) {
+                                isPlanned = true;
+                                DLManager.sTaskDLing.remove(info.baseUrl);
+                                complete();
+                                if(mManager.isDebug){
+                                    Log.d(TAG,"DLTask  file has downloaded,need no thread ,url:"+info.baseUrl);
+                                }
+                            } else if (fileLength <= 0 || admit(false)) {
+                                // 不支持断点的任务顺序写入 无需预分配 written in order, no
+                                // preallocation needed
+                                ThreadInfo ti = new ThreadInfo(info.dlLocalFile, info.baseUrl,
+                                        info.realUrl, 0, fileLength, UUID.randomUUID().toString());
+                                new DLThread(DLTask.this, ti, conn).start();
+                                isPlanned = true;
+                                conn = null;
+                                if(mManager.isDebug){
+                                    Log.d(TAG,"DLTask begin single thread ,url:"+info.baseUrl);
+                                }
+                            }
+                        } else {
+                            // 其他状态码无法下载 任务失败 other status codes cannot be
+                            // downloaded, task fails
+                            int code = conn.getResponseCode();
+                            if(mManager.isDebug){
+                                Log.e(TAG,"DLTask has "+code+" ,url:"+info.baseUrl);
+                            }
+                            mManager.mResourceCache.remove(info.baseUrl);
+                            DLManager.sTaskDLing.remove(info.baseUrl);
+                            error(DLManager.ERROR_SERVER + ":" + code);
+                        }
+                    }
+                } catch (Exception e) {
+                    mManager.mResourceCache.remove(info.baseUrl);
+                    if (null != DLManager.sDBManager.queryTaskInfoByUrl(info.baseUrl)) {
+                        info.progress = progress();
+                        DLManager.sDBManager.updateTaskInfo(info);
+                        mManager.dlStop(info.baseUrl);
+                        this.setStop(true);
+                    }
+                    if(mManager.isDebug){
+                        Log.e(TAG, "DLTask running error:"+e+",url:" + info.baseUrl);
+                        e.printStackTrace();
+                    }
+                    error(e.getMessage());
+                } finally {
+                    mManager.mConnectionPool.recycle(conn);
+                }
+            }
+        }else{
+            mManager.mConnectionPool.recycle(mProbe);
+            mProbe = null;
+            //下载失败：网络异常
+            mManager.dlStop(info.baseUrl);
+            if(mManager.isDebug){
+                Log.e(TAG,"DLTask no network error ,url:"+info.baseUrl);
+            }
+            error(DLManager.ERROR_NO_NETWORK);
+        }
+    }
+
+    /**
+     * 按文件长度分割区间并开始下载
+     * Split file into ranges by its length and start downloading.
+     *
+     * @param probe 从文件起始位置开始的探测连接 缓存命中时为null probe connection starting
+     *              at the beginning of file, null on cache hit.
+     */
+    private void plan(DLConnection probe) {
+        if (info.dlLocalFile.exists() && info.dlLocalFile.length() == fileLength) {
+            isExists = true;
+            isPlanned = true;
+            DLManager.sTaskDLing.remove(info.baseUrl);
+            complete();
+        }
+        if (!isExists) {
+            info.length = fileLength;
+            mManager.mCheckpointer.insert(info);
+            // 初始区间数由并发控制器决定 每个区间不小于最小分割长度
+            int threadSize = (int) Math.max(1,
+                    Math.min(mTarget, fileLength / LENGTH_MIN_SPLIT));
+            long length = fileLength / threadSize;
+            List<ThreadInfo> ranges = new ArrayList<>();
+            for (int i = 0; i < threadSize; i++) {
+                long start = i * length;
+                long end = start + length - 1;
+                if (i == threadSize - 1) {
+                    end = fileLength - 1;
+                }
+                String id = UUID.randomUUID().toString();
+                ThreadInfo ti = new ThreadInfo(info.dlLocalFile,
+                        info.baseUrl, info.realUrl, start, end, id);
+                // 区间在开始下载前即写入数据库 收到响应前停止也不会丢失
+                mManager.mCheckpointer.insert(ti);
+                ranges.add(ti);
+            }
+            // 预分配前先写入任务及区间 异常退出后已预分配的文件不会被误认为已下载完成
+            // task and ranges are written before preallocation, so a preallocated file is
+            // never taken as downloaded after a crash
+            mManager.mCheckpointer.flush();
+            if (!admit(true)) {
+                mManager.mCheckpointer.delete(info);
+                mManager.mConnectionPool.recycle(probe);
+                return;
+            }
+            isSplittable = true;
+            if(mManager.isDebug){
+                Log.d(TAG,"DLTask has multiThread begin,threadSize:"+threadSize+";prelength:"+length+" ;url:"+info.baseUrl);
+            }
+            for (int i = 0; i < threadSize; i++) {
+                // 探测请求的响应从0开始 直接交给第一个区间继续读取
+                new DLThread(this, ranges.get(i), i == 0 ? probe : null).start();
+                if(mManager.isDebug){
+                    Log.d(TAG,"DLTask begin thread:"+i+" ,url:"+info.baseUrl);
+                }
+            }
+            isPlanned = true;
+            mSources.mirror();
+        } else {
+            mManager.mConnectionPool.recycle(probe);
+        }
+    }
+
+    /**
+     * 磁盘空间准入 文件长度确定后开始下载前执行 预分配成功即已占用空间
+     * 无法预分配时剩余空间减去其他已准入任务尚未写入的字节数后 需足够写入本任务剩余的数据 之后仅扩展文件长度
+     * 空间不足时任务立即失败
+     * Disk space admission, done once length of file is known and before downloading.
+     * Space is taken once preallocation succeeds. If it can't be preallocated, free space less
+     * bytes other admitted tasks have yet to write must hold the rest of this task, and then
+     * file is only extended. The task fails at once if there is not enough space.
+     *
+     * @param isPreallocated 是否预分配文件 whether to preallocate file.
+     * @return 是否准入 whether admitted.
+     */
+    private boolean admit(boolean isPreallocated) {
+        String error = null;
+        long need = fileLength - mBaseProgress;
+        synchronized (mManager.mSpaceLock) {
+            try {
+                if (isPreallocated && FileUtil.allocate(info.dlLocalFile, fileLength)) {
+                    isAllocated = true;
+                } else {
+                    long free = FileUtil.getAvailableSpace(info.dlLocalFile.getParentFile());
+                    for (DLTask task : DLManager.sTaskDLing.values()) {
+                        if (task != this) free -= task.reserved();
+                    }
+                    if (free < need) {
+                        error = DLManager.ERROR_NO_SPACE;
+                    } else if (isPreallocated) {
+                        FileUtil.extend(info.dlLocalFile, fileLength);
+                    }
+                }
+            } catch (IOException e) {
+                error = FileUtil.getAvailableSpace(info.dlLocalFile.getParentFile()) < need ?
+                        DLManager.ERROR_NO_SPACE : e.getMessage();
+            }
+            isAdmitted = null == error;
+        }
+        if (null == error) return true;
+        if (mManager.isDebug) {
+            Log.e(TAG, "DLTask not admitted:" + error + " ,need:" + need + " ,url:" +
+                    info.baseUrl);
+        }
+        mManager.dlStop(info.baseUrl);
+        error(error);
+        return false;
+    }
+
+    /**
+     * 已准入但存储空间尚未实际分配的任务还需写入的字节数 调用时需持有mSpaceLock锁
+     * Bytes an admitted task without actually allocated storage has yet to write, caller
+     * must hold mSpaceLock.
+     */
+    private long reserved() {
+        if (!isAdmitted || isAllocated || fileLength <= 0) return 0;
+        return Math.max(0, fileLength - progress());
+    }
+
+    /**
+     * 将探测结果写入元数据缓存 Cache-Control不允许缓存时跳过
+     * Put probe result into metadata cache, skipped if Cache-Control doesn't allow.
+     */
+    private void remember(DLConnection conn, boolean isRangeable) {
+        if (mManager.mResourceTTL <= 0 || fileLength <= 0) return;
+        long maxAge = NetUtil.getMaxAge(
+                conn.getHeaderField(HttpConnPars.CACHE_CONTROL.content));
+        long ttl = maxAge < 0 ? mManager.mResourceTTL : maxAge * 1000;
+        if (ttl <= 0) return;
+        mResource = new ResourceInfo(info.baseUrl, info.realUrl, fileLength, info.eTag,
+                info.lastModified, isRangeable, 0, System.currentTimeMillis() + ttl);
+        mManager.mResourceCache.put(mResource);
+    }
+
+    /**
+     * 恢复下载前从文件读取校验每个区间断点之前的最后几条记录 与记录不符或没有记录的数据退回重新下载
+     * Before resuming, the last few records before the checkpoint of every range are verified
+     * by reading file, data not matching or missing its record is rolled back to download again.
+     */
+    private void recover() {
+        List<BlockInfo> blocks = DLManager.sDBManager.queryBlockInfos(info.baseUrl);
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(info.dlLocalFile, PublicCons.AccessModes.ACCESS_MODE_R);
+            synchronized (mDLThreads) {
+                mBlocks.load(blocks);
+                for (ThreadInfo ti : mThreadInfos) {
+                    long from = rollback(raf, ti);
+                    if (from >= ti.start) continue;
+                    if (mManager.isDebug) {
+                        Log.d(TAG, "DLTask roll back thread:" + ti.id + " from " + ti.start +
+                                " to " + from + " ,url:" + info.baseUrl);
+                    }
+                    forget(from, ti.start);
+                    mBaseProgress -= ti.start - from;
+                    ti.start = from;
+                    mManager.mCheckpointer.update(ti);
+                }
+            }
+        } catch (IOException e) {
+            if (mManager.isDebug) {
+                Log.e(TAG, "DLTask recover error:" + e + " ,url:" + info.baseUrl);
+            }
+        } finally {
+            try {
+                if (null != raf) raf.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 从断点向前逐条校验记录 调用时需持有mDLThreads锁
+     * Verify records backwards from checkpoint, caller must hold lock of mDLThreads.
+     *
+     * @return 区间应恢复的起始位置 不会早于前一个未完成区间的结束位置 position the range
+     * should resume from, never before the end of previous unfinished range.
+     */
+    private long rollback(RandomAccessFile raf, ThreadInfo ti) {
+        long lower = 0;
+        for (ThreadInfo other : mThreadInfos) {
+            if (other != ti && other.end < ti.start) lower = Math.max(lower, other.end + 1);
+        }
+        long from = ti.start, position = ti.start;
+        for (int i = 0; i < TAIL_BLOCKS && position > lower; i++) {
+            DLChecksum.Piece piece = mBlocks.ending(position);
+            if (null == piece) {
+                // 断点所在块的记录未保存 如异常退出 退回到块的起始位置
+                if (position % DLBlocks.SIZE == 0) break;
+                from = position = Math.max(lower, DLBlocks.floor(position - 1));
+            } else if (DLBlocks.check(raf, piece)) {
+                mBlocks.trust(piece);
+                position = piece.start;
+            } else {
+                from = position = Math.max(lower, piece.start);
+            }
+        }
+        return from;
+    }
+
+    /**
+     * 记录一段已写入数据的CRC32 支持断点的任务同时写入数据库 调用时需持有mDLThreads锁
+     * Record CRC32 of a piece of written data, also persisted for resumable tasks, caller must
+     * hold lock of mDLThreads.
+     */
+    void record(DLChecksum.Piece piece) {
+        List<Long> removed = new ArrayList<>();
+        DLChecksum.Piece kept = mBlocks.add(piece, fileLength, removed);
+        if (!isSplittable) return;
+        for (long start : removed) {
+            if (start != kept.start) {
+                mManager.mCheckpointer.update(new BlockInfo(info.baseUrl, start, 0, 0));
+            }
+        }
+        mManager.mCheckpointer.update(new BlockInfo(info.baseUrl, kept.start, kept.length,
+                kept.crc));
+    }
+
+    /**
+     * 移除即将重新下载的数据的记录 调用时需持有mDLThreads锁
+     * 块记录与断点一样通过更新按顺序写入数据库 长度为0表示删除
+     * Remove records of data to download again, caller must hold lock of mDLThreads. Block
+     * records are written in order as updates like checkpoints, length 0 means deletion.
+     */
+    private void forget(long from, long to) {
+        List<Long> removed = new ArrayList<>();
+        mBlocks.remove(from, to, removed);
+        for (long start : removed) {
+            mManager.mCheckpointer.update(new BlockInfo(info.baseUrl, start, 0, 0));
+        }
+    }
+
+    /**
+     * 构建区间请求头 已知校验值时附带If-Range 文件已变化时服务器返回完整的200响应而不是206
+     * Build headers of a range request, If-Range is added when validator is known, so server
+     * responds a full 200 instead of 206 if the file has changed.
+     */
+    Map<String, String> request(ThreadInfo ti, DLSource source) {
+        Map<String, String> headers = DLManager.buildRange(ti.start, ti.end);
+        String validator = source == mSources.primary() ?
+                validator(info.eTag, info.lastModified) :
+                validator(source.eTag, source.lastModified);
+        if (null != validator) {
+            headers.put(HttpConnPars.IF_RANGE.content, validator);
+        }
+        return headers;
+    }
+
+    /**
+     * If-Range只能使用强校验值 弱ETag时改用Last-Modified
+     * If-Range only takes strong validators, Last-Modified is used for weak ETag.
+     */
+    private String validator(String eTag, String lastModified) {
+        return null != eTag && !eTag.startsWith("W/") ? eTag : lastModified;
+    }
+
+    /**
+     * 文件是否在上次下载后发生变化 与探测响应或缓存的元数据比较校验值 无法比较时视为未变化
+     * Whether file changed since last download, validators are compared with probe response
+     * or cached metadata, it's treated as unchanged if they can't be compared.
+     */
+    private boolean isChanged() {
+        String eTag, lastModified;
+        if (null != mProbe) {
+            eTag = mProbe.getHeaderField(HttpConnPars.ETAG.content);
+            lastModified = mProbe.getHeaderField(HttpConnPars.LAST_MODIFIED.content);
+        } else if (null != mResource) {
+            eTag = mResource.eTag;
+            lastModified = mResource.lastModified;
+        } else {
+            return false;
+        }
+        return !isSame(eTag, lastModified);
+    }
+
+    /**
+     * 校验值是否与任务记录的一致 无法比较时视为一致
+     * Whether validators agree with those of task, treated as agreeing if they can't be
+     * compared.
+     */
+    boolean isSame(String eTag, String lastModified) {
+        if (null != info.eTag && null != eTag) return info.eTag.equals(eTag);
+        if (null != info.lastModified && null != lastModified) {
+            return info.lastModified.equals(lastModified);
+        }
+        return true;
+    }
+
+    /**
+     * 丢弃断点及已下载的文件 改为从头下载
+     * Discard checkpoints and downloaded file, download from the beginning instead.
+     */
+    private void discard() {
+        mManager.mCheckpointer.delete(info);
+        mManager.mCheckpointer.flush();
+        info.dlLocalFile.delete();
+        info.progress = 0;
+        mBaseProgress = 0;
+        mThreadInfos = null;
+        isResume = false;
+    }
+
+    /**
+     * 下载过程中文件发生变化 停止所有区间 最后一个线程结束后丢弃断点并重新开始任务
+     * File changed while downloading, all ranges are stopped, checkpoints are discarded and
+     * the task starts over once the last thread is over.
+     */
+    void restart() {
+        synchronized (mDLThreads) {
+            if (isRestart) return;
+            isRestart = true;
+        }
+        if (mManager.isDebug) {
+            Log.d(TAG, "DLTask file changed while downloading ,url:" + info.baseUrl);
+        }
+        setStop(true);
+        DLManager.sTaskDLing.remove(info.baseUrl, this);
+        mManager.mResourceCache.remove(info.baseUrl);
+    }
+
+    void relaunch() {
+        discard();
+        Integer count = mManager.mRestarts.get(info.baseUrl);
+        count = null == count ? 1 : count + 1;
+        if (count > MAX_RESTARTS) {
+            mManager.mRestarts.remove(info.baseUrl);
+            error(DLManager.ERROR_RESOURCE_CHANGED);
+            return;
+        }
+        mManager.mRestarts.put(info.baseUrl, count);
+        mManager.relaunch(info.baseUrl, info.dlLocalFile.getParent(), mListener, info.threadNum,
+                mSources.mirrors(), mExpected, mStream);
+    }
+
+    /**
+     * 汇总任务进度 包括已结束线程和仍在下载的线程
+     * Sum progress of task, including threads finished and threads still downloading.
+     */
+    private long progress() {
+        synchronized (mDLThreads) {
+            long total = mBaseProgress + mRetiredProgress;
+            for (DLThread t : mDLThreads) {
+                total += t.total;
+            }
+            return total;
+        }
+    }
+
+    /**
+     * 进度采样时回调 仅在采样线程中执行 负责进度回调和完成检测
+     * Callback on progress sampling, only runs in sampler thread, emits progress and detects
+     * completion.
+     */
+    void onTick() {
+        if (isStop || isFinished || fileLength <= 0) return;
+        long total = progress();
+        mManager.mCheckpointer.onBytes(total - mTickedProgress);
+        mTickedProgress = total;
+        if (isSplittable) {
+            control(total);
+        }
+        int tmp = (int) (total * 100 / fileLength);
+        if (null != mListener && tmp != totalProgressIn100) {
+            mListener.onProgress(tmp);
+            totalProgressIn100 = tmp;
+        }
+        if (total >= fileLength) {
+            isFinished = true;
+            mManager.mCheckpointer.delete(info);
+            mManager.mCheckpointer.request();
+            mManager.mRestarts.remove(info.baseUrl);
+            if (null != mResource && null != mController) {
+                // 记录收敛到的每个下载源的并发数 下次下载同一资源时直接使用
+                int sources;
+                synchronized (mDLThreads) {
+                    sources = mSources.size();
+                }
+                mResource.concurrency = Math.max(1, mController.getSteady() / sources);
+                mManager.mScheduler.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        mManager.mResourceCache.put(mResource);
+                    }
+                });
+            }
+            DLManager.sTaskDLing.remove(info.baseUrl, this);
+            if(mManager.isDebug){
+                Log.d(TAG,"DLTask has download finish ,url:"+info.baseUrl);
+            }
+            complete();
+        }
+    }
+
+    /**
+     * 文件已完整 指定了校验值或有之前的会话中写入的数据时在所有线程结束后校验 再回调完成
+     * File is complete, it's verified after all threads are over if checksum is given or
+     * there is data written in previous sessions, then finish is called back.
+     */
+    void complete() {
+        boolean isChecked;
+        synchronized (mDLThreads) {
+            if (isCompleted) return;
+            isChecked = null != mExpected || mBlocks.hasInherited();
+            // 最后一个线程结束时会再次调用 called again when the last thread is over
+            if (isChecked && !mDLThreads.isEmpty()) return;
+            isCompleted = true;
+        }
+        if (!isChecked) {
+            if (null != mListener) mListener.onFinish(info.dlLocalFile);
+            return;
+        }
+        mManager.mScheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                verify();
+            }
+        });
+    }
+
+    /**
+     * 最终校验 之前的会话中写入的数据从文件读取后与记录比较 本次写入的数据直接使用写入时的记录
+     * Final check, data written in previous sessions is read from file and compared with its
+     * records, records made while writing are used directly for data written this time.
+     */
+    private void verify() {
+        List<DLChecksum.Piece> pieces, inherited;
+        synchronized (mDLThreads) {
+            pieces = mBlocks.pieces();
+            inherited = mBlocks.inherited();
+        }
+        long length = fileLength > 0 ? fileLength : info.dlLocalFile.length();
+        String checksum = null;
+        try {
+            List<DLChecksum.Piece> broken = DLBlocks.check(info.dlLocalFile, inherited);
+            if (!broken.isEmpty()) {
+                repair(broken);
+                return;
+            }
+            synchronized (mDLThreads) {
+                for (DLChecksum.Piece piece : inherited) {
+                    mBlocks.trust(piece);
+                }
+            }
+            if (null != mExpected) {
+                checksum = DLChecksum.toHex(DLChecksum.combine(pieces, info.dlLocalFile,
+                        length));
+            }
+        } catch (IOException e) {
+            error(e.getMessage());
+            return;
+        }
+        if (null == mExpected) {
+            if (null != mListener) mListener.onFinish(info.dlLocalFile);
+            return;
+        }
+        boolean isMatched = checksum.equalsIgnoreCase(mExpected.trim());
+        if (mManager.isDebug) {
+            Log.d(TAG, "DLTask verified " + checksum + " by " + pieces.size() +
+                    " pieces, matched:" + isMatched + " ,url:" + info.baseUrl);
+        }
+        if (null != mListener) mListener.onVerify(isMatched, checksum);
+        if (!isMatched) {
+            error(DLManager.ERROR_CHECKSUM);
+        } else if (null != mListener) {
+            mListener.onFinish(info.dlLocalFile);
+        }
+    }
+
+    /**
+     * 与记录不符的块作为新的区间重新下载 而不是从头下载整个文件
+     * Blocks not matching their records are downloaded again as new ranges instead of
+     * downloading the whole file from the beginning.
+     */
+    private void repair(List<DLChecksum.Piece> broken) {
+        if (!isSplittable || ++mRepairs > MAX_REPAIRS) {
+            if (mManager.isDebug) {
+                Log.e(TAG, "DLTask blocks keep broken ,url:" + info.baseUrl);
+            }
+            error(DLManager.ERROR_CHECKSUM);
+            return;
+        }
+        if (mManager.isDebug) {
+            Log.d(TAG, "DLTask repair " + broken.size() + " blocks ,url:" + info.baseUrl);
+        }
+        synchronized (mDLThreads) {
+            for (DLChecksum.Piece piece : broken) {
+                ThreadInfo ti = new ThreadInfo(info.dlLocalFile, info.baseUrl, info.realUrl,
+                        piece.start, piece.start + piece.length - 1,
+                        UUID.randomUUID().toString());
+                forget(ti.start, ti.end + 1);
+                mBaseProgress -= piece.length;
+                mManager.mCheckpointer.insert(ti);
+                mParked.add(ti);
+            }
+            // 任务完成时已删除断点 重新写入 completed task has no checkpoint, write again
+            info.progress = progress();
+            mManager.mCheckpointer.insert(info);
+            isFinished = false;
+            isCompleted = false;
+        }
+        DLManager.sTaskDLing.put(info.baseUrl, this);
+        ensure();
+    }
+
+    /**
+     * 并发控制 每个采样间隔按吞吐量及失败次数调整目标区间数 然后增减下载线程
+     * Concurrency control, target count of ranges is adjusted by throughput and failures
+     * every sampling interval, then download threads are added or asked to yield.
+     */
+    private void control(long total) {
+        long now = System.currentTimeMillis();
+        if (0 == mControlTime) {
+            mControlTime = now;
+            mControlBytes = total;
+            return;
+        }
+        if (now - mControlTime < TIME_CONTROL) return;
+        double rate = (total - mControlBytes) * 1000.0 / (now - mControlTime);
+        int failures = mFailures.getAndSet(0);
+        mFailedSamples = failures > 0 && total == mControlBytes ? mFailedSamples + 1 : 0;
+        mControlTime = now;
+        mControlBytes = total;
+        if (mFailedSamples >= SAMPLES_FAILED_MAX) {
+            if (mManager.isDebug) {
+                Log.e(TAG, "DLTask keeps failing ,url:" + info.baseUrl);
+            }
+            // 缓存的元数据可能已经失效 cached metadata may be stale
+            mManager.mResourceCache.remove(info.baseUrl);
+            mManager.dlStop(info.baseUrl);
+            error(DLManager.ERROR_SERVER);
+            return;
+        }
+        synchronized (mDLThreads) {
+            if (mSources.size() > 1) {
+                mSources.measure();
+            }
+            if (null != mController) {
+                int target = mController.onSample(rate, failures, mSources.capacity());
+                if (mManager.isDebug && target != mTarget) {
+                    Log.d(TAG, "DLTask concurrency " + mTarget + " -> " + target + " at " +
+                            (long) rate + "B/s ,url:" + info.baseUrl);
+                }
+                mTarget = target;
+            }
+            shrink();
+        }
+        ensure();
+    }
+
+    /**
+     * 限速时每次读取的最大字节数 取全局、主机及任务中最严格的限制
+     * Max bytes of each read while limited, the strictest of global, host and task limits.
+     */
+    int chunk(String source, int max) {
+        DLRateLimiter host = mManager.mHostLimiters.get(source);
+        max = mLimiter.chunk(mManager.mRateLimiter.chunk(max));
+        return null == host ? max : host.chunk(max);
+    }
+
+    /**
+     * 从全局、主机及任务的令牌桶中扣除已读取的字节
+     * Charge bytes read from token buckets of global, host and task.
+     *
+     * @return 继续读取前需要等待的纳秒数 nanoseconds to wait before reading more.
+     */
+    long throttle(String source, long bytes) {
+        long delay = Math.max(mManager.mRateLimiter.acquire(bytes), mLimiter.acquire(bytes));
+        DLRateLimiter host = mManager.mHostLimiters.get(source);
+        return null == host ? delay : Math.max(delay, host.acquire(bytes));
+    }
+
+    /**
+     * 让出超出目标数的最慢的下载线程 其剩余区间交由其他线程接手 调用时需持有mDLThreads锁
+     * Ask slowest threads beyond target to yield, their remaining ranges are taken over by
+     * other threads, caller must hold lock of mDLThreads.
+     */
+    private void shrink() {
+        List<DLThread> actives = new ArrayList<>();
+        for (DLThread t : mDLThreads) {
+            if (!t.isYield) actives.add(t);
+        }
+        if (actives.size() <= mTarget) return;
+        Collections.sort(actives, new Comparator<DLThread>() {
+            @Override
+            public int compare(DLThread lhs, DLThread rhs) {
+                return Double.compare(lhs.rate(), rhs.rate());
+            }
+        });
+        for (int i = 0; i < actives.size() - mTarget; i++) {
+            actives.get(i).isYield = true;
+        }
+    }
+
+    /**
+     * 新的下载源已加入 按其增加目标线程数 调用时需持有mDLThreads锁
+     * A new source has joined, target threads are raised for it, caller must hold lock of
+     * mDLThreads.
+     */
+    void expand() {
+        mTarget = null == mController ? mTarget + info.threadNum :
+                mController.onExpand(info.threadNum, mSources.capacity());
+    }
+
+    /**
+     * 下载线程数低于目标数时 接手等待中的区间或分割进行中的区间来启动新的线程
+     * Start new threads by taking over waiting ranges or splitting ranges in progress when
+     * threads are fewer than target.
+     */
+    void ensure() {
+        List<DLThread> spawned;
+        synchronized (mDLThreads) {
+            spawned = spawn();
+        }
+        for (DLThread t : spawned) {
+            t.start();
+        }
+    }
+
+    /**
+     * 创建新的下载线程直到达到目标数 调用时需持有mDLThreads锁
+     * Create new threads until target is reached, caller must hold lock of mDLThreads.
+     */
+    List<DLThread> spawn() {
+        List<DLThread> spawned = new ArrayList<>();
+        if (!isSplittable || isStop || isFinished) return spawned;
+        while (active() < mTarget) {
+            ThreadInfo ti = mParked.poll();
+            if (null == ti) ti = stealRange(null);
+            if (null == ti) {
+                if (null != mController) {
+                    mController.onExhausted(active());
+                    mTarget = mController.getTarget();
+                }
+                break;
+            }
+            spawned.add(new DLThread(this, ti));
+        }
+        return spawned;
+    }
+
+    /**
+     * 未被要求让出的下载线程数 调用时需持有mDLThreads锁
+     * Count of threads not asked to yield, caller must hold lock of mDLThreads.
+     */
+    int active() {
+        int count = 0;
+        for (DLThread t : mDLThreads) {
+            if (!t.isYield) count++;
+        }
+        return count;
+    }
+
+    @Override
+    public void onCheckpoint(List<DLInfo> updates) throws IOException {
+        int size = updates.size();
+        synchronized (mDLThreads) {
+            for (DLThread t : mDLThreads) {
+                if (t.isPersisted && t.isDirty) {
+                    updates.add(t.snapshot());
+                }
+            }
+        }
+        long progress = progress();
+        if (info.progress != progress) {
+            info.progress = progress;
+            updates.add(info);
+        }
+        if (updates.size() != size) {
+            // 断点写入前先同步文件数据 保证断点之前的数据均已落盘
+            synchronized (mWriterLock) {
+                if (null != mWriter) {
+                    mWriter.sync();
+                }
+            }
+        }
+    }
+
+    @Override
+    public long length() {
+        return fileLength > 0 ? fileLength : -1;
+    }
+
+    /**
+     * 未被任何线程或等待中的区间覆盖的数据均已写入 包括之前的会话中写入的数据
+     * Data not covered by any thread or waiting range has been written, including data
+     * written in previous sessions.
+     */
+    @Override
+    public long available(long position) throws IOException {
+        long limit = fileLength > 0 ? fileLength : Long.MAX_VALUE;
+        long end = position;
+        if (isPlanned) {
+            end = limit;
+            synchronized (mDLThreads) {
+                for (DLThread t : mDLThreads) {
+                    end = t.bound(position, end);
+                }
+                for (ThreadInfo ti : mParked) {
+                    end = bound(position, ti.start, ti.end, end);
+                }
+            }
+        }
+        if (end > position) return end - position;
+        if (isPlanned && position >= limit) return -1;
+        if (isFailed) throw new IOException(mError);
+        if (isStop && !isRestart) throw new IOException(DLManager.ERROR_STOPPED);
+        return 0;
+    }
+
+    /**
+     * 未下载部分[from, to]限制position之后连续已写入数据的结束位置
+     * Unfinished part [from, to] bounds the end of data written in a row after position.
+     *
+     * @param to  小于0表示直到文件末尾 to the end of file if less than 0.
+     * @param end 目前的结束位置 current end.
+     * @return 新的结束位置 position本身未下载时返回position new end, position itself if it's
+     * not downloaded.
+     */
+    long bound(long position, long from, long to, long end) {
+        if (to < 0) to = Long.MAX_VALUE;
+        if (from > to || to < position) return end;
+        return Math.min(end, Math.max(from, position));
+    }
+
+    /**
+     * 优先下载position开始的数据 由数据流读取位置的调度处理
+     * Download data from position first, handled by scheduling of read position of stream.
+     */
+    @Override
+    public void prioritize(long position) {
+        mStreamScheduler.prioritize(position);
+    }
+
+    /**
+     * 为已完成自身区间的下载线程分配新的下载区间
+     * 选取预计剩余耗时最长的活动区间 将其未下载部分的后半段分割为新的区间并存入数据库
+     * Assign a new range to a download thread which has finished its own range, the back half
+     * of the unfinished part of the slowest active range is split off and persisted.
+     *
+     * @param idle 空闲的下载线程 idle download thread
+     * @return 新的下载区间 没有可分割的区间时返回null new range, null if nothing can be split
+     */
+    ThreadInfo stealRange(DLThread idle) {
+        if (!isSplittable || isStop) return null;
+        synchronized (mDLThreads) {
+            DLThread slowest = null;
+            double maxCost = 0;
+            boolean isMeasured = false;
+            for (DLThread t : mDLThreads) {
+                if (t == idle) continue;
+                long remain = t.remaining();
+                if (remain < LENGTH_MIN_SPLIT * 2) continue;
+                // 已测速的线程按预计剩余耗时比较 未测速的线程仅按剩余长度比较
+                long elapsed = t.elapsed();
+                boolean measured = elapsed >= TIME_MIN_MEASURE && t.progress > 0;
+                double cost = measured ? remain * 1.0 / t.progress * elapsed : remain;
+                if ((measured && !isMeasured) || (measured == isMeasured && cost > maxCost)) {
+                    slowest = t;
+                    maxCost = cost;
+                    isMeasured = measured;
+                }
+            }
+            if (null == slowest) return null;
+            ThreadInfo ti = slowest.split();
+            if (null != ti) {
+                // 新区间与缩短后的原区间在同一个事务中写入
+                mManager.mCheckpointer.insert(ti);
+                if (mManager.isDebug) {
+                    Log.d(TAG, "DLTask split thread:" + slowest.info.id + " at " + ti.start +
+                            " ,url:" + info.baseUrl);
+                }
+            }
+            return ti;
+        }
+    }
+
+    /**
+     * 获取文件写入器 FileChannel及内存映射模式下同一任务的所有线程共享一个写入器
+     * Obtain a writer, all threads of a task share one writer in FileChannel and mapped mode.
+     */
+    IDLWriter openWriter() throws IOException {
+        if (mWriteMode == PublicCons.WriteModes.WRITE_MODE_RANDOM_ACCESS) {
+            return new DLRandomAccessWriter(info.dlLocalFile);
+        }
+        synchronized (mWriterLock) {
+            if (null == mWriter) {
+                mWriter = createWriter();
+            }
+            mWriterRefs++;
+            return mWriter;
+        }
+    }
+
+    /**
+     * 创建共享的写入器 内存映射模式下不支持断点、长度未知或超过上限以及映射失败时改用FileChannel
+     * Create the shared writer, FileChannel is used instead of mapping if resume isn't
+     * supported, length is unknown or beyond limit, or mapping failed.
+     */
+    private IDLWriter createWriter() throws IOException {
+        if (mWriteMode == PublicCons.WriteModes.WRITE_MODE_MAPPED && isSplittable &&
+                fileLength > 0 && fileLength <= mManager.mMappedMaxLength) {
+            try {
+                return new DLMappedWriter(info.dlLocalFile, fileLength);
+            } catch (IOException e) {
+                if (mManager.isDebug) {
+                    Log.d(TAG, "DLTask map failed, use FileChannel:" + e + " ,url:" +
+                            info.baseUrl);
+                }
+            }
+        }
+        return new DLChannelWriter(info.dlLocalFile);
+    }
+
+    void closeWriter(IDLWriter writer) throws IOException {
+        if (mWriteMode == PublicCons.WriteModes.WRITE_MODE_RANDOM_ACCESS) {
+            writer.close();
+            return;
+        }
+        synchronized (mWriterLock) {
+            if (--mWriterRefs == 0) {
+                mWriter.sync();
+                mWriter.close();
+                mWriter = null;
+            }
+        }
+    }
+
+    /**
+     * 从共享缓冲区池借用缓冲区 RandomAccessFile写入模式需要堆缓冲区 其他模式使用直接缓冲区
+     * Borrow a buffer from shared pool, RandomAccessFile mode needs a heap buffer and other
+     * modes use a direct one.
+     */
+    ByteBuffer obtainBuffer() throws InterruptedIOException {
+        return mManager.mBufferPool.acquire(
+                mWriteMode != PublicCons.WriteModes.WRITE_MODE_RANDOM_ACCESS);
+    }
+
+    /**
+     * 不等待地借用缓冲区 供事件循环使用
+     * Borrow a buffer without waiting, used by event loop.
+     *
+     * @return 需要等待时返回null null if it has to wait.
+     */
+    ByteBuffer pollBuffer() {
+        return mManager.mBufferPool.poll(
+                mWriteMode != PublicCons.WriteModes.WRITE_MODE_RANDOM_ACCESS);
+    }
+
+    void recycleBuffer(ByteBuffer buffer) {
+        mManager.mBufferPool.release(buffer);
+    }
+}
@@ -0,0 +1,775 @@
+package cn.aigestudio.downloader.bizs;
+
+import android.util.Log;
+
+import org.apache.http.HttpStatus;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import cn.aigestudio.downloader.entities.ThreadInfo;
+import cn.aigestudio.downloader.interfaces.IDLWriter;
+
+/**
+ * 下载线程
+ * 下载任务的一个区间 由线程池中的线程以阻塞方式下载或由非阻塞引擎的事件循环驱动 完成后接手其他区间
+ * Download thread.
+ * One range of a download task, downloaded in blocking way by a thread of pool or driven by
+ * event loop of non-blocking engine, other ranges are taken over after it's finished.
+ */
+final class DLThread implements Runnable, DLNioEngine.Callback, DLWriteQueue.Callback {
+    private static final String TAG = DLManager.TAG;
+    private static final int MAX_SOURCE_FAILURES = 3;
+    /**
+     * 写入队列已满时非阻塞引擎暂停读取的时间 单位纳秒
+     * Time in nanosecond non-blocking engine pauses reading while write queue is full.
+     */
+    private static final long TIME_WAIT_QUEUE = 10000000;
+
+    private final DLTask mTask;
+    private final DLManager mManager;
+    ThreadInfo info;
+
+    long progress;
+    private int reserved;
+    private long startTime;
+    volatile long total;
+    volatile boolean isPersisted, isDirty;
+    /**
+     * 并发控制要求让出 当前区间的剩余部分交由其他线程接手
+     * Asked to yield by concurrency control, rest of current range is taken over by others.
+     */
+    volatile boolean isYield;
+    /**
+     * 探测请求留下的连接 响应已从当前区间的起始位置开始
+     * Connection left by probe, its response already starts at current range.
+     */
+    private DLConnection mProbe;
+    /**
+     * 下载源 探测连接留给的线程使用主地址 其余线程按吞吐量选择
+     * Download source, thread given the probe connection uses the main url, others choose
+     * by throughput.
+     */
+    final DLSource mSource;
+    /**
+     * 非阻塞引擎下载时使用的写入器
+     * Writer used when downloading by non-blocking engine.
+     */
+    private IDLWriter mOutput;
+    /**
+     * 当前读取使用的缓冲区 交给写入队列后由队列归还
+     * Buffer current read uses, released by write queue once handed to it.
+     */
+    private ByteBuffer mBuffer;
+    /**
+     * 写入队列写入失败的异常 之后交给队列的数据不再确认
+     * Exception of a failed write in write queue, data handed to queue after it is no
+     * longer committed.
+     */
+    private volatile IOException mWriteError;
+    /**
+     * 缓冲区的读取步骤 中转数组线程内复用 停止时不再继续读取
+     * Read step of buffers, staging array is reused by the thread and reading ends once
+     * stopped.
+     */
+    private final DLFiller mFiller = new DLFiller() {
+        @Override
+        boolean isStopped() {
+            return mTask.isStop;
+        }
+    };
+    /**
+     * 当前块内从mFragment开始连续写入部分的CRC32 跨过块边界或更换区间时记录
+     * CRC32 of data written continuously from mFragment in current block, recorded when
+     * crossing block boundary or changing range.
+     */
+    private final DLChecksum mChecksum = new DLChecksum();
+    private long mFragment;
+    /**
+     * 限速要求的等待时间 单位纳秒
+     * Wait required by rate limiting in nanosecond.
+     */
+    private long mDelay;
+
+    DLThread(DLTask task, ThreadInfo info) {
+        this(task, info, null);
+    }
+
+    DLThread(DLTask task, ThreadInfo info, DLConnection probe) {
+        this.mTask = task;
+        this.mManager = task.mManager;
+        this.info = info;
+        this.mProbe = probe;
+        // 支持断点的任务在启动线程前已写入全部区间 不支持断点的任务不写入数据库
+        this.isPersisted = mTask.isSplittable;
+        synchronized (mTask.mDLThreads) {
+            mSource = null != probe ? mTask.mSources.primary() : mTask.mSources.pick();
+            mSource.threads++;
+            mTask.mDLThreads.add(this);
+        }
+        mManager.mCheckpointer.register(mTask);
+    }
+
+    /**
+     * 开始下载 非阻塞引擎可用时由事件循环驱动 否则占用线程池中的一个线程
+     * 探测请求留下的连接是阻塞连接 始终在线程池中读取
+     * Start downloading, driven by event loop if non-blocking engine is available, or
+     * holds a thread of pool otherwise. Connection left by probe is blocking so it's always
+     * read in pool.
+     */
+    void start() {
+        mManager.mScheduler.acquire(mSource.host, new Runnable() {
+            @Override
+            public void run() {
+                if (mSource.isNio && null == mProbe) {
+                    submit();
+                } else {
+                    DLThread.this.run();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!mTask.isStop && download() && next()) {
+                // 继续下载分配到的新区间 continue with the newly assigned range
+            }
+        } finally {
+            retire();
+        }
+    }
+
+    /**
+     * 领取新的下载区间
+     * Take a new range to download.
+     *
+     * @return 没有可分割的区间时返回false false if nothing can be split.
+     */
+    private boolean next() {
+        ThreadInfo ti;
+        synchronized (mTask.mDLThreads) {
+            // 上一个区间已完成 no failure since the last range is finished
+            mSource.failures = 0;
+            // 超出目标数时不再领取 直接结束 no more ranges once beyond target
+            if (isYield || mSource.isDead || mTask.active() > mTask.mTarget) return false;
+            ti = mTask.mParked.poll();
+            if (null == ti) ti = mTask.stealRange(this);
+            if (null == ti) return false;
+            keep();
+            // 在同一锁内接手 数据流不会把新区间误认为已下载 taken over in the same lock so
+            // streams never see the new range as downloaded
+            synchronized (this) {
+                info = ti;
+                progress = 0;
+                startTime = 0;
+                isPersisted = true;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 线程结束 保存最终断点
+     * Download thread is over, its final checkpoint is saved.
+     */
+    private void retire() {
+        mManager.mScheduler.release(mSource.host);
+        if (null != mProbe) {
+            mManager.mConnectionPool.recycle(mProbe);
+            mProbe = null;
+        }
+        boolean isLast, isFailed = false;
+        List<DLThread> spawned = null;
+        synchronized (mTask.mDLThreads) {
+            keep();
+            if (isPersisted && isDirty) {
+                mManager.mCheckpointer.update(snapshot());
+            }
+            if (mTask.isSplittable && !mTask.isStop && remaining() > 0) {
+                // 区间未完成 放回等待接手 未被要求让出时视为失败
+                mTask.mParked.add(snapshot());
+                isFailed = !isYield;
+            }
+            if (isFailed && ++mSource.failures >= MAX_SOURCE_FAILURES) {
+                mTask.mSources.drop(mSource);
+            }
+            mSource.threads--;
+            mTask.mRetiredProgress += total;
+            mTask.mDLThreads.remove(this);
+            // 失败的区间等到下一次采样再重试 避免连续快速失败
+            if (!isFailed) {
+                spawned = mTask.spawn();
+            }
+            isLast = mTask.mDLThreads.isEmpty();
+        }
+        if (isFailed) {
+            mTask.mFailures.incrementAndGet();
+        }
+        if (null != spawned) {
+            for (DLThread t : spawned) {
+                t.start();
+            }
+        }
+        if (isLast) {
+            // 任务的最后一个线程结束时立即写入断点
+            mManager.mCheckpointer.flush();
+            boolean isCancel;
+            synchronized (mTask.mDLThreads) {
+                if (mTask.mDLThreads.isEmpty()) {
+                    mManager.mCheckpointer.unregister(mTask);
+                }
+                isCancel = mTask.isCancel;
+            }
+            if (isCancel) {
+                // 所有线程及写入队列的数据均已写完 清空文件不会再被写入
+                // all threads and queued writes are over, the emptied file stays empty
+                mManager.clean(mTask.info);
+            } else if (mTask.isRestart) {
+                mTask.relaunch();
+            } else if (mTask.isFinished) {
+                mTask.complete();
+            }
+        }
+    }
+
+    /**
+     * 下载当前区间
+     * Download current range.
+     *
+     * @return true表示当前区间已下载完成 true if current range is finished.
+     */
+    private boolean download() {
+        boolean isFinished = false;
+        DLConnection conn = mProbe;
+        IDLWriter writer = null;
+        InputStream is = null;
+        ReadableByteChannel channel = null;
+        mProbe = null;
+        try {
+            if (null == conn) {
+                conn = mManager.mConnectionPool.open(mSource.url, mTask.request(info, mSource));
+            }
+
+            writer = mTask.openWriter();
+            if (conn.getResponseCode() == HttpStatus.SC_PARTIAL_CONTENT) {
+                if(mManager.isDebug){
+                    Log.d(TAG,"DLThread has 206 ,url:"+info.baseUrl);
+                }
+                begin();
+                is = conn.getInputStream();
+                if (mTask.isChannel) channel = conn.getBodyChannel();
+                while (!mTask.isStop && !isYield && mFiller.fill(is, channel, buffer(),
+                        Math.min(remaining(), mTask.chunk(mSource.host,
+                                mBuffer.capacity()))) != -1) {
+                    if (write(writer, true) <= 0) {
+                        break;
+                    }
+                    pause();
+                }
+                settle();
+                isFinished = end();
+                if (mTask.isStop) {
+                    if(mManager.isDebug){
+                        Log.d(TAG,"DLThread "+info.id+" has stop ,url:"+info.baseUrl);
+                    }
+                }
+            } else if (conn.getResponseCode() == HttpStatus.SC_OK && mTask.isSplittable) {
+                // If-Range校验失败 文件已变化 不能写入当前区间
+                changed();
+            } else if (conn.getResponseCode() == HttpStatus.SC_OK) {
+                if(mManager.isDebug){
+                    Log.d(TAG,"DLThread has 200 ,url:"+info.baseUrl);
+                }
+                is = conn.getInputStream();
+                if (mTask.isChannel) channel = conn.getBodyChannel();
+                int len;
+                while (!mTask.isStop && (len = mFiller.fill(is, channel, buffer(),
+                        mTask.chunk(mSource.host, mBuffer.capacity()))) != -1) {
+                    emit(writer, hold(len), true);
+                    mDelay = mTask.throttle(mSource.host, len);
+                    pause();
+                }
+                if(mTask.isStop){
+                    if(mManager.isDebug){
+                        Log.d(TAG,"DLThread(200) "+info.id+" has stop ,url:"+info.baseUrl);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            if(mManager.isDebug){
+                Log.e(TAG,"DLThread 's running error:"+e);
+                e.printStackTrace();
+            }
+        } finally {
+            // 写入器关闭前等待队列中的数据写完 wait for queued data before closing writer
+            settle();
+            try {
+                if (null != is) {
+                    is.close();
+                }
+                if (null != writer) {
+                    mTask.closeWriter(writer);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (null != mBuffer) {
+                mTask.recycleBuffer(mBuffer);
+                mBuffer = null;
+            }
+            // 区间完整读完的连接归还连接池 供下一个区间或其他任务复用
+            mManager.mConnectionPool.recycle(conn);
+        }
+        return isFinished;
+    }
+
+    /**
+     * 通过非阻塞引擎下载当前区间
+     * Download current range by non-blocking engine.
+     */
+    private void submit() {
+        if (mTask.isStop) {
+            retire();
+            return;
+        }
+        try {
+            mOutput = mTask.openWriter();
+            buffer();
+            mManager.obtainNioEngine().submit(mSource.url, mTask.request(info, mSource), this);
+        } catch (IOException e) {
+            if (mManager.isDebug) {
+                Log.e(TAG, "DLThread submit error:" + e + " ,url:" + info.baseUrl);
+            }
+            release();
+            retire();
+        }
+    }
+
+    @Override
+    public boolean onResponse(int code) {
+        if (code == HttpStatus.SC_OK) {
+            changed();
+            return false;
+        }
+        if (code != HttpStatus.SC_PARTIAL_CONTENT) {
+            if (mManager.isDebug) {
+                Log.e(TAG, "DLThread(nio) unexpected " + code + " ,url:" + info.baseUrl);
+            }
+            return false;
+        }
+        begin();
+        return true;
+    }
+
+    /**
+     * 在事件循环中调用 只能不等待地借用缓冲区 getDelay返回0时已借到
+     * Called on event loop, so buffer is only borrowed without waiting, it has been
+     * borrowed once getDelay returns 0.
+     */
+    @Override
+    public ByteBuffer onBuffer() throws IOException {
+        if (null == mBuffer) mBuffer = mTask.pollBuffer();
+        ByteBuffer buffer = mBuffer;
+        if (null == buffer) throw new IOException("No buffer available");
+        buffer.clear();
+        buffer.limit((int) Math.max(1, Math.min(mTask.chunk(mSource.host, buffer.capacity()),
+                remaining())));
+        return buffer;
+    }
+
+    @Override
+    public boolean onData(ByteBuffer buffer) throws IOException {
+        return write(mOutput, false) > 0 && !mTask.isStop && !isYield;
+    }
+
+    @Override
+    public void onDone() {
+        // 等待写入队列及关闭写入器可能耗时 不在事件循环中执行 waiting for write queue and
+        // closing writer may take time, not done on event loop
+        mManager.mScheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                settle();
+                boolean isFinished = end();
+                release();
+                if (isFinished && !mTask.isStop && next()) {
+                    submit();
+                } else {
+                    retire();
+                }
+            }
+        });
+    }
+
+    @Override
+    public boolean isStop() {
+        return mTask.isStop || isYield;
+    }
+
+    /**
+     * 写入队列已满或没有可用的缓冲区时暂停读取 事件循环不能等待
+     * Pause reading while write queue is full or no buffer is available, event loop must
+     * not wait.
+     */
+    @Override
+    public long getDelay() {
+        long delay = delay();
+        if (delay > 0) return delay;
+        if (null != mTask.mQueue && mTask.mQueue.isFull()) {
+            mTask.mQueue.stall(TIME_WAIT_QUEUE);
+            return TIME_WAIT_QUEUE;
+        }
+        if (null == mBuffer) mBuffer = mTask.pollBuffer();
+        return null == mBuffer ? TIME_WAIT_QUEUE : 0;
+    }
+
+    private long delay() {
+        long delay = mDelay;
+        mDelay = 0;
+        return delay;
+    }
+
+    @Override
+    public void onWritten(ByteBuffer buffer, long offset) {
+        int len = buffer.remaining();
+        if (null != mWriteError) {
+            // 之前的数据写入失败 之后的数据不能确认 data before failed, can't commit
+            cancel(len);
+            return;
+        }
+        digest(buffer, buffer.position(), offset);
+        commit(len);
+        publish(offset, len);
+    }
+
+    @Override
+    public void onFailed(ByteBuffer buffer, IOException e) {
+        mWriteError = e;
+        cancel(buffer.remaining());
+    }
+
+    /**
+     * If-Range校验失败 主地址的文件已变化时重新开始任务 镜像的文件与主地址不一致时该镜像退出下载
+     * If-Range failed, task starts over if file of the main url has changed, or the mirror
+     * drops out if its file no longer agrees with the main url.
+     */
+    private void changed() {
+        if (mSource == mTask.mSources.primary()) {
+            mTask.restart();
+            return;
+        }
+        synchronized (mTask.mDLThreads) {
+            mTask.mSources.drop(mSource);
+        }
+    }
+
+    /**
+     * 按限速要求等待
+     * Wait as required by rate limiting.
+     */
+    private void pause() throws InterruptedException {
+        long delay = delay();
+        if (delay > 0) {
+            TimeUnit.NANOSECONDS.sleep(delay);
+        }
+    }
+
+    private void release() {
+        try {
+            if (null != mOutput) {
+                mTask.closeWriter(mOutput);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (null != mBuffer) {
+            mTask.recycleBuffer(mBuffer);
+        }
+        mOutput = null;
+        mBuffer = null;
+    }
+
+    /**
+     * 开始接收当前区间的数据 测速由此开始
+     * Start receiving data of current range, speed is measured from now on.
+     */
+    private void begin() {
+        startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * 写出当前缓冲区中的数据 区间可能已被其他线程分割 只写入仍属于本线程的部分
+     * Write data in current buffer, current range may have been split by other threads,
+     * so only the part still owned by this thread is written.
+     *
+     * @param isBlocking 写入队列已满时是否等待 whether to wait while write queue is full.
+     * @return 当前区间尚未读取的字节数 bytes of current range not read yet.
+     */
+    private long write(IDLWriter writer, boolean isBlocking) throws IOException {
+        long offset = reserve(mBuffer);
+        int len = mBuffer.remaining();
+        if (len > 0) {
+            emit(writer, offset, isBlocking);
+            mDelay = mTask.throttle(mSource.host, len);
+        }
+        return remaining();
+    }
+
+    /**
+     * 写出当前缓冲区中已预留的数据 有写入队列时交给队列 缓冲区随之移交
+     * Write reserved data in current buffer, handed to write queue if there is one, the
+     * buffer goes with it.
+     */
+    private void emit(IDLWriter writer, long offset, boolean isBlocking)
+            throws IOException {
+        ByteBuffer buffer = mBuffer;
+        int len = buffer.remaining();
+        if (null == mTask.mQueue) {
+            int position = buffer.position();
+            try {
+                writer.write(buffer, offset);
+            } catch (IOException e) {
+                cancel(len);
+                throw e;
+            }
+            buffer.position(position);
+            onWritten(buffer, offset);
+            return;
+        }
+        IOException error = mWriteError;
+        if (null != error) {
+            cancel(len);
+            throw error;
+        }
+        mBuffer = null;
+        try {
+            mTask.mQueue.put(this, writer, buffer, offset, isBlocking);
+        } catch (InterruptedIOException e) {
+            mBuffer = buffer;
+            cancel(len);
+            throw e;
+        }
+    }
+
+    /**
+     * 获取当前读取使用的缓冲区 没有时从缓冲区池借用
+     * Get buffer current read uses, borrowed from pool if none.
+     */
+    private ByteBuffer buffer() throws InterruptedIOException {
+        if (null == mBuffer) {
+            mBuffer = mTask.obtainBuffer();
+        }
+        return mBuffer;
+    }
+
+    /**
+     * 等待交给写入队列的数据全部写出 之后才能结束区间或关闭写入器
+     * Wait until all data handed to write queue is written, only then can the range end
+     * or the writer be closed.
+     */
+    private synchronized void settle() {
+        boolean isInterrupted = false;
+        while (reserved > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                isInterrupted = true;
+            }
+        }
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 通知读取该任务的数据流 已确认写入的数据可以读取
+     * Tell stream reading this task that committed data can be read.
+     */
+    private void publish(long offset, int len) {
+        DLStream stream = mTask.mStream;
+        if (null != stream && len > 0) stream.onWritten(offset, offset + len);
+    }
+
+    /**
+     * 累加已写入数据的CRC32 写入成功后才计算 保证与已确认的进度一致 每跨过一个块边界记录一次
+     * Accumulate CRC32 of written data, only after a successful write so it agrees with
+     * committed progress, recorded every time a block boundary is crossed.
+     *
+     * @param position 写入前缓冲区的position position of buffer before writing.
+     * @param offset   数据在文件中的位置 position of data in file.
+     */
+    private void digest(ByteBuffer buffer, int position, long offset) {
+        int limit = buffer.limit();
+        buffer.position(position);
+        while (buffer.hasRemaining()) {
+            if (mChecksum.getLength() == 0) mFragment = offset;
+            long boundary = DLBlocks.floor(offset) + DLBlocks.SIZE;
+            int len = (int) Math.min(buffer.remaining(), boundary - offset);
+            buffer.limit(buffer.position() + len);
+            mChecksum.update(buffer);
+            buffer.position(buffer.limit());
+            buffer.limit(limit);
+            offset += len;
+            if (offset == boundary) {
+                synchronized (mTask.mDLThreads) {
+                    keep();
+                }
+            }
+        }
+    }
+
+    /**
+     * 记录当前块内已写入部分的CRC32 调用时需持有mDLThreads锁
+     * Record CRC32 of data written in current block, caller must hold lock of mDLThreads.
+     */
+    private void keep() {
+        if (mChecksum.getLength() == 0) return;
+        mTask.record(new DLChecksum.Piece(mFragment, mChecksum.getLength(),
+                mChecksum.getValue()));
+        mChecksum.reset();
+    }
+
+    /**
+     * 当前区间结束 下载完成时删除其断点
+     * Current range is over, its checkpoint is deleted if it's finished.
+     *
+     * @return true表示当前区间已下载完成 true if current range is finished.
+     */
+    private boolean end() {
+        boolean isFinished = !mTask.isStop && (remaining() <= 0 ||
+                info.start + progress >= mTask.fileLength);
+        if (isFinished) {
+            mManager.mCheckpointer.delete(info);
+        }
+        return isFinished;
+    }
+
+    /**
+     * 预留缓冲区中即将写入的数据 超出当前区间剩余长度的部分被截掉
+     * Reserve data in buffer to write, the part beyond rest of current range is cut off.
+     *
+     * @return 预留数据在文件中的位置 position of reserved data in file.
+     */
+    private synchronized long reserve(ByteBuffer buffer) {
+        long offset = info.start + progress + reserved;
+        buffer.limit((int) Math.max(0, Math.min(buffer.limit(), info.end - offset + 1)));
+        reserved += buffer.limit();
+        return offset;
+    }
+
+    /**
+     * 预留即将写入的字节数 不检查区间长度 用于不支持断点的顺序下载
+     * Reserve bytes to write without checking range length, used by sequential download
+     * without resume support.
+     *
+     * @return 预留数据在文件中的位置 position of reserved data in file.
+     */
+    private synchronized long hold(int len) {
+        long offset = info.start + progress + reserved;
+        reserved += len;
+        return offset;
+    }
+
+    /**
+     * 确认预留的字节已写入
+     */
+    private synchronized void commit(int len) {
+        progress += len;
+        total += len;
+        reserved -= len;
+        isDirty = true;
+        if (0 == reserved) notifyAll();
+    }
+
+    /**
+     * 取消未能写入的预留字节
+     * Cancel reserved bytes failed to be written.
+     */
+    private synchronized void cancel(int len) {
+        reserved -= len;
+        if (0 == reserved) notifyAll();
+    }
+
+    synchronized long remaining() {
+        return info.end - info.start - progress - reserved + 1;
+    }
+
+    /**
+     * 当前区间的下载速度 尚未测速时视为最快
+     * Download speed of current range, treated as fastest before measured.
+     */
+    double rate() {
+        long elapsed = elapsed();
+        return elapsed < DLTask.TIME_MIN_MEASURE ? Double.MAX_VALUE : progress * 1.0 / elapsed;
+    }
+
+    long elapsed() {
+        return 0 == startTime ? 0 : System.currentTimeMillis() - startTime;
+    }
+
+    /**
+     * 将当前区间未下载部分的后半段分割为新的区间 当前区间的结束位置随之缩短
+     * Split the back half of the unfinished part into a new range and shrink current range.
+     *
+     * @return 分割出的新区间 剩余长度不足时返回null new range, null if too short to split.
+     */
+    synchronized ThreadInfo split() {
+        long from = info.start + progress + reserved;
+        return split(from + (info.end - from + 1) / 2);
+    }
+
+    /**
+     * 从指定位置分割当前区间 该位置之后的部分成为新的区间
+     * Split current range at given position, the part from it becomes a new range.
+     *
+     * @return 分割出的新区间 该位置距下载位置不足最小分割长度时返回null new range, null if
+     * the position is less than minimum split length away from download position.
+     */
+    synchronized ThreadInfo split(long position) {
+        long from = info.start + progress + reserved;
+        if (position - from < DLTask.LENGTH_MIN_SPLIT || position > info.end) return null;
+        ThreadInfo ti = new ThreadInfo(info.dlLocalFile, info.baseUrl, info.realUrl,
+                position, info.end, UUID.randomUUID().toString());
+        info.end = position - 1;
+        isDirty = true;
+        return ti;
+    }
+
+    /**
+     * 当前区间的下载位置 之前的数据均已写入
+     * Download position of current range, data before it has all been written.
+     */
+    synchronized long position() {
+        return info.start + progress;
+    }
+
+    /**
+     * 指定位置是否在当前区间的未下载部分中
+     * Whether given position is in the unfinished part of current range.
+     */
+    synchronized boolean covers(long position) {
+        return position >= info.start + progress && position <= info.end;
+    }
+
+    synchronized long bound(long position, long end) {
+        return mTask.bound(position, info.start + progress, info.end, end);
+    }
+
+    /**
+     * 获取当前区间的断点数据 并清除变化标记
+     * Get checkpoint data of current range and clear dirty flag.
+     */
+    synchronized ThreadInfo snapshot() {
+        isDirty = false;
+        return new ThreadInfo(info.dlLocalFile, info.baseUrl, info.realUrl,
+                info.start + progress, info.end, info.id);
+    }
+}
@@ -0,0 +1,226 @@
+package cn.aigestudio.downloader.bizs;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cn.aigestudio.downloader.interfaces.IDLWriter;
+
+/**
+ * 写入队列
+ * 每个下载任务一个 下载线程读满缓冲区后交给队列继续读取网络 由一个写入线程按入队顺序写入文件
+ * 磁盘写入变慢时不再阻塞网络读取 相邻的连续数据合并为一次写入 队列已满时下载线程等待
+ * Write queue.
+ * One per download task, download threads hand filled buffers to it and go on reading network,
+ * a single writer thread writes them to file in queued order, so slow disk writes no longer stall
+ * network reads. Adjacent continuous data is merged into one write, download threads wait while
+ * the queue is full.
+ */
+final class DLWriteQueue implements Runnable {
+    /**
+     * 一次合并写入的最大缓冲区数
+     * Max count of buffers merged into one write.
+     */
+    private static final int MAX_GATHER = 16;
+
+    interface Callback {
+        /**
+         * 数据已写入文件 在写入线程中回调 同一回调按入队顺序执行
+         * Data is written to file, called on writer thread, in queued order for the same callback.
+         *
+         * @param buffer 缓冲区 剩余部分即为写入的数据 buffer, its remaining bytes are the data
+         *               written.
+         * @param offset 数据在文件中的位置 position of data in file.
+         */
+        void onWritten(ByteBuffer buffer, long offset);
+
+        /**
+         * 数据写入失败
+         * Data failed to be written.
+         */
+        void onFailed(ByteBuffer buffer, IOException e);
+    }
+
+    private final DLScheduler mScheduler;
+    private final DLBufferPool mPool;
+    private final int mCapacity;
+    /**
+     * 下载线程因队列已满而等待的总时间 所有任务共享 单位纳秒
+     * Total time download threads waited because queue is full, shared by all tasks, in
+     * nanosecond.
+     */
+    private final AtomicLong mStallTime;
+
+    /**
+     * 环形队列 非阻塞放入可超出容量 此时扩容
+     * Ring queue, non-blocking puts may go beyond capacity, it grows then.
+     */
+    private Callback[] mCallbacks;
+    private IDLWriter[] mWriters;
+    private ByteBuffer[] mBuffers;
+    private long[] mOffsets;
+    private int mHead, mCount;
+    private boolean isDraining;
+
+    /**
+     * 写入线程合并写入使用 only used by writer thread to merge writes
+     */
+    private final Callback[] mGatherCallbacks = new Callback[MAX_GATHER];
+    private final ByteBuffer[] mGather = new ByteBuffer[MAX_GATHER];
+    private final int[] mPositions = new int[MAX_GATHER];
+
+    /**
+     * @param scheduler 执行写入的调度器 scheduler to run writes.
+     * @param pool      写入后归还缓冲区的池 pool buffers are released to after written.
+     * @param capacity  队列可容纳的缓冲区数 count of buffers the queue holds.
+     * @param stallTime 累计等待时间 accumulated wait time.
+     */
+    DLWriteQueue(DLScheduler scheduler, DLBufferPool pool, int capacity, AtomicLong stallTime) {
+        mScheduler = scheduler;
+        mPool = pool;
+        mCapacity = capacity;
+        mStallTime = stallTime;
+        mCallbacks = new Callback[capacity];
+        mWriters = new IDLWriter[capacity];
+        mBuffers = new ByteBuffer[capacity];
+        mOffsets = new long[capacity];
+    }
+
+    /**
+     * 放入待写入的缓冲区 之后缓冲区归队列所有 写入后归还缓冲区池
+     * Put a buffer to write, the queue owns it after that and releases it to pool once written.
+     *
+     * @param isBlocking 队列已满时是否等待 非阻塞引擎不能等待 whether to wait while the queue is
+     *                   full, non-blocking engine must not wait.
+     * @throws InterruptedIOException 等待时被中断 缓冲区未放入 interrupted while waiting, the
+     *                                buffer is not put.
+     */
+    void put(Callback callback, IDLWriter writer, ByteBuffer buffer, long offset,
+             boolean isBlocking) throws InterruptedIOException {
+        boolean isStart;
+        synchronized (this) {
+            if (isBlocking && mCount >= mCapacity) {
+                long start = System.nanoTime();
+                try {
+                    while (mCount >= mCapacity) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                } finally {
+                    mStallTime.addAndGet(System.nanoTime() - start);
+                }
+            }
+            if (mCount == mBuffers.length) grow();
+            int i = (mHead + mCount) % mBuffers.length;
+            mCallbacks[i] = callback;
+            mWriters[i] = writer;
+            mBuffers[i] = buffer;
+            mOffsets[i] = offset;
+            mCount++;
+            isStart = !isDraining;
+            isDraining = true;
+        }
+        if (isStart) mScheduler.execute(this);
+    }
+
+    /**
+     * 队列是否已满 非阻塞引擎据此暂停读取
+     * Whether the queue is full, non-blocking engine pauses reading by it.
+     */
+    synchronized boolean isFull() {
+        return mCount >= mCapacity;
+    }
+
+    /**
+     * 记录非阻塞引擎因队列已满而暂停读取的时间
+     * Record time non-blocking engine paused reading because the queue is full.
+     */
+    void stall(long nanos) {
+        mStallTime.addAndGet(nanos);
+    }
+
+    synchronized int size() {
+        return mCount;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            IDLWriter writer;
+            long offset;
+            int count = 0;
+            synchronized (this) {
+                if (mCount == 0) {
+                    isDraining = false;
+                    return;
+                }
+                writer = mWriters[mHead];
+                offset = mOffsets[mHead];
+                long end = offset;
+                // 队首起同一写入器的连续数据合并写入 take continuous data of the same writer
+                // from head
+                while (count < MAX_GATHER && mCount > 0 && mWriters[mHead] == writer &&
+                        mOffsets[mHead] == end) {
+                    ByteBuffer buffer = mBuffers[mHead];
+                    end += buffer.remaining();
+                    mGather[count] = buffer;
+                    mGatherCallbacks[count] = mCallbacks[mHead];
+                    mPositions[count] = buffer.position();
+                    mCallbacks[mHead] = null;
+                    mWriters[mHead] = null;
+                    mBuffers[mHead] = null;
+                    mHead = (mHead + 1) % mBuffers.length;
+                    mCount--;
+                    count++;
+                }
+                notifyAll();
+            }
+            IOException error = null;
+            try {
+                if (count == 1) {
+                    writer.write(mGather[0], offset);
+                } else {
+                    writer.write(mGather, 0, count, offset);
+                }
+            } catch (IOException e) {
+                error = e;
+            }
+            for (int i = 0; i < count; i++) {
+                ByteBuffer buffer = mGather[i];
+                buffer.position(mPositions[i]);
+                int len = buffer.remaining();
+                if (null == error) {
+                    mGatherCallbacks[i].onWritten(buffer, offset);
+                } else {
+                    mGatherCallbacks[i].onFailed(buffer, error);
+                }
+                offset += len;
+                mPool.release(buffer);
+                mGather[i] = null;
+                mGatherCallbacks[i] = null;
+            }
+        }
+    }
+
+    private void grow() {
+        int length = Math.max(1, mBuffers.length * 2);
+        Callback[] callbacks = new Callback[length];
+        IDLWriter[] writers = new IDLWriter[length];
+        ByteBuffer[] buffers = new ByteBuffer[length];
+        long[] offsets = new long[length];
+        for (int i = 0; i < mCount; i++) {
+            int j = (mHead + i) % mBuffers.length;
+            callbacks[i] = mCallbacks[j];
+            writers[i] = mWriters[j];
+            buffers[i] = mBuffers[j];
+            offsets[i] = mOffsets[j];
+        }
+        mCallbacks = callbacks;
+        mWriters = writers;
+        mBuffers = buffers;
+        mOffsets = offsets;
+        mHead = 0;
+    }
+}
@@ -11,10 +11,17 @@ public enum HttpConnPars {
     ACCEPT("Accept", "image/gif, image/jpeg, image/pjpeg, image/pjpeg, application/x-shockwave-flash, application/xaml+xml, application/vnd.ms-xpsdocument, application/x-ms-xbap, application/x-ms-application, application/vnd.ms-excel, application/vnd.ms-powerpoint, application/msword, */*"),
     ACCEPT_LANGUAGE("Accept-Language", "zh-CN"),
     ACCEPT_RANGE("Accept-Ranges", "bytes"),
+    CACHE_CONTROL("Cache-Control"),
     CHARSET("Charset", "UTF-8"),
     CONNECT_TIMEOUT("5000"),
+    CONTENT_LENGTH("Content-Length"),
+    CONTENT_RANGE("Content-Range"),
+    ETAG("ETag"),
+    IF_RANGE("If-Range"),
     KEEP_CONNECT("Connection", "Keep-Alive"),
+    LAST_MODIFIED("Last-Modified"),
     LOCATION("location"),
+    READ_TIMEOUT("30000"),
     REFERER("referer");
 
     public String header;// 标题
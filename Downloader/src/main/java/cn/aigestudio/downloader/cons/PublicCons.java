@@ -38,6 +38,8 @@ public final class PublicCons {
         public static final String TB_TASK_FILE_PATH = "file_path";
         public static final String TB_TASK_PROGRESS = "onThreadProgress";
         public static final String TB_TASK_FILE_LENGTH = "file_length";
+        public static final String TB_TASK_ETAG = "etag";
+        public static final String TB_TASK_LAST_MODIFIED = "last_modified";
 
         public static final String TB_THREAD = "thread_info";
         public static final String TB_THREAD_URL_BASE = "base_url";
@@ -47,6 +49,22 @@ public final class PublicCons {
         public static final String TB_THREAD_END = "end";
         public static final String TB_THREAD_ID = "id";
 
+        public static final String TB_RESOURCE = "resource_info";
+        public static final String TB_RESOURCE_URL_BASE = "base_url";
+        public static final String TB_RESOURCE_URL_REAL = "real_url";
+        public static final String TB_RESOURCE_LENGTH = "length";
+        public static final String TB_RESOURCE_ETAG = "etag";
+        public static final String TB_RESOURCE_LAST_MODIFIED = "last_modified";
+        public static final String TB_RESOURCE_RANGEABLE = "rangeable";
+        public static final String TB_RESOURCE_CONCURRENCY = "concurrency";
+        public static final String TB_RESOURCE_EXPIRES = "expires";
+
+        public static final String TB_BLOCK = "block_info";
+        public static final String TB_BLOCK_URL_BASE = "base_url";
+        public static final String TB_BLOCK_START = "start";
+        public static final String TB_BLOCK_LENGTH = "length";
+        public static final String TB_BLOCK_CRC = "crc";
+
         public static final String TB_TASK_SQL_CREATE = "CREATE TABLE " +
                 PublicCons.DBCons.TB_TASK + "(" +
                 BaseColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
@@ -54,7 +72,9 @@ public final class PublicCons {
                 PublicCons.DBCons.TB_TASK_URL_REAL + " CHAR, " +
                 PublicCons.DBCons.TB_TASK_FILE_PATH + " CHAR, " +
                 PublicCons.DBCons.TB_TASK_PROGRESS + " INTEGER, " +
-                PublicCons.DBCons.TB_TASK_FILE_LENGTH + " INTEGER)";
+                PublicCons.DBCons.TB_TASK_FILE_LENGTH + " INTEGER, " +
+                PublicCons.DBCons.TB_TASK_ETAG + " CHAR, " +
+                PublicCons.DBCons.TB_TASK_LAST_MODIFIED + " CHAR)";
         public static final String TB_THREAD_SQL_CREATE = "CREATE TABLE " +
                 PublicCons.DBCons.TB_THREAD + "(" +
                 BaseColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
@@ -65,12 +85,99 @@ public final class PublicCons {
                 PublicCons.DBCons.TB_THREAD_END + " INTEGER, " +
                 PublicCons.DBCons.TB_THREAD_ID + " CHAR)";
 
+        public static final String TB_RESOURCE_SQL_CREATE = "CREATE TABLE IF NOT EXISTS " +
+                PublicCons.DBCons.TB_RESOURCE + "(" +
+                PublicCons.DBCons.TB_RESOURCE_URL_BASE + " CHAR PRIMARY KEY, " +
+                PublicCons.DBCons.TB_RESOURCE_URL_REAL + " CHAR, " +
+                PublicCons.DBCons.TB_RESOURCE_LENGTH + " INTEGER, " +
+                PublicCons.DBCons.TB_RESOURCE_ETAG + " CHAR, " +
+                PublicCons.DBCons.TB_RESOURCE_LAST_MODIFIED + " CHAR, " +
+                PublicCons.DBCons.TB_RESOURCE_RANGEABLE + " INTEGER, " +
+                PublicCons.DBCons.TB_RESOURCE_CONCURRENCY + " INTEGER, " +
+                PublicCons.DBCons.TB_RESOURCE_EXPIRES + " INTEGER)";
+        public static final String TB_BLOCK_SQL_CREATE = "CREATE TABLE IF NOT EXISTS " +
+                PublicCons.DBCons.TB_BLOCK + "(" +
+                PublicCons.DBCons.TB_BLOCK_URL_BASE + " CHAR, " +
+                PublicCons.DBCons.TB_BLOCK_START + " INTEGER, " +
+                PublicCons.DBCons.TB_BLOCK_LENGTH + " INTEGER, " +
+                PublicCons.DBCons.TB_BLOCK_CRC + " INTEGER, PRIMARY KEY(" +
+                PublicCons.DBCons.TB_BLOCK_URL_BASE + ", " +
+                PublicCons.DBCons.TB_BLOCK_START + "))";
+
+        public static final String TB_TASK_SQL_INDEX = "CREATE INDEX IF NOT EXISTS " +
+                PublicCons.DBCons.TB_TASK + "_" + PublicCons.DBCons.TB_TASK_URL_BASE + " ON " +
+                PublicCons.DBCons.TB_TASK + "(" + PublicCons.DBCons.TB_TASK_URL_BASE + ")";
+        public static final String TB_THREAD_SQL_INDEX_URL = "CREATE INDEX IF NOT EXISTS " +
+                PublicCons.DBCons.TB_THREAD + "_" + PublicCons.DBCons.TB_THREAD_URL_BASE + " ON " +
+                PublicCons.DBCons.TB_THREAD + "(" + PublicCons.DBCons.TB_THREAD_URL_BASE + ")";
+        public static final String TB_THREAD_SQL_INDEX_ID = "CREATE INDEX IF NOT EXISTS " +
+                PublicCons.DBCons.TB_THREAD + "_" + PublicCons.DBCons.TB_THREAD_ID + " ON " +
+                PublicCons.DBCons.TB_THREAD + "(" + PublicCons.DBCons.TB_THREAD_ID + ")";
+
+        public static final String TB_TASK_SQL_ADD_ETAG = "ALTER TABLE " +
+                PublicCons.DBCons.TB_TASK + " ADD COLUMN " +
+                PublicCons.DBCons.TB_TASK_ETAG + " CHAR";
+        public static final String TB_TASK_SQL_ADD_LAST_MODIFIED = "ALTER TABLE " +
+                PublicCons.DBCons.TB_TASK + " ADD COLUMN " +
+                PublicCons.DBCons.TB_TASK_LAST_MODIFIED + " CHAR";
+
         public static final String TB_TASK_SQL_UPGRADE = "DROP TABLE IF EXISTS " +
                 PublicCons.DBCons.TB_TASK;
         public static final String TB_THREAD_SQL_UPGRADE = "DROP TABLE IF EXISTS " +
                 PublicCons.DBCons.TB_THREAD;
     }
 
+    /**
+     * 文件写入模式
+     * Write modes of downloading file.
+     */
+    public static final class WriteModes {
+        /**
+         * 每个下载线程以rwd模式的RandomAccessFile逐次同步写入
+         * Every download thread writes synchronously through its own rwd RandomAccessFile.
+         */
+        public static final int WRITE_MODE_RANDOM_ACCESS = 0;
+        /**
+         * 同一任务共享一个FileChannel 以大缓冲区按绝对位置写入 仅在保存断点时同步
+         * One FileChannel per task, positional writes with large buffers, forced on checkpoints only.
+         */
+        public static final int WRITE_MODE_FILE_CHANNEL = 1;
+        /**
+         * 同一任务共享一个内存映射写入器 写入只是内存复制 仅在保存断点时同步 适用于数十至数百MB的文件
+         * 文件长度超过上限或映射失败时改用FileChannel模式
+         * One memory mapped writer per task, writing is a memory copy, forced on checkpoints only,
+         * suits files of tens to hundreds of MB. Falls back to FileChannel mode if the file is
+         * longer than the limit or mapping failed.
+         */
+        public static final int WRITE_MODE_MAPPED = 2;
+    }
+
+    /**
+     * 下载引擎
+     * Download engines.
+     */
+    public static final class Engines {
+        /**
+         * 每个下载区间占用一个线程阻塞读取
+         * Every download range holds a thread blocked on reading.
+         */
+        public static final int ENGINE_BLOCKING = 0;
+        /**
+         * 少量事件循环线程以非阻塞方式驱动所有下载区间 仅对不经代理的http生效 其余情况仍使用阻塞方式
+         * A few event loop threads drive all download ranges without blocking, only works for
+         * plain http without proxy, blocking engine is used otherwise.
+         */
+        public static final int ENGINE_NIO = 1;
+        /**
+         * 同阻塞引擎 但明文http上长度已知的响应体直接从SocketChannel读入直接缓冲区 不经过字节数组
+         * 需使用FileChannel或内存映射写入模式 https及其他情况与阻塞引擎相同
+         * Same as blocking engine, but response body of known length over plain http is read
+         * from SocketChannel straight into direct buffers without byte arrays. Needs FileChannel
+         * or memory mapped write mode, behaves as blocking engine for https and other cases.
+         */
+        public static final int ENGINE_CHANNEL = 2;
+    }
+
     /**
      * 网络类型
      *
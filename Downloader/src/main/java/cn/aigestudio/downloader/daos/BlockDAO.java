@@ -0,0 +1,110 @@
+package cn.aigestudio.downloader.daos;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cn.aigestudio.downloader.cons.PublicCons;
+import cn.aigestudio.downloader.entities.BlockInfo;
+import cn.aigestudio.downloader.entities.DLInfo;
+import cn.aigestudio.downloader.interfaces.DAO;
+
+/**
+ * 块校验的DAO实现
+ * DAO for block checksum.
+ */
+public class BlockDAO extends DAO {
+    private static final String SQL_REPLACE = "INSERT OR REPLACE INTO " +
+            PublicCons.DBCons.TB_BLOCK + "(" +
+            PublicCons.DBCons.TB_BLOCK_URL_BASE + ", " +
+            PublicCons.DBCons.TB_BLOCK_START + ", " +
+            PublicCons.DBCons.TB_BLOCK_LENGTH + ", " +
+            PublicCons.DBCons.TB_BLOCK_CRC + ") VALUES (?,?,?,?)";
+    private static final String SQL_DELETE = "DELETE FROM " + PublicCons.DBCons.TB_BLOCK +
+            " WHERE " + PublicCons.DBCons.TB_BLOCK_URL_BASE + "=? AND " +
+            PublicCons.DBCons.TB_BLOCK_START + "=?";
+    private static final String SQL_DELETE_ALL = "DELETE FROM " + PublicCons.DBCons.TB_BLOCK +
+            " WHERE " + PublicCons.DBCons.TB_BLOCK_URL_BASE + "=?";
+    private static final String SQL_QUERY_ALL = "SELECT " +
+            PublicCons.DBCons.TB_BLOCK_URL_BASE + ", " +
+            PublicCons.DBCons.TB_BLOCK_START + ", " +
+            PublicCons.DBCons.TB_BLOCK_LENGTH + ", " +
+            PublicCons.DBCons.TB_BLOCK_CRC + " FROM " +
+            PublicCons.DBCons.TB_BLOCK + " WHERE " +
+            PublicCons.DBCons.TB_BLOCK_URL_BASE + "=?";
+    private static final String SQL_QUERY_FIRST = SQL_QUERY_ALL + " ORDER BY " +
+            PublicCons.DBCons.TB_BLOCK_START + " LIMIT 1";
+
+    public BlockDAO(Context context) {
+        super(context);
+    }
+
+    public BlockDAO(DBOpenHelper dbHelper) {
+        super(dbHelper);
+    }
+
+    @Override
+    public void insertInfo(DLInfo info) {
+        BlockInfo i = (BlockInfo) info;
+        SQLiteStatement statement = getStatement(SQL_REPLACE);
+        bindString(statement, 1, i.baseUrl);
+        statement.bindLong(2, i.start);
+        statement.bindLong(3, i.length);
+        statement.bindLong(4, i.crc);
+        statement.executeInsert();
+    }
+
+    /**
+     * 删除一个下载任务的所有块记录
+     * Delete all block records of a task.
+     */
+    @Override
+    public void deleteInfo(String url) {
+        SQLiteStatement statement = getStatement(SQL_DELETE_ALL);
+        bindString(statement, 1, url);
+        statement.execute();
+    }
+
+    public void deleteInfo(String url, long start) {
+        SQLiteStatement statement = getStatement(SQL_DELETE);
+        bindString(statement, 1, url);
+        statement.bindLong(2, start);
+        statement.execute();
+    }
+
+    @Override
+    public void updateInfo(DLInfo info) {
+        insertInfo(info);
+    }
+
+    /**
+     * 查询下载任务起始偏移最小的块记录 查询所有块记录使用{@link #queryInfos(String)}
+     * Query the block record at the first offset of a task, use {@link #queryInfos(String)} to
+     * query all block records.
+     *
+     * @return 块记录 没有记录时返回null block record, null if none.
+     */
+    @Override
+    public DLInfo queryInfo(String url) {
+        BlockInfo info = null;
+        Cursor c = getDatabase().rawQuery(SQL_QUERY_FIRST, new String[]{url});
+        if (c.moveToFirst()) {
+            info = new BlockInfo(c.getString(0), c.getLong(1), c.getLong(2), c.getLong(3));
+        }
+        c.close();
+        return info;
+    }
+
+    public List<BlockInfo> queryInfos(String url) {
+        List<BlockInfo> infos = new ArrayList<>();
+        Cursor c = getDatabase().rawQuery(SQL_QUERY_ALL, new String[]{url});
+        while (c.moveToNext()) {
+            infos.add(new BlockInfo(c.getString(0), c.getLong(1), c.getLong(2), c.getLong(3)));
+        }
+        c.close();
+        return infos;
+    }
+}
@@ -2,6 +2,7 @@ package cn.aigestudio.downloader.daos;
 
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
 import android.database.sqlite.SQLiteOpenHelper;
 
 import cn.aigestudio.downloader.cons.PublicCons;
@@ -17,13 +18,29 @@ import cn.aigestudio.downloader.cons.PublicCons;
  *         You can use your own database just execute the {@link PublicCons.DBCons#TB_TASK_SQL_CREATE} and
  *         {@link PublicCons.DBCons#TB_THREAD_SQL_CREATE} in onCreate method which in your SQLiteOpenHelper,
  *         also the {@link PublicCons.DBCons#TB_TASK_SQL_UPGRADE} and {@link PublicCons.DBCons#TB_THREAD_SQL_UPGRADE} in onUpgrade.
+ *         索引{@link PublicCons.DBCons#TB_TASK_SQL_INDEX}、{@link PublicCons.DBCons#TB_THREAD_SQL_INDEX_URL}和
+ *         {@link PublicCons.DBCons#TB_THREAD_SQL_INDEX_ID}需在建表后创建 升级时只需创建索引无需删除表
+ *         Indexes {@link PublicCons.DBCons#TB_TASK_SQL_INDEX}, {@link PublicCons.DBCons#TB_THREAD_SQL_INDEX_URL} and
+ *         {@link PublicCons.DBCons#TB_THREAD_SQL_INDEX_ID} should be created after tables, upgrading
+ *         from version 2 only needs the indexes and keeps all tables.
+ *         资源元数据表{@link PublicCons.DBCons#TB_RESOURCE_SQL_CREATE}自版本4加入 升级时直接创建
+ *         Resource metadata table {@link PublicCons.DBCons#TB_RESOURCE_SQL_CREATE} is added in
+ *         version 4 and simply created on upgrade.
+ *         版本5为任务表增加校验值列 升级时执行{@link PublicCons.DBCons#TB_TASK_SQL_ADD_ETAG}和
+ *         {@link PublicCons.DBCons#TB_TASK_SQL_ADD_LAST_MODIFIED}
+ *         Version 5 adds validator columns to task table, run
+ *         {@link PublicCons.DBCons#TB_TASK_SQL_ADD_ETAG} and
+ *         {@link PublicCons.DBCons#TB_TASK_SQL_ADD_LAST_MODIFIED} on upgrade.
+ *         块校验表{@link PublicCons.DBCons#TB_BLOCK_SQL_CREATE}自版本6加入 升级时直接创建
+ *         Block checksum table {@link PublicCons.DBCons#TB_BLOCK_SQL_CREATE} is added in
+ *         version 6 and simply created on upgrade.
  * @author AigeStudio 2015-05-29
  *         数据库版本升级
  *         Update database version.
  */
 public final class DBOpenHelper extends SQLiteOpenHelper {
     private static final String DB_NAME = "dl.db";
-    private static final int DB_VERSION = 2;
+    private static final int DB_VERSION = 6;
 
     public DBOpenHelper(Context context) {
         super(context, DB_NAME, null, DB_VERSION);
@@ -33,12 +50,47 @@ public final class DBOpenHelper extends SQLiteOpenHelper {
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(PublicCons.DBCons.TB_TASK_SQL_CREATE);
         db.execSQL(PublicCons.DBCons.TB_THREAD_SQL_CREATE);
+        db.execSQL(PublicCons.DBCons.TB_RESOURCE_SQL_CREATE);
+        db.execSQL(PublicCons.DBCons.TB_BLOCK_SQL_CREATE);
+        createIndexes(db);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL(PublicCons.DBCons.TB_TASK_SQL_UPGRADE);
-        db.execSQL(PublicCons.DBCons.TB_THREAD_SQL_UPGRADE);
-        onCreate(db);
+        if (oldVersion < 2) {
+            // 版本1的表结构不兼容 只能重建
+            db.execSQL(PublicCons.DBCons.TB_TASK_SQL_UPGRADE);
+            db.execSQL(PublicCons.DBCons.TB_THREAD_SQL_UPGRADE);
+            onCreate(db);
+            return;
+        }
+        if (oldVersion < 3) {
+            createIndexes(db);
+        }
+        if (oldVersion < 4) {
+            db.execSQL(PublicCons.DBCons.TB_RESOURCE_SQL_CREATE);
+        }
+        if (oldVersion < 5) {
+            db.execSQL(PublicCons.DBCons.TB_TASK_SQL_ADD_ETAG);
+            db.execSQL(PublicCons.DBCons.TB_TASK_SQL_ADD_LAST_MODIFIED);
+        }
+        if (oldVersion < 6) {
+            db.execSQL(PublicCons.DBCons.TB_BLOCK_SQL_CREATE);
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // 开启WAL日志 断点写入时不阻塞读取
+        if (Build.VERSION.SDK_INT >= 11 && !db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+        }
+    }
+
+    private void createIndexes(SQLiteDatabase db) {
+        db.execSQL(PublicCons.DBCons.TB_TASK_SQL_INDEX);
+        db.execSQL(PublicCons.DBCons.TB_THREAD_SQL_INDEX_URL);
+        db.execSQL(PublicCons.DBCons.TB_THREAD_SQL_INDEX_ID);
     }
 }
@@ -0,0 +1,88 @@
+package cn.aigestudio.downloader.daos;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
+
+import cn.aigestudio.downloader.cons.PublicCons;
+import cn.aigestudio.downloader.entities.DLInfo;
+import cn.aigestudio.downloader.entities.ResourceInfo;
+import cn.aigestudio.downloader.interfaces.DAO;
+
+/**
+ * 资源元数据的DAO实现
+ * DAO for resource metadata.
+ */
+public class ResourceDAO extends DAO {
+    private static final String SQL_REPLACE = "INSERT OR REPLACE INTO " +
+            PublicCons.DBCons.TB_RESOURCE + "(" +
+            PublicCons.DBCons.TB_RESOURCE_URL_BASE + ", " +
+            PublicCons.DBCons.TB_RESOURCE_URL_REAL + ", " +
+            PublicCons.DBCons.TB_RESOURCE_LENGTH + ", " +
+            PublicCons.DBCons.TB_RESOURCE_ETAG + ", " +
+            PublicCons.DBCons.TB_RESOURCE_LAST_MODIFIED + ", " +
+            PublicCons.DBCons.TB_RESOURCE_RANGEABLE + ", " +
+            PublicCons.DBCons.TB_RESOURCE_CONCURRENCY + ", " +
+            PublicCons.DBCons.TB_RESOURCE_EXPIRES + ") VALUES (?,?,?,?,?,?,?,?)";
+    private static final String SQL_DELETE = "DELETE FROM " + PublicCons.DBCons.TB_RESOURCE +
+            " WHERE " + PublicCons.DBCons.TB_RESOURCE_URL_BASE + "=?";
+    private static final String SQL_QUERY = "SELECT " +
+            PublicCons.DBCons.TB_RESOURCE_URL_BASE + ", " +
+            PublicCons.DBCons.TB_RESOURCE_URL_REAL + ", " +
+            PublicCons.DBCons.TB_RESOURCE_LENGTH + ", " +
+            PublicCons.DBCons.TB_RESOURCE_ETAG + ", " +
+            PublicCons.DBCons.TB_RESOURCE_LAST_MODIFIED + ", " +
+            PublicCons.DBCons.TB_RESOURCE_RANGEABLE + ", " +
+            PublicCons.DBCons.TB_RESOURCE_CONCURRENCY + ", " +
+            PublicCons.DBCons.TB_RESOURCE_EXPIRES + " FROM " +
+            PublicCons.DBCons.TB_RESOURCE + " WHERE " +
+            PublicCons.DBCons.TB_RESOURCE_URL_BASE + "=?";
+
+    public ResourceDAO(Context context) {
+        super(context);
+    }
+
+    public ResourceDAO(DBOpenHelper dbHelper) {
+        super(dbHelper);
+    }
+
+    @Override
+    public void insertInfo(DLInfo info) {
+        ResourceInfo i = (ResourceInfo) info;
+        SQLiteStatement statement = getStatement(SQL_REPLACE);
+        bindString(statement, 1, i.baseUrl);
+        bindString(statement, 2, i.realUrl);
+        statement.bindLong(3, i.length);
+        bindString(statement, 4, i.eTag);
+        bindString(statement, 5, i.lastModified);
+        statement.bindLong(6, i.isRangeable ? 1 : 0);
+        statement.bindLong(7, i.concurrency);
+        statement.bindLong(8, i.expires);
+        statement.executeInsert();
+    }
+
+    @Override
+    public void deleteInfo(String url) {
+        SQLiteStatement statement = getStatement(SQL_DELETE);
+        bindString(statement, 1, url);
+        statement.execute();
+    }
+
+    @Override
+    public void updateInfo(DLInfo info) {
+        insertInfo(info);
+    }
+
+    @Override
+    public DLInfo queryInfo(String url) {
+        ResourceInfo info = null;
+        Cursor c = getDatabase().rawQuery(SQL_QUERY, new String[]{url});
+        if (c.moveToFirst()) {
+            info = new ResourceInfo(c.getString(0), c.getString(1), c.getLong(2),
+                    c.getString(3), c.getString(4), c.getInt(5) != 0, c.getInt(6),
+                    c.getLong(7));
+        }
+        c.close();
+        return info;
+    }
+}
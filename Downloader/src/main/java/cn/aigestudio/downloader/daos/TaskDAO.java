@@ -2,7 +2,7 @@ package cn.aigestudio.downloader.daos;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 
 import java.io.File;
 
@@ -20,61 +20,79 @@ import cn.aigestudio.downloader.interfaces.DAO;
  *         根据域名重定向问题进行逻辑修改
  */
 public class TaskDAO extends DAO {
+    private static final String SQL_INSERT = "INSERT INTO " + PublicCons.DBCons.TB_TASK + "(" +
+            PublicCons.DBCons.TB_TASK_URL_BASE + ", " +
+            PublicCons.DBCons.TB_TASK_URL_REAL + ", " +
+            PublicCons.DBCons.TB_TASK_FILE_PATH + ", " +
+            PublicCons.DBCons.TB_TASK_PROGRESS + ", " +
+            PublicCons.DBCons.TB_TASK_FILE_LENGTH + ", " +
+            PublicCons.DBCons.TB_TASK_ETAG + ", " +
+            PublicCons.DBCons.TB_TASK_LAST_MODIFIED + ") values (?,?,?,?,?,?,?)";
+    private static final String SQL_DELETE = "DELETE FROM " + PublicCons.DBCons.TB_TASK +
+            " WHERE " + PublicCons.DBCons.TB_TASK_URL_BASE + "=?";
+    private static final String SQL_UPDATE = "UPDATE " + PublicCons.DBCons.TB_TASK + " SET " +
+            PublicCons.DBCons.TB_TASK_PROGRESS + "=? WHERE " +
+            PublicCons.DBCons.TB_TASK_URL_BASE + "=?";
+    private static final String SQL_QUERY = "SELECT " +
+            PublicCons.DBCons.TB_TASK_URL_BASE + ", " +
+            PublicCons.DBCons.TB_TASK_URL_REAL + ", " +
+            PublicCons.DBCons.TB_TASK_FILE_PATH + ", " +
+            PublicCons.DBCons.TB_TASK_PROGRESS + ", " +
+            PublicCons.DBCons.TB_TASK_FILE_LENGTH + ", " +
+            PublicCons.DBCons.TB_TASK_ETAG + ", " +
+            PublicCons.DBCons.TB_TASK_LAST_MODIFIED + " FROM " +
+            PublicCons.DBCons.TB_TASK + " WHERE " +
+            PublicCons.DBCons.TB_TASK_URL_BASE + "=?";
+
     public TaskDAO(Context context) {
         super(context);
     }
 
+    public TaskDAO(DBOpenHelper dbHelper) {
+        super(dbHelper);
+    }
+
     @Override
     public void insertInfo(DLInfo info) {
         TaskInfo i = (TaskInfo) info;
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
-        db.execSQL("INSERT INTO " + PublicCons.DBCons.TB_TASK + "(" +
-                        PublicCons.DBCons.TB_TASK_URL_BASE + ", " +
-                        PublicCons.DBCons.TB_TASK_URL_REAL + ", " +
-                        PublicCons.DBCons.TB_TASK_FILE_PATH + ", " +
-                        PublicCons.DBCons.TB_TASK_PROGRESS + ", " +
-                        PublicCons.DBCons.TB_TASK_FILE_LENGTH + ") values (?,?,?,?,?)",
-                new Object[]{i.baseUrl, i.realUrl, i.dlLocalFile.getAbsolutePath(), i.progress,
-                        i.length});
-        db.close();
+        SQLiteStatement statement = getStatement(SQL_INSERT);
+        bindString(statement, 1, i.baseUrl);
+        bindString(statement, 2, i.realUrl);
+        bindString(statement, 3, i.dlLocalFile.getAbsolutePath());
+        statement.bindLong(4, i.progress);
+        statement.bindLong(5, i.length);
+        bindString(statement, 6, i.eTag);
+        bindString(statement, 7, i.lastModified);
+        statement.executeInsert();
     }
 
     @Override
     public void deleteInfo(String url) {
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
-        db.execSQL("DELETE FROM " + PublicCons.DBCons.TB_TASK + " WHERE " +
-                PublicCons.DBCons.TB_TASK_URL_BASE + "=?", new String[]{url});
-        db.close();
+        SQLiteStatement statement = getStatement(SQL_DELETE);
+        bindString(statement, 1, url);
+        statement.execute();
     }
 
     @Override
     public void updateInfo(DLInfo info) {
         TaskInfo i = (TaskInfo) info;
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
-        db.execSQL("UPDATE " + PublicCons.DBCons.TB_TASK + " SET " +
-                PublicCons.DBCons.TB_TASK_PROGRESS + "=? WHERE " +
-                PublicCons.DBCons.TB_TASK_URL_BASE + "=?", new Object[]{i.progress, i.baseUrl});
-        db.close();
+        SQLiteStatement statement = getStatement(SQL_UPDATE);
+        statement.bindLong(1, i.progress);
+        bindString(statement, 2, i.baseUrl);
+        statement.execute();
     }
 
     @Override
     public DLInfo queryInfo(String url) {
         TaskInfo info = null;
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
-        Cursor c = db.rawQuery("SELECT " +
-                PublicCons.DBCons.TB_TASK_URL_BASE + ", " +
-                PublicCons.DBCons.TB_TASK_URL_REAL + ", " +
-                PublicCons.DBCons.TB_TASK_FILE_PATH + ", " +
-                PublicCons.DBCons.TB_TASK_PROGRESS + ", " +
-                PublicCons.DBCons.TB_TASK_FILE_LENGTH + " FROM " +
-                PublicCons.DBCons.TB_TASK + " WHERE " +
-                PublicCons.DBCons.TB_TASK_URL_BASE + "=?", new String[]{url});
+        Cursor c = getDatabase().rawQuery(SQL_QUERY, new String[]{url});
         if (c.moveToFirst()) {
             info = new TaskInfo(new File(c.getString(2)), c.getString(0),c.getString(1),
-                    c.getInt(3), c.getInt(4));
+                    c.getLong(3), c.getLong(4));
+            info.eTag = c.getString(5);
+            info.lastModified = c.getString(6);
         }
         c.close();
-        db.close();
         return info;
     }
 }
@@ -2,7 +2,7 @@ package cn.aigestudio.downloader.daos;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -22,91 +22,105 @@ import cn.aigestudio.downloader.interfaces.DAO;
  *         根据域名重定向问题进行逻辑修改
  */
 public class ThreadDAO extends DAO {
+    private static final String SQL_INSERT = "INSERT INTO " + PublicCons.DBCons.TB_THREAD + "(" +
+            PublicCons.DBCons.TB_THREAD_URL_BASE + ", " +
+            PublicCons.DBCons.TB_THREAD_URL_REAL + ", " +
+            PublicCons.DBCons.TB_THREAD_FILE_PATH + ", " +
+            PublicCons.DBCons.TB_THREAD_START + ", " +
+            PublicCons.DBCons.TB_THREAD_END + ", " +
+            PublicCons.DBCons.TB_THREAD_ID + ") VALUES (?,?,?,?,?,?)";
+    private static final String SQL_DELETE = "DELETE FROM " + PublicCons.DBCons.TB_THREAD +
+            " WHERE " + PublicCons.DBCons.TB_THREAD_ID + "=?";
+    private static final String SQL_DELETE_ALL = "DELETE FROM " + PublicCons.DBCons.TB_THREAD +
+            " WHERE " + PublicCons.DBCons.TB_THREAD_URL_BASE + "=?";
+    private static final String SQL_UPDATE = "UPDATE " + PublicCons.DBCons.TB_THREAD + " SET " +
+            PublicCons.DBCons.TB_THREAD_START + "=?, " +
+            PublicCons.DBCons.TB_THREAD_END + "=? WHERE " +
+            PublicCons.DBCons.TB_THREAD_URL_BASE + "=? AND " +
+            PublicCons.DBCons.TB_THREAD_ID + "=?";
+    private static final String SQL_QUERY = "SELECT " +
+            PublicCons.DBCons.TB_THREAD_URL_BASE + ", " +
+            PublicCons.DBCons.TB_THREAD_URL_REAL + ", " +
+            PublicCons.DBCons.TB_THREAD_FILE_PATH + ", " +
+            PublicCons.DBCons.TB_THREAD_START + ", " +
+            PublicCons.DBCons.TB_THREAD_END + " FROM " +
+            PublicCons.DBCons.TB_THREAD + " WHERE " +
+            PublicCons.DBCons.TB_THREAD_ID + "=?";
+    private static final String SQL_QUERY_ALL = "SELECT " +
+            PublicCons.DBCons.TB_THREAD_URL_BASE + ", " +
+            PublicCons.DBCons.TB_THREAD_URL_REAL + ", " +
+            PublicCons.DBCons.TB_THREAD_FILE_PATH + ", " +
+            PublicCons.DBCons.TB_THREAD_START + ", " +
+            PublicCons.DBCons.TB_THREAD_END + ", " +
+            PublicCons.DBCons.TB_THREAD_ID + " FROM " +
+            PublicCons.DBCons.TB_THREAD + " WHERE " +
+            PublicCons.DBCons.TB_THREAD_URL_BASE + "=?";
+
     public ThreadDAO(Context context) {
         super(context);
     }
 
+    public ThreadDAO(DBOpenHelper dbHelper) {
+        super(dbHelper);
+    }
+
     @Override
     public void insertInfo(DLInfo info) {
         ThreadInfo i = (ThreadInfo) info;
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
-        db.execSQL("INSERT INTO " + PublicCons.DBCons.TB_THREAD + "(" +
-                        PublicCons.DBCons.TB_THREAD_URL_BASE + ", " +
-                        PublicCons.DBCons.TB_THREAD_URL_REAL + ", " +
-                        PublicCons.DBCons.TB_THREAD_FILE_PATH + ", " +
-                        PublicCons.DBCons.TB_THREAD_START + ", " +
-                        PublicCons.DBCons.TB_THREAD_END + ", " +
-                        PublicCons.DBCons.TB_THREAD_ID + ") VALUES (?,?,?,?,?,?)",
-                new Object[]{i.baseUrl, i.realUrl, i.dlLocalFile.getAbsolutePath(), i.start,
-                        i.end, i.id});
-        db.close();
+        SQLiteStatement statement = getStatement(SQL_INSERT);
+        bindString(statement, 1, i.baseUrl);
+        bindString(statement, 2, i.realUrl);
+        bindString(statement, 3, i.dlLocalFile.getAbsolutePath());
+        statement.bindLong(4, i.start);
+        statement.bindLong(5, i.end);
+        bindString(statement, 6, i.id);
+        statement.executeInsert();
     }
 
     @Override
     public void deleteInfo(String id) {
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
-        db.execSQL("DELETE FROM " + PublicCons.DBCons.TB_THREAD + " WHERE " +
-                PublicCons.DBCons.TB_THREAD_ID + "=?", new String[]{id});
-        db.close();
+        SQLiteStatement statement = getStatement(SQL_DELETE);
+        bindString(statement, 1, id);
+        statement.execute();
     }
 
     public void deleteInfos(String url) {
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
-        db.execSQL("DELETE FROM " + PublicCons.DBCons.TB_THREAD + " WHERE " +
-                PublicCons.DBCons.TB_THREAD_URL_BASE + "=?", new String[]{url});
-        db.close();
+        SQLiteStatement statement = getStatement(SQL_DELETE_ALL);
+        bindString(statement, 1, url);
+        statement.execute();
     }
 
     @Override
     public void updateInfo(DLInfo info) {
         ThreadInfo i = (ThreadInfo) info;
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
-        db.execSQL("UPDATE " + PublicCons.DBCons.TB_THREAD + " SET " +
-                PublicCons.DBCons.TB_THREAD_START + "=? WHERE " +
-                PublicCons.DBCons.TB_THREAD_URL_BASE + "=? AND " +
-                PublicCons.DBCons.TB_THREAD_ID + "=?", new Object[]{i.start, i.baseUrl, i.id});
-        db.close();
+        SQLiteStatement statement = getStatement(SQL_UPDATE);
+        statement.bindLong(1, i.start);
+        statement.bindLong(2, i.end);
+        bindString(statement, 3, i.baseUrl);
+        bindString(statement, 4, i.id);
+        statement.execute();
     }
 
     @Override
     public DLInfo queryInfo(String id) {
         ThreadInfo info = null;
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
-        Cursor c = db.rawQuery("SELECT " +
-                PublicCons.DBCons.TB_THREAD_URL_BASE + ", " +
-                PublicCons.DBCons.TB_THREAD_URL_REAL + ", " +
-                PublicCons.DBCons.TB_THREAD_FILE_PATH + ", " +
-                PublicCons.DBCons.TB_THREAD_START + ", " +
-                PublicCons.DBCons.TB_THREAD_END + " FROM " +
-                PublicCons.DBCons.TB_THREAD + " WHERE " +
-                PublicCons.DBCons.TB_THREAD_ID + "=?", new String[]{id});
+        Cursor c = getDatabase().rawQuery(SQL_QUERY, new String[]{id});
         if (c.moveToFirst()) {
             info = new ThreadInfo(new File(c.getString(2)), c.getString(0), c.getString(1),
-                    c.getInt(3), c.getInt(4), id);
+                    c.getLong(3), c.getLong(4), id);
         }
         c.close();
-        db.close();
         return info;
     }
 
     public List<ThreadInfo> queryInfos(String url) {
         List<ThreadInfo> infos = new ArrayList<>();
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
-        Cursor c = db.rawQuery("SELECT " +
-                PublicCons.DBCons.TB_THREAD_URL_BASE + ", " +
-                PublicCons.DBCons.TB_THREAD_URL_REAL + ", " +
-                PublicCons.DBCons.TB_THREAD_FILE_PATH + ", " +
-                PublicCons.DBCons.TB_THREAD_START + ", " +
-                PublicCons.DBCons.TB_THREAD_END + ", " +
-                PublicCons.DBCons.TB_THREAD_ID + " FROM " +
-                PublicCons.DBCons.TB_THREAD + " WHERE " +
-                PublicCons.DBCons.TB_THREAD_URL_BASE + "=?", new String[]{url});
+        Cursor c = getDatabase().rawQuery(SQL_QUERY_ALL, new String[]{url});
         while (c.moveToNext()) {
             infos.add(new ThreadInfo(new File(c.getString(2)), c.getString(0),c.getString(1),
-                    c.getInt(3),  c.getInt(4), c.getString(5)));
+                    c.getLong(3), c.getLong(4), c.getString(5)));
         }
         c.close();
-        db.close();
         return infos;
     }
 }
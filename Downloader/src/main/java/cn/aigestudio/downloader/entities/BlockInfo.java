@@ -0,0 +1,19 @@
+package cn.aigestudio.downloader.entities;
+
+import java.io.Serializable;
+
+/**
+ * 块校验实体类 记录一段已写入数据的CRC32 每条记录不跨越块边界 完整的块只有一条记录
+ * Block checksum entity, CRC32 of a piece of written data. A record never crosses block boundary,
+ * and a complete block has only one record.
+ */
+public class BlockInfo extends DLInfo implements Serializable {
+    public long start, length, crc;
+
+    public BlockInfo(String baseUrl, long start, long length, long crc) {
+        super(null, baseUrl, null);
+        this.start = start;
+        this.length = length;
+        this.crc = crc;
+    }
+}
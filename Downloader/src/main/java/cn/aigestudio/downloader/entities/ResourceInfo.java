@@ -0,0 +1,35 @@
+package cn.aigestudio.downloader.entities;
+
+import java.io.Serializable;
+
+/**
+ * 资源元数据实体类 缓存探测结果 不对应本地文件
+ * Resource metadata entity, caches probe result and has no local file.
+ */
+public class ResourceInfo extends DLInfo implements Serializable {
+    public long length;
+    public String eTag, lastModified;
+    public boolean isRangeable;
+    /**
+     * 上次下载时并发控制收敛到的区间数 即该主机上吞吐量最高的并发数 未知时为0
+     * Count of ranges concurrency control converged to last time, the concurrency with best
+     * throughput on that host, 0 if unknown.
+     */
+    public int concurrency;
+    /**
+     * 过期时刻 单位毫秒
+     * Expiry time in millisecond.
+     */
+    public long expires;
+
+    public ResourceInfo(String baseUrl, String realUrl, long length, String eTag,
+                        String lastModified, boolean isRangeable, int concurrency, long expires) {
+        super(null, baseUrl, realUrl);
+        this.length = length;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+        this.isRangeable = isRangeable;
+        this.concurrency = concurrency;
+        this.expires = expires;
+    }
+}
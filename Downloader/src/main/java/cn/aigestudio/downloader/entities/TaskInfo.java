@@ -12,13 +12,20 @@ import java.io.Serializable;
  * 修改构造方法
  */
 public class TaskInfo extends DLInfo implements Serializable {
-    public int progress, length,threadNum;
+    public long progress, length;
+    public int threadNum;
+    /**
+     * 首次探测得到的校验值 恢复下载时作为If-Range发送 确保各区间来自同一版本的文件
+     * Validators from the first probe, sent as If-Range on resume so all ranges come from the
+     * same version of file.
+     */
+    public String eTag, lastModified;
 
-    public TaskInfo(File dlLocalFile, String baseUrl, String realUrl, int progress, int length) {
+    public TaskInfo(File dlLocalFile, String baseUrl, String realUrl, long progress, long length) {
         this(dlLocalFile, baseUrl, realUrl, progress,length,3);
     }
 
-    public TaskInfo(File dlLocalFile, String baseUrl, String realUrl, int progress, int length, int threadNum) {
+    public TaskInfo(File dlLocalFile, String baseUrl, String realUrl, long progress, long length, int threadNum) {
         super(dlLocalFile, baseUrl, realUrl);
         this.progress = progress;
         this.length = length;
@@ -13,9 +13,9 @@ import java.io.Serializable;
  */
 public class ThreadInfo extends DLInfo implements Serializable {
     public String id;
-    public int start, end;
+    public long start, end;
 
-    public ThreadInfo(File dlLocalFile, String baseUrl, String realUrl, int start, int end, String id) {
+    public ThreadInfo(File dlLocalFile, String baseUrl, String realUrl, long start, long end, String id) {
         super(dlLocalFile, baseUrl, realUrl);
         this.start = start;
         this.end = end;
@@ -1,23 +1,78 @@
 package cn.aigestudio.downloader.interfaces;
 
 import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.HashMap;
+import java.util.Map;
 
 import cn.aigestudio.downloader.daos.DBOpenHelper;
 import cn.aigestudio.downloader.entities.DLInfo;
 
 /**
  * DAO抽象类
+ * 数据库在DAO的生命周期内保持打开 每种操作的SQL语句只编译一次
+ * DAO实例不是线程安全的 需由调用方保证同步
  * Abstract class of DAO.
+ * Database keeps open during the lifetime of DAO and SQL of each operation is compiled only once,
+ * DAO is not thread safe so the caller must synchronize.
  *
  * @author AigeStudio 2015-05-16
  */
 public abstract class DAO {
     protected DBOpenHelper dbHelper;
 
+    private SQLiteDatabase db;
+    private final Map<String, SQLiteStatement> statements = new HashMap<>();
+
     public DAO(Context context) {
         dbHelper = new DBOpenHelper(context);
     }
 
+    public DAO(DBOpenHelper dbHelper) {
+        this.dbHelper = dbHelper;
+    }
+
+    /**
+     * 获取数据库 首次调用时打开 之后一直复用
+     * Get database, it's opened on first call and reused after that.
+     *
+     * @return 数据库 database.
+     */
+    protected SQLiteDatabase getDatabase() {
+        if (null == db || !db.isOpen()) {
+            db = dbHelper.getWritableDatabase();
+            statements.clear();
+        }
+        return db;
+    }
+
+    /**
+     * 获取编译后的SQL语句 同一条SQL只编译一次
+     * Get compiled statement, each SQL is compiled only once.
+     *
+     * @param sql SQL语句 SQL.
+     * @return 编译后的SQL语句 compiled statement.
+     */
+    protected SQLiteStatement getStatement(String sql) {
+        SQLiteDatabase database = getDatabase();
+        SQLiteStatement statement = statements.get(sql);
+        if (null == statement) {
+            statement = database.compileStatement(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    protected static void bindString(SQLiteStatement statement, int index, String value) {
+        if (null == value) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
     public abstract void insertInfo(DLInfo info);
 
     public abstract void deleteInfo(String url);
@@ -27,6 +82,11 @@ public abstract class DAO {
     public abstract DLInfo queryInfo(String str);
 
     public void close() {
+        for (SQLiteStatement statement : statements.values()) {
+            statement.close();
+        }
+        statements.clear();
+        db = null;
         dbHelper.close();
     }
 }
@@ -58,6 +58,17 @@ public class DLTaskListener {
 
     }
 
+    /**
+     * 校验完成时回调 仅在开始下载时指定了校验值时回调 之后回调onFinish或onError
+     * Callback when verification is done, only if checksum is given when download starts,
+     * followed by onFinish or onError.
+     *
+     * @param isMatched 是否与指定的校验值一致 whether it matches the given checksum.
+     * @param checksum  实际的校验值 actual checksum.
+     */
+    public void onVerify(boolean isMatched, String checksum) {
+    }
+
     /**
      * 下载出错时回调
      * Callback when download error.
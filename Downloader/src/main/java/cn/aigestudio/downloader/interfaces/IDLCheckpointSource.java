@@ -0,0 +1,24 @@
+package cn.aigestudio.downloader.interfaces;
+
+import java.io.IOException;
+import java.util.List;
+
+import cn.aigestudio.downloader.entities.DLInfo;
+
+/**
+ * 断点数据来源
+ * 该接口仅供下载任务使用
+ * Source of checkpoint data.
+ * This interface only used by download task.
+ */
+public interface IDLCheckpointSource {
+    /**
+     * 保存断点前回调 收集自上次保存后发生变化的任务和线程数据 并将已写入的数据同步至存储设备
+     * Callback before a checkpoint is saved, collect task and thread infos changed since last
+     * checkpoint and force written bytes to the storage device.
+     *
+     * @param updates 待更新的数据 infos to update.
+     * @throws IOException 同步失败时抛出
+     */
+    void onCheckpoint(List<DLInfo> updates) throws IOException;
+}
@@ -0,0 +1,37 @@
+package cn.aigestudio.downloader.interfaces;
+
+import java.io.IOException;
+
+/**
+ * 数据流的数据来源
+ * 该接口仅供下载任务使用
+ * Source of data of a download stream.
+ * This interface only used by download task.
+ */
+public interface IDLStreamSource {
+    /**
+     * 文件长度 未知时返回-1
+     * Length of file, -1 if unknown.
+     */
+    long length();
+
+    /**
+     * 从指定位置开始连续已写入文件的字节数
+     * Bytes written to file continuously from given position.
+     *
+     * @param position 文件中的位置 position in file.
+     * @return 已写入的字节数 尚未写入时返回0 到达文件末尾时返回-1 bytes written, 0 if not
+     * written yet, -1 at the end of file.
+     * @throws IOException 下载失败或停止且该位置尚未写入时抛出 thrown if download failed or
+     *                     stopped before the position is written.
+     */
+    long available(long position) throws IOException;
+
+    /**
+     * 优先下载指定位置开始的数据
+     * Download data from given position before others.
+     *
+     * @param position 文件中的位置 position in file.
+     */
+    void prioritize(long position);
+}
@@ -0,0 +1,45 @@
+package cn.aigestudio.downloader.interfaces;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 下载文件写入器
+ * 该接口仅供下载线程使用
+ * Writer of downloading file.
+ * This interface only used by download thread.
+ */
+public interface IDLWriter {
+    /**
+     * 将缓冲区中剩余的数据写入文件的指定位置
+     * Write the remaining bytes of buffer at the given position of file.
+     *
+     * @param src      数据缓冲区 source buffer.
+     * @param position 文件中的写入位置 position in file.
+     * @throws IOException 写入失败时抛出
+     */
+    void write(ByteBuffer src, long position) throws IOException;
+
+    /**
+     * 将多个缓冲区中剩余的数据依次写入文件中从指定位置开始的连续区域 同一时间只能有一个线程调用
+     * Write the remaining bytes of buffers one after another to the continuous area of file
+     * from the given position, only one thread may call it at a time.
+     *
+     * @param srcs     数据缓冲区 source buffers.
+     * @param offset   第一个缓冲区在数组中的下标 index of the first buffer in array.
+     * @param length   缓冲区个数 count of buffers.
+     * @param position 文件中的写入位置 position in file.
+     * @throws IOException 写入失败时抛出
+     */
+    void write(ByteBuffer[] srcs, int offset, int length, long position) throws IOException;
+
+    /**
+     * 将已写入的数据同步至存储设备 仅在保存断点前调用
+     * Force written bytes to the storage device, only called before a checkpoint is saved.
+     *
+     * @throws IOException 同步失败时抛出
+     */
+    void sync() throws IOException;
+
+    void close() throws IOException;
+}
@@ -1,7 +1,16 @@
 package cn.aigestudio.downloader.utils;
 
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.StatFs;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 
 /**
  * 文件操作工具类
@@ -61,4 +70,79 @@ public final class FileUtil {
     public static boolean isExist(File file) {
         return file.exists();
     }
+
+    /**
+     * 获取目录所在存储设备的可用空间
+     * Get available space of the storage device holding a directory.
+     *
+     * @param dir 目录 directory.
+     * @return 可用字节数 available bytes.
+     */
+    @SuppressWarnings("deprecation")
+    public static long getAvailableSpace(File dir) {
+        StatFs stat = new StatFs(dir.getPath());
+        if (Build.VERSION.SDK_INT >= 18) {
+            return stat.getAvailableBytes();
+        }
+        return (long) stat.getAvailableBlocks() * stat.getBlockSize();
+    }
+
+    /**
+     * 为文件预分配指定长度的存储空间 使文件连续存放
+     * Preallocate storage of given length for a file so it's laid out contiguously.
+     *
+     * @param file   文件 file.
+     * @param length 文件长度 length of file.
+     * @return true表示存储空间已实际分配 系统或文件系统不支持时返回false true if storage is
+     * actually allocated, false if system or file system doesn't support it.
+     * @throws IOException 存储空间不足时抛出 thrown if there is not enough space.
+     */
+    public static boolean allocate(File file, long length) throws IOException {
+        if (Build.VERSION.SDK_INT < 21) return false;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            return Allocator.allocate(raf.getFD(), length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 调用posix_fallocate 单独成类避免低版本系统校验FileUtil时加载ErrnoException
+     * Calls posix_fallocate, kept in its own class so verifying FileUtil on older systems never
+     * loads ErrnoException.
+     */
+    @TargetApi(21)
+    private static final class Allocator {
+        static boolean allocate(FileDescriptor fd, long length) throws IOException {
+            try {
+                Os.posix_fallocate(fd, 0, length);
+                return true;
+            } catch (ErrnoException e) {
+                if (e.errno == OsConstants.ENOSPC) {
+                    throw new IOException("No space left on device");
+                }
+                // 文件系统不支持 如FAT not supported by file system such as FAT
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 将文件扩展到指定长度 不实际分配存储空间
+     * Extend file to given length without actually allocating storage.
+     *
+     * @param file   文件 file.
+     * @param length 文件长度 length of file.
+     */
+    public static void extend(File file, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() < length) {
+                raf.setLength(length);
+            }
+        } finally {
+            raf.close();
+        }
+    }
 }
@@ -52,6 +52,64 @@ public class NetUtil {
         return connection;
     }
 
+    /**
+     * 获取资源的完整长度 支持超过2GB的文件
+     * 206响应优先取Content-Range中的总长度 否则取Content-Length
+     * Get full length of resource, files larger than 2GB are supported, total length in
+     * Content-Range is preferred for 206 response, otherwise Content-Length is used.
+     *
+     * @param range  响应头Content-Range的值 value of Content-Range header.
+     * @param length 响应头Content-Length的值 value of Content-Length header.
+     * @return 资源长度 未知时返回-1 length of resource, -1 if unknown.
+     */
+    public static long getContentLength(String range, String length) {
+        if (null != range) {
+            int index = range.lastIndexOf('/');
+            if (index != -1 && index < range.length() - 1 && range.charAt(index + 1) != '*') {
+                try {
+                    return Long.parseLong(range.substring(index + 1).trim());
+                } catch (NumberFormatException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        if (null != length) {
+            try {
+                return Long.parseLong(length.trim());
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 获取Cache-Control允许缓存的时间
+     * Get time allowed to cache by Cache-Control.
+     *
+     * @param cacheControl 响应头Cache-Control的值 value of Cache-Control header.
+     * @return 秒数 不允许缓存时返回0 未指定时返回-1 seconds, 0 if caching is not allowed, -1 if
+     * unspecified.
+     */
+    public static long getMaxAge(String cacheControl) {
+        if (null == cacheControl) return -1;
+        long maxAge = -1;
+        for (String directive : cacheControl.toLowerCase().split(",")) {
+            directive = directive.trim();
+            if (directive.equals("no-store") || directive.equals("no-cache")) {
+                return 0;
+            }
+            if (directive.startsWith("max-age=")) {
+                try {
+                    maxAge = Long.parseLong(directive.substring(8).replace("\"", "").trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return maxAge;
+    }
+
     /**
      * 获取网络类型
      *